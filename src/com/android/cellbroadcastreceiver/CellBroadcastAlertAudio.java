@@ -26,32 +26,48 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaPlayer.OnErrorListener;
-import android.os.Bundle;
+import android.media.MediaPlayer.OnPreparedListener;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Vibrator;
-import android.speech.tts.TextToSpeech;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
-import java.util.Locale;
-import java.util.MissingResourceException;
+import com.android.cellbroadcastreceiver.intake.ToneType;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
 
 import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
 
 /**
  * Manages alert audio and vibration and text-to-speech. Runs as a service so that
  * it can continue to play if another activity overrides the CellBroadcastListActivity.
+ *
+ * <p>Alerts that arrive while another alert is playing are queued by priority. A higher
+ * priority alert interrupts the current one, which is played again afterwards; an alert of equal
+ * or lower priority waits until the current one has finished. The readout of an ETWS secondary
+ * notification is merged into the tone of the ETWS primary notification that is playing.
  */
-public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnInitListener,
-        TextToSpeech.OnUtteranceCompletedListener {
+public class CellBroadcastAlertAudio extends Service {
     private static final String TAG = "CellBroadcastAlertAudio";
 
     /** Action to start playing alert audio/vibration/speech. */
     static final String ACTION_START_ALERT_AUDIO = "ACTION_START_ALERT_AUDIO";
 
+    /**
+     * Action to stop the audio of the alert with the row ID in
+     * {@link CellBroadcastMessageCache#EXTRA_ROW_ID}, e.g. because it was dismissed. If it is
+     * playing, the next queued alert starts; if it is queued, it is removed from the queue.
+     * The service stops itself once the queue is empty. Sending it twice is harmless.
+     */
+    static final String ACTION_STOP_ALERT_AUDIO = "ACTION_STOP_ALERT_AUDIO";
+
     /** Extra for message body to speak (if speech enabled in settings). */
     public static final String ALERT_AUDIO_MESSAGE_BODY =
             "com.android.cellbroadcastreceiver.ALERT_AUDIO_MESSAGE_BODY";
@@ -77,11 +93,27 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
     public static final String ALERT_AUDIO_ETWS_VIBRATE_EXTRA =
             "com.android.cellbroadcastreceiver.ALERT_AUDIO_ETWS_VIBRATE";
 
-    private static final String TTS_UTTERANCE_ID = "com.android.cellbroadcastreceiver.UTTERANCE_ID";
+    /** Extra for the alert priority, a rank from {@link CellBroadcastAlertDialog#getAlertRank}. */
+    public static final String ALERT_AUDIO_PRIORITY_EXTRA =
+            "com.android.cellbroadcastreceiver.ALERT_AUDIO_PRIORITY";
+
+    /** Extra for the alert delivery time, used to order alerts like the alert dialog does. */
+    public static final String ALERT_AUDIO_DELIVERY_TIME_EXTRA =
+            "com.android.cellbroadcastreceiver.ALERT_AUDIO_DELIVERY_TIME";
+
+    /** Extra set for ETWS alerts: true for a primary, false for a secondary notification. */
+    public static final String ALERT_AUDIO_ETWS_PRIMARY_EXTRA =
+            "com.android.cellbroadcastreceiver.ALERT_AUDIO_ETWS_PRIMARY";
+
+    /** Maximum time to wait for the main thread when dumping state. */
+    private static final long DUMP_TIMEOUT_MILLIS = 1000;
 
     /** Pause duration between alert sound and alert speech. */
     private static final int PAUSE_DURATION_BEFORE_SPEAKING_MSEC = 1000;
 
+    /** Minimum duration of an alert without sound, if its vibration pattern is empty. */
+    private static final long MIN_VIBRATE_ONLY_DURATION_MSEC = 1000;
+
     private static final int STATE_IDLE = 0;
     private static final int STATE_ALERTING = 1;
     private static final int STATE_PAUSING = 2;
@@ -89,31 +121,125 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
 
     private int mState;
 
-    private TextToSpeech mTts;
-    private boolean mTtsEngineReady;
+    /** The running service, or null; only accessed on the main thread. */
+    private static CellBroadcastAlertAudio sService;
+
+    /** A request to play the audio of one alert. */
+    private static final class AlertRequest {
+        final long mRowId;
+        final int mRank;
+        final long mDeliveryTime;
+        final long mSequence;
+        final ToneType mToneType;
+        final boolean mEtws;
+        final boolean mEtwsPrimary;
+        final boolean mVibrate;
+        final int mTraceId;
+        /** Row ID of an ETWS secondary notification merged into this alert, or 0. */
+        long mMergedRowId;
+        String mMessageBody;
+        String mPreferredLanguage;
+        String mDefaultLanguage;
+
+        AlertRequest(Intent intent, long sequence) {
+            mRowId = intent.getLongExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, 0);
+            mRank = intent.getIntExtra(ALERT_AUDIO_PRIORITY_EXTRA,
+                    CellBroadcastAlertDialog.RANK_OTHER);
+            mDeliveryTime = intent.getLongExtra(ALERT_AUDIO_DELIVERY_TIME_EXTRA, 0);
+            mSequence = sequence;
+            ToneType toneType = (ToneType) intent.getSerializableExtra(ALERT_AUDIO_TONE_TYPE);
+            mToneType = toneType != null ? toneType : ToneType.CMAS_DEFAULT;
+            mEtws = intent.hasExtra(ALERT_AUDIO_ETWS_PRIMARY_EXTRA);
+            mEtwsPrimary = intent.getBooleanExtra(ALERT_AUDIO_ETWS_PRIMARY_EXTRA, false);
+            // force enable vibration for ETWS alerts
+            mVibrate = intent.getBooleanExtra(ALERT_AUDIO_VIBRATE_EXTRA, true)
+                    || intent.getBooleanExtra(ALERT_AUDIO_ETWS_VIBRATE_EXTRA, false);
+            mTraceId = CellBroadcastAlertTrace.getTraceId(intent);
+            // Get text to speak (if enabled by user)
+            mMessageBody = intent.getStringExtra(ALERT_AUDIO_MESSAGE_BODY);
+            mPreferredLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_PREFERRED_LANGUAGE);
+            mDefaultLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_DEFAULT_LANGUAGE);
+        }
+
+        /** Returns true if this request plays the audio of the alert with a row ID. */
+        boolean isFor(long rowId) {
+            return rowId != 0 && (rowId == mRowId || rowId == mMergedRowId);
+        }
+    }
+
+    /**
+     * Orders requests by priority, then newest first, the same order in which
+     * {@link CellBroadcastAlertDialog} displays the alerts.
+     */
+    private static final Comparator<AlertRequest> REQUEST_ORDER = new Comparator<AlertRequest>() {
+        @Override
+        public int compare(AlertRequest a, AlertRequest b) {
+            if (a.mRank != b.mRank) {
+                return a.mRank < b.mRank ? -1 : 1;
+            }
+            if (a.mDeliveryTime != b.mDeliveryTime) {
+                return a.mDeliveryTime > b.mDeliveryTime ? -1 : 1;
+            }
+            if (a.mRowId != b.mRowId) {
+                return a.mRowId > b.mRowId ? -1 : 1;
+            }
+            return Long.compare(b.mSequence, a.mSequence);
+        }
+    };
+
+    /** The alert whose audio is playing, or null. */
+    private AlertRequest mCurrentAlert;
+
+    /** Alerts waiting for the current alert to finish; the first one plays next. */
+    private final TreeSet<AlertRequest> mPendingAlerts = new TreeSet<AlertRequest>(REQUEST_ORDER);
+
+    /** Sequence number of the next request. */
+    private long mNextSequence;
+
+    /** Shared text-to-speech engine, kept bound between alerts. */
+    private CellBroadcastTtsManager mTts;
 
     private String mMessageBody;
     private String mMessagePreferredLanguage;
     private String mMessageDefaultLanguage;
-    private boolean mTtsLanguageSupported;
     private boolean mEnableVibrate;
     private boolean mEnableAudio;
 
     private Vibrator mVibrator;
     private MediaPlayer mMediaPlayer;
+    /** True once mMediaPlayer has been prepared and started for the current alert. */
+    private boolean mMediaPlayerStarted;
     private AudioManager mAudioManager;
     private TelephonyManager mTelephonyManager;
     private int mInitialCallState;
 
+    /** Pre-resolved vibration patterns, ringer mode and call state. */
+    private CellBroadcastAlertPolicy mPolicy;
+
     private PendingIntent mPlayReminderIntent;
 
-    public enum ToneType {
-        CMAS_DEFAULT,
-        ETWS_DEFAULT,
-        EARTHQUAKE,
-        TSUNAMI,
-        OTHER
-    }
+    /** Plays the alert tones from decoded PCM. */
+    private CellBroadcastAlertTones mTones;
+
+    /** Tone volume for the current alert; reduced during calls. */
+    private float mToneVolume;
+
+    /** Falls back to MediaPlayer until a tone has been decoded. */
+    private final CellBroadcastAlertTones.Callback mToneCallback =
+            new CellBroadcastAlertTones.Callback() {
+                @Override
+                public void onToneUnavailable(int resId) {
+                    if (mState == STATE_ALERTING) {
+                        playAlertToneWithMediaPlayer(resId);
+                    }
+                }
+
+                @Override
+                public void onToneCompleted() {
+                    if (DBG) log("Audio playback complete.");
+                    mHandler.sendMessage(mHandler.obtainMessage(ALERT_SOUND_FINISHED));
+                }
+            };
 
     // Internal messages
     private static final int ALERT_SOUND_FINISHED = 1000;
@@ -126,40 +252,27 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
                     if (DBG) log("ALERT_SOUND_FINISHED");
                     stop();     // stop alert sound
                     // if we can speak the message text
-                    if (mMessageBody != null && mTtsEngineReady && mTtsLanguageSupported) {
+                    if (mMessageBody != null && mEnableAudio && mTts.canSpeak()) {
                         mHandler.sendMessageDelayed(mHandler.obtainMessage(ALERT_PAUSE_FINISHED),
                                 PAUSE_DURATION_BEFORE_SPEAKING_MSEC);
                         mState = STATE_PAUSING;
                     } else {
                         if (DBG) log("MessageEmpty = " + (mMessageBody == null) +
-                                ", mTtsEngineReady = " + mTtsEngineReady +
-                                ", mTtsLanguageSupported = " + mTtsLanguageSupported);
-                        stopSelf();
-                        mState = STATE_IDLE;
+                                ", TTS engine or language not available");
+                        playNextAlert();
                     }
                     break;
 
                 case ALERT_PAUSE_FINISHED:
                     if (DBG) log("ALERT_PAUSE_FINISHED");
-                    int res = TextToSpeech.ERROR;
-                    if (mMessageBody != null && mTtsEngineReady && mTtsLanguageSupported) {
-                        if (DBG) log("Speaking broadcast text: " + mMessageBody);
-
-                        Bundle params = new Bundle();
-                        // Play TTS in notification stream.
-                        params.putInt(TextToSpeech.Engine.KEY_PARAM_STREAM,
-                                AudioManager.STREAM_NOTIFICATION);
-                        // Use the non-public parameter 2 --> TextToSpeech.QUEUE_DESTROY for TTS.
-                        // The entire playback queue is purged. This is different from QUEUE_FLUSH
-                        // in that all entries are purged, not just entries from a given caller.
-                        // This is for emergency so we want to kill all other TTS sessions.
-                        res = mTts.speak(mMessageBody, 2, params, TTS_UTTERANCE_ID);
+                    if (mMessageBody != null && mTts.speak(mTtsListener)) {
+                        CellBroadcastAlertWakeLock.acquire(CellBroadcastAlertAudio.this,
+                                CellBroadcastAlertWakeLock.Reason.TTS);
                         mState = STATE_SPEAKING;
-                    }
-                    if (res != TextToSpeech.SUCCESS) {
+                    } else {
                         loge("TTS engine not ready or language not supported or speak() failed");
-                        stopSelf();
                         mState = STATE_IDLE;
+                        playNextAlert();
                     }
                     break;
 
@@ -180,98 +293,114 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         }
     };
 
-    /**
-     * Callback from TTS engine after initialization.
-     * @param status {@link TextToSpeech#SUCCESS} or {@link TextToSpeech#ERROR}.
-     */
+    /** Moves on to the next alert when the alert text has been spoken. */
+    private final CellBroadcastTtsManager.Listener mTtsListener =
+            new CellBroadcastTtsManager.Listener() {
+                @Override
+                public void onSpeechDone() {
+                    // When we reach here, it could be TTS completed or TTS was cut due to another
+                    // new alert started playing. We don't want to stop the service in the later
+                    // case.
+                    CellBroadcastAlertWakeLock.release(CellBroadcastAlertWakeLock.Reason.TTS);
+                    if (mState == STATE_SPEAKING) {
+                        mState = STATE_IDLE;
+                        playNextAlert();
+                    }
+                }
+            };
+
     @Override
-    public void onInit(int status) {
-        if (DBG) log("onInit() TTS engine status: " + status);
-        if (status == TextToSpeech.SUCCESS) {
-            mTtsEngineReady = true;
-            mTts.setOnUtteranceCompletedListener(this);
-            // try to set the TTS language to match the broadcast
-            setTtsLanguage();
-        } else {
-            mTtsEngineReady = false;
-            mTts = null;
-            loge("onInit() TTS engine error: " + status);
-        }
+    public void onCreate() {
+        mVibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+        mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        // Listen for incoming calls to kill the alarm.
+        mTelephonyManager =
+                (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
+        mTelephonyManager.listen(
+                mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
+        mTones = CellBroadcastAlertTones.getInstance(this);
+        mTts = CellBroadcastTtsManager.getInstance(this);
+        mPolicy = CellBroadcastAlertPolicy.getInstance(this);
+        sService = this;
     }
 
     /**
-     * Try to set the TTS engine language to the preferred language. If failed, set
-     * it to the default language. mTtsLanguageSupported will be updated based on the response.
+     * Returns true if the audio of an alert is playing or queued. Must be called on the main
+     * thread.
+     * @param rowId the row ID of the alert
      */
-    private void setTtsLanguage() {
-
-        String language = mMessagePreferredLanguage;
-        if (language == null || language.isEmpty() ||
-                TextToSpeech.LANG_AVAILABLE != mTts.isLanguageAvailable(new Locale(language))) {
-            language = mMessageDefaultLanguage;
-            if (language == null || language.isEmpty() ||
-                    TextToSpeech.LANG_AVAILABLE != mTts.isLanguageAvailable(new Locale(language))) {
-                mTtsLanguageSupported = false;
-                return;
-            }
-            if (DBG) log("Language '" + mMessagePreferredLanguage + "' is not available, using" +
-                    "the default language '" + mMessageDefaultLanguage + "'");
+    static boolean hasAlertAudio(long rowId) {
+        CellBroadcastAlertAudio service = sService;
+        if (service == null) {
+            return false;
         }
-
-        if (DBG) log("Setting TTS language to '" + language + '\'');
-
-        try {
-            int result = mTts.setLanguage(new Locale(language));
-            if (DBG) log("TTS setLanguage() returned: " + result);
-            mTtsLanguageSupported = (result == TextToSpeech.LANG_AVAILABLE);
+        if (service.mCurrentAlert != null && service.mCurrentAlert.isFor(rowId)) {
+            return true;
         }
-        catch (MissingResourceException e) {
-            mTtsLanguageSupported = false;
-            loge("Language '" + language + "' is not available.");
+        for (AlertRequest request : service.mPendingAlerts) {
+            if (request.isFor(rowId)) {
+                return true;
+            }
         }
+        return false;
     }
 
-    /**
-     * Callback from TTS engine.
-     * @param utteranceId the identifier of the utterance.
-     */
     @Override
-    public void onUtteranceCompleted(String utteranceId) {
-        if (utteranceId.equals(TTS_UTTERANCE_ID)) {
-            // When we reach here, it could be TTS completed or TTS was cut due to another
-            // new alert started playing. We don't want to stop the service in the later case.
-            if (mState == STATE_SPEAKING) {
-                stopSelf();
+    protected void dump(FileDescriptor fd, final PrintWriter pw, String[] args) {
+        // The state is owned by the main thread; read it there.
+        boolean dumped = mHandler.runWithScissors(new Runnable() {
+            @Override
+            public void run() {
+                dumpOnMainThread(pw);
             }
+        }, DUMP_TIMEOUT_MILLIS);
+        if (!dumped) {
+            pw.println("CellBroadcastAlertAudio: main thread did not respond");
         }
     }
 
-    @Override
-    public void onCreate() {
-        mVibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
-        mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        // Listen for incoming calls to kill the alarm.
-        mTelephonyManager =
-                (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        mTelephonyManager.listen(
-                mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
+    private void dumpOnMainThread(PrintWriter pw) {
+        pw.println("CellBroadcastAlertAudio: state=" + mState + " audio=" + mEnableAudio
+                + " vibrate=" + mEnableVibrate + " volume=" + mToneVolume);
+        if (mCurrentAlert != null) {
+            pw.println("  current: " + describe(mCurrentAlert));
+        }
+        pw.println("  pending: " + mPendingAlerts.size());
+        for (AlertRequest request : mPendingAlerts) {
+            pw.println("    " + describe(request));
+        }
+        pw.println("  tones: pcm=" + mTones.getPcmPlayCount()
+                + " fallback=" + mTones.getFallbackCount()
+                + " lastTimeToFirstSampleMs=" + mTones.getLastTimeToFirstSampleMillis()
+                + " avgTimeToFirstSampleMs=" + mTones.getAverageTimeToFirstSampleMillis());
+        mTts.dump(pw);
+    }
+
+    private static String describe(AlertRequest request) {
+        return "rank=" + request.mRank + " seq=" + request.mSequence
+                + " tone=" + request.mToneType
+                + (request.mEtws ? (request.mEtwsPrimary ? " etwsPrimary" : " etwsSecondary") : "")
+                + " speech=" + (request.mMessageBody != null)
+                + " trace=" + request.mTraceId;
     }
 
     @Override
     public void onDestroy() {
+        if (sService == this) {
+            sService = null;
+        }
         // stop audio, vibration and TTS
         stop();
+        mPendingAlerts.clear();
+        mCurrentAlert = null;
+        if (mMediaPlayer != null) {
+            mMediaPlayer.release();
+            mMediaPlayer = null;
+        }
         // Stop listening for incoming calls.
         mTelephonyManager.listen(mPhoneStateListener, 0);
-        // shutdown TTS engine
-        if (mTts != null) {
-            try {
-                mTts.shutdown();
-            } catch (IllegalStateException e) {
-                // catch "Unable to retrieve AudioTrack pointer for stop()" exception
-                loge("exception trying to shutdown text-to-speech");
-            }
-        }
+        // let the TTS engine shut down once it has been idle for a while
+        mTts.release();
         if (mEnableAudio) {
             // Release the audio focus so other audio (e.g. music) can resume.
             // Do not do this in stop() because stop() is also called when we stop the tone (before
@@ -279,7 +408,8 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
             mAudioManager.abandonAudioFocus(null);
         }
         // release CPU wake lock acquired by CellBroadcastAlertService
-        CellBroadcastAlertWakeLock.releaseCpuLock();
+        CellBroadcastAlertWakeLock.releaseAll(CellBroadcastAlertWakeLock.Reason.AUDIO);
+        CellBroadcastAlertWakeLock.releaseAll(CellBroadcastAlertWakeLock.Reason.TTS);
     }
 
     @Override
@@ -295,17 +425,58 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
             return START_NOT_STICKY;
         }
 
-        // Get text to speak (if enabled by user)
-        mMessageBody = intent.getStringExtra(ALERT_AUDIO_MESSAGE_BODY);
-        mMessagePreferredLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_PREFERRED_LANGUAGE);
-        mMessageDefaultLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_DEFAULT_LANGUAGE);
+        if (ACTION_STOP_ALERT_AUDIO.equals(intent.getAction())) {
+            stopAlert(intent.getLongExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, 0));
+            return mCurrentAlert != null ? START_STICKY : START_NOT_STICKY;
+        }
 
-        mEnableVibrate = intent.getBooleanExtra(ALERT_AUDIO_VIBRATE_EXTRA, true);
-        if (intent.getBooleanExtra(ALERT_AUDIO_ETWS_VIBRATE_EXTRA, false)) {
-            mEnableVibrate = true;  // force enable vibration for ETWS alerts
+        AlertRequest request = new AlertRequest(intent, mNextSequence++);
+        if (mCurrentAlert == null) {
+            if (!startAlert(request)) {
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+        } else if (mCurrentAlert.mEtwsPrimary && request.mEtws && !request.mEtwsPrimary
+                && (mState == STATE_ALERTING || mState == STATE_PAUSING)) {
+            // The secondary notification usually follows the primary within milliseconds.
+            // Keep the primary tone playing and speak the secondary text when it ends.
+            if (DBG) log("merging ETWS secondary notification into primary alert");
+            mergeAlert(request);
+        } else if (request.mRank < mCurrentAlert.mRank) {
+            if (DBG) log("higher priority alert interrupts current alert");
+            if (mState == STATE_ALERTING) {
+                // Play the interrupted alert again afterwards.
+                enqueueAlert(mCurrentAlert);
+            }
+            if (!startAlert(request)) {
+                playNextAlert();
+            }
+        } else {
+            if (DBG) log("queueing alert behind current alert");
+            enqueueAlert(request);
         }
 
-        switch (mAudioManager.getRingerMode()) {
+        // Record the initial call state here so that the new alarm has the
+        // newest state.
+        mInitialCallState = mPolicy.getCallState();
+
+        return START_STICKY;
+    }
+
+    /**
+     * Start playing the audio of an alert, replacing the current one.
+     * @return false if neither audio nor vibration is enabled for the alert
+     */
+    private boolean startAlert(AlertRequest request) {
+        // Stop the current alert before preparing speech, which would otherwise be cut off.
+        stop();
+        mCurrentAlert = request;
+        mMessageBody = request.mMessageBody;
+        mMessagePreferredLanguage = request.mPreferredLanguage;
+        mMessageDefaultLanguage = request.mDefaultLanguage;
+        mEnableVibrate = request.mVibrate;
+
+        switch (mPolicy.getRingerMode()) {
             case AudioManager.RINGER_MODE_SILENT:
                 if (DBG) log("Ringer mode: silent");
                 mEnableAudio = false;
@@ -324,34 +495,84 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
                 break;
         }
 
+        if (!mEnableAudio && !mEnableVibrate) {
+            mCurrentAlert = null;
+            return false;
+        }
+
         if (mMessageBody != null && mEnableAudio) {
-            if (mTts == null) {
-                mTts = new TextToSpeech(this, this);
-            } else if (mTtsEngineReady) {
-                setTtsLanguage();
-            }
+            // Synthesize the text while the alert tone plays.
+            mTts.prepare(mMessageBody, mMessagePreferredLanguage, mMessageDefaultLanguage);
         }
 
-        if (mEnableAudio || mEnableVibrate) {
-            ToneType toneType = ToneType.CMAS_DEFAULT;
-            if (intent.getSerializableExtra(ALERT_AUDIO_TONE_TYPE) != null) {
-                toneType = (ToneType) intent.getSerializableExtra(ALERT_AUDIO_TONE_TYPE);
+        // Restarts the safety timeout for each queued alert that is played.
+        CellBroadcastAlertWakeLock.acquire(this, CellBroadcastAlertWakeLock.Reason.AUDIO);
+        playAlertTone(request.mToneType);
+        CellBroadcastAlertTrace.mark(request.mTraceId, CellBroadcastAlertTrace.Stage.TONE_STARTED);
+        return true;
+    }
+
+    /**
+     * Stop the audio of an alert: move on to the next alert if it is playing, or remove it from
+     * the queue. Other alerts are not affected.
+     * @param rowId the row ID of the alert
+     */
+    private void stopAlert(long rowId) {
+        if (mCurrentAlert != null && mCurrentAlert.isFor(rowId)) {
+            if (DBG) log("stopping current alert, " + mPendingAlerts.size() + " queued");
+            playNextAlert();
+            return;
+        }
+        Iterator<AlertRequest> it = mPendingAlerts.iterator();
+        while (it.hasNext()) {
+            if (it.next().isFor(rowId)) {
+                if (DBG) log("removing queued alert for row " + rowId);
+                it.remove();
             }
-            playAlertTone(toneType);
-        } else {
+        }
+        if (mCurrentAlert == null && mPendingAlerts.isEmpty()) {
             stopSelf();
-            return START_NOT_STICKY;
         }
+    }
 
-        // Record the initial call state here so that the new alarm has the
-        // newest state.
-        mInitialCallState = mTelephonyManager.getCallState();
+    /**
+     * Speak the text of an ETWS secondary notification after the tone of the primary
+     * notification that is playing, instead of restarting the tone.
+     */
+    private void mergeAlert(AlertRequest secondary) {
+        mCurrentAlert.mMergedRowId = secondary.mRowId;
+        mCurrentAlert.mMessageBody = secondary.mMessageBody;
+        mCurrentAlert.mPreferredLanguage = secondary.mPreferredLanguage;
+        mCurrentAlert.mDefaultLanguage = secondary.mDefaultLanguage;
+        mMessageBody = secondary.mMessageBody;
+        mMessagePreferredLanguage = secondary.mPreferredLanguage;
+        mMessageDefaultLanguage = secondary.mDefaultLanguage;
+        if (mMessageBody != null && mEnableAudio) {
+            mTts.prepare(mMessageBody, mMessagePreferredLanguage, mMessageDefaultLanguage);
+        }
+    }
 
-        return START_STICKY;
+    /** Queue an alert, dropping the lowest priority one if the queue is full. */
+    private void enqueueAlert(AlertRequest request) {
+        mPendingAlerts.add(request);
+        if (mPendingAlerts.size() > CellBroadcastAlertDialog.MAX_QUEUED_ALERTS) {
+            AlertRequest dropped = mPendingAlerts.pollLast();
+            loge("alert audio queue full, dropping alert with rank " + dropped.mRank);
+        }
     }
 
-    // Volume suggested by media team for in-call alarms.
-    private static final float IN_CALL_VOLUME = 0.125f;
+    /** Play the next queued alert, or stop the service if there is none. */
+    private void playNextAlert() {
+        stop();
+        AlertRequest next;
+        while ((next = mPendingAlerts.pollFirst()) != null) {
+            if (startAlert(next)) {
+                return;
+            }
+        }
+        mCurrentAlert = null;
+        stopSelf();
+    }
 
     /**
      * Start playing the alert sound.
@@ -364,33 +585,74 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         log("playAlertTone: toneType=" + toneType);
 
         // Start the vibration first.
+        long[] pattern = mPolicy.getVibrationPattern(toneType);
         if (mEnableVibrate) {
+            mVibrator.vibrate(pattern, -1);
+        }
 
-            int[] patternArray = getApplicationContext().getResources().
-                    getIntArray(R.array.default_vibration_pattern);
-            long[] vibrationPattern = new long[patternArray.length];
-
-            for (int i = 0; i < patternArray.length; i++) {
-                vibrationPattern[i] = patternArray[i];
+        if (mEnableAudio) {
+            // Check if we are in a call. If we are, play the alert
+            // sound at a low volume to not disrupt the call.
+            mToneVolume = mPolicy.getToneVolume();
+            if (mToneVolume != 1.0f) {
+                log("in call: reducing volume");
             }
 
-            mVibrator.vibrate(vibrationPattern, -1);
+            // start playing alert audio (unless master volume is vibrate only or silent).
+            mAudioManager.requestAudioFocus(null, AudioManager.STREAM_NOTIFICATION,
+                    AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+
+            // Play the decoded tone; falls back to MediaPlayer if it is not decoded yet.
+            mTones.play(CellBroadcastAlertTones.getToneResource(toneType), mToneVolume,
+                    mToneCallback);
+        } else {
+            // No tone to complete; the alert ends with the vibration pattern.
+            long duration = 0;
+            for (long millis : pattern) {
+                duration += millis;
+            }
+            mHandler.sendEmptyMessageDelayed(ALERT_SOUND_FINISHED,
+                    Math.max(duration, MIN_VIBRATE_ONLY_DURATION_MSEC));
         }
 
+        mState = STATE_ALERTING;
+    }
 
-        if (mEnableAudio) {
-            // future optimization: reuse media player object
+    /**
+     * Play an alert tone with MediaPlayer, used until the tone has been decoded.
+     * @param resId the raw resource of the tone
+     */
+    private void playAlertToneWithMediaPlayer(int resId) {
+        // The player is kept for the lifetime of the service and reset between alerts.
+        if (mMediaPlayer == null) {
             mMediaPlayer = new MediaPlayer();
             mMediaPlayer.setOnErrorListener(new OnErrorListener() {
                 public boolean onError(MediaPlayer mp, int what, int extra) {
                     loge("Error occurred while playing audio.");
-                    mp.stop();
-                    mp.release();
-                    mMediaPlayer = null;
+                    mp.reset();
+                    mMediaPlayerStarted = false;
+                    if (mState == STATE_ALERTING) {
+                        // Move on as if the tone had completed.
+                        mHandler.sendMessage(mHandler.obtainMessage(ALERT_SOUND_FINISHED));
+                    }
                     return true;
                 }
             });
 
+            mMediaPlayer.setOnPreparedListener(new OnPreparedListener() {
+                public void onPrepared(MediaPlayer mp) {
+                    // The player is reset when the alert is stopped, which cancels a pending
+                    // prepare; check the state anyway in case the callback was already queued.
+                    if (mState != STATE_ALERTING) {
+                        mp.reset();
+                        return;
+                    }
+                    mp.start();
+                    mMediaPlayerStarted = true;
+                    mTones.recordFallbackStarted();
+                }
+            });
+
             mMediaPlayer.setOnCompletionListener(new OnCompletionListener() {
                 public void onCompletion(MediaPlayer mp) {
                     if (DBG) log("Audio playback complete.");
@@ -398,56 +660,26 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
                     return;
                 }
             });
+        } else {
+            mMediaPlayer.reset();
+        }
 
-            try {
-                // Check if we are in a call. If we are, play the alert
-                // sound at a low volume to not disrupt the call.
-                if (mTelephonyManager.getCallState()
-                        != TelephonyManager.CALL_STATE_IDLE) {
-                    log("in call: reducing volume");
-                    mMediaPlayer.setVolume(IN_CALL_VOLUME, IN_CALL_VOLUME);
-                }
-
-                log("Locale=" + getResources().getConfiguration().getLocales());
-
-                // Load the tones based on type
-                switch (toneType) {
-                    case EARTHQUAKE:
-                        setDataSourceFromResource(getResources(), mMediaPlayer,
-                                R.raw.etws_earthquake);
-                        break;
-                    case TSUNAMI:
-                        setDataSourceFromResource(getResources(), mMediaPlayer,
-                                R.raw.etws_tsunami);
-                        break;
-                    case OTHER:
-                        setDataSourceFromResource(getResources(), mMediaPlayer,
-                                R.raw.etws_other_disaster);
-                        break;
-                    case ETWS_DEFAULT:
-                        setDataSourceFromResource(getResources(), mMediaPlayer,
-                                R.raw.etws_default);
-                    case CMAS_DEFAULT:
-                    default:
-                        setDataSourceFromResource(getResources(), mMediaPlayer,
-                                R.raw.cmas_default);
-                }
+        try {
+            mMediaPlayer.setVolume(mToneVolume, mToneVolume);
 
-                // start playing alert audio (unless master volume is vibrate only or silent).
-                mAudioManager.requestAudioFocus(null, AudioManager.STREAM_NOTIFICATION,
-                        AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+            log("Locale=" + getResources().getConfiguration().getLocales());
 
-                mMediaPlayer.setAudioStreamType(AudioManager.STREAM_NOTIFICATION);
-                mMediaPlayer.setLooping(false);
-                mMediaPlayer.prepare();
-                mMediaPlayer.start();
+            setDataSourceFromResource(getResources(), mMediaPlayer, resId);
 
-            } catch (Exception ex) {
-                loge("Failed to play alert sound: " + ex);
-            }
+            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_NOTIFICATION);
+            mMediaPlayer.setLooping(false);
+            // Prepare off the main thread; playback starts in onPrepared().
+            mMediaPlayer.prepareAsync();
+        } catch (Exception ex) {
+            loge("Failed to play alert sound: " + ex);
+            mMediaPlayer.reset();
+            mHandler.sendMessage(mHandler.obtainMessage(ALERT_SOUND_FINISHED));
         }
-
-        mState = STATE_ALERTING;
     }
 
     private static void setDataSourceFromResource(Resources resources,
@@ -476,26 +708,26 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
 
         if (mState == STATE_ALERTING) {
             // Stop audio playing
+            mTones.stop();
             if (mMediaPlayer != null) {
-                try {
-                    mMediaPlayer.stop();
-                    mMediaPlayer.release();
-                } catch (IllegalStateException e) {
-                    // catch "Unable to retrieve AudioTrack pointer for stop()" exception
-                    loge("exception trying to stop media player");
+                if (mMediaPlayerStarted) {
+                    try {
+                        mMediaPlayer.stop();
+                    } catch (IllegalStateException e) {
+                        // catch "Unable to retrieve AudioTrack pointer for stop()" exception
+                        loge("exception trying to stop media player");
+                    }
                 }
-                mMediaPlayer = null;
+                // Also cancels a prepare that is still in progress.
+                mMediaPlayer.reset();
+                mMediaPlayerStarted = false;
             }
 
             // Stop vibrator
             mVibrator.cancel();
-        } else if (mState == STATE_SPEAKING && mTts != null) {
-            try {
-                mTts.stop();
-            } catch (IllegalStateException e) {
-                // catch "Unable to retrieve AudioTrack pointer for stop()" exception
-                loge("exception trying to stop text-to-speech");
-            }
+        } else if (mState == STATE_SPEAKING) {
+            mTts.stop();
+            CellBroadcastAlertWakeLock.releaseAll(CellBroadcastAlertWakeLock.Reason.TTS);
         }
         mState = STATE_IDLE;
     }
@@ -16,33 +16,46 @@
 
 package com.android.cellbroadcastreceiver;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.TimeInterpolator;
 import android.app.Activity;
 import android.app.KeyguardManager;
 import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
-import android.provider.Telephony;
 import android.telephony.CellBroadcastMessage;
 import android.telephony.SmsCbCmasInfo;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
+import android.view.RenderNodeAnimator;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -60,8 +73,66 @@ public class CellBroadcastAlertDialog extends Activity {
     //  without acknowleding the dialog
     static final String FROM_SAVE_STATE_NOTIFICATION_EXTRA = "from_save_state_notification";
 
-    /** List of cell broadcast messages to display (oldest to newest). */
-    protected ArrayList<CellBroadcastMessage> mMessageList;
+    /**
+     * Maximum number of alerts queued for display. When more arrive, the lowest priority alert
+     * is dropped from the queue; it stays unread in the broadcast list.
+     */
+    static final int MAX_QUEUED_ALERTS = 20;
+
+    // Display ranks, from most to least important.
+    static final int RANK_PRESIDENTIAL = 0;
+    static final int RANK_EXTREME = 1;
+    static final int RANK_SEVERE = 2;
+    static final int RANK_AMBER = 3;
+    static final int RANK_TEST = 4;
+    static final int RANK_OTHER = 5;
+
+    /** An alert being displayed: its row ID, display rank and the message loaded for it. */
+    static final class Alert {
+        final long mRowId;
+        final int mRank;
+        final CellBroadcastMessage mMessage;
+
+        Alert(long rowId, CellBroadcastMessage message) {
+            mRowId = rowId;
+            mRank = getAlertRank(message);
+            mMessage = message;
+        }
+    }
+
+    /** Orders alerts by rank, then newest first. Row ID makes the order total. */
+    private static final Comparator<Alert> ALERT_ORDER = new Comparator<Alert>() {
+        @Override
+        public int compare(Alert a, Alert b) {
+            if (a.mRank != b.mRank) {
+                return a.mRank < b.mRank ? -1 : 1;
+            }
+            long timeA = a.mMessage.getDeliveryTime();
+            long timeB = b.mMessage.getDeliveryTime();
+            if (timeA != timeB) {
+                return timeA > timeB ? -1 : 1;
+            }
+            return Long.compare(b.mRowId, a.mRowId);
+        }
+    };
+
+    /** Queue of alerts to display; the first alert is the one shown. */
+    protected TreeSet<Alert> mAlertQueue;
+
+    /** Row IDs of alerts being loaded from the provider on a worker thread. */
+    private final HashSet<Long> mLoadingRowIds = new HashSet<Long>();
+
+    /** Incremented when the queue is replaced, so that older loads are discarded. */
+    private int mLoadGeneration;
+
+    /**
+     * Intent extra with the {@link SystemClock#elapsedRealtime} at which the alert was sent to
+     * the activity, to measure the time until the alert is first drawn.
+     */
+    static final String EXTRA_INTENT_TIME = "intent_time";
+
+    /** Time from the alert intent to the first draw, or -1 if not drawn or not measured. */
+    private long mFirstDrawLatencyMillis = -1;
 
     /** Whether a CMAS alert other than Presidential Alert was displayed. */
     private boolean mShowOptOutDialog;
@@ -81,8 +152,24 @@ public class CellBroadcastAlertDialog extends Activity {
     /** Handler to add and remove screen on flags for emergency alerts. */
     private final ScreenOffHandler mScreenOffHandler = new ScreenOffHandler();
 
+    /** Number of on/off cycles of the warning icon run by one render thread animator. */
+    private static final int WARNING_ICON_BLINKS_PER_ANIMATOR = 10;
+
+    /** Maps the animator fraction to icon alpha: on for the first part of each cycle, then off. */
+    private static final TimeInterpolator WARNING_ICON_BLINK_INTERPOLATOR = new TimeInterpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            float phase = (input * WARNING_ICON_BLINKS_PER_ANIMATOR) % 1f;
+            return phase * (WARNING_ICON_ON_DURATION_MSEC + WARNING_ICON_OFF_DURATION_MSEC)
+                    < WARNING_ICON_ON_DURATION_MSEC ? 1f : 0f;
+        }
+    };
+
     /**
-     * Animation handler for the flashing warning icon (emergency alerts only).
+     * Animation handler for the flashing warning icon (emergency alerts only). With hardware
+     * acceleration the icon alpha is animated on the render thread, and the main thread only
+     * starts a new animator every {@link #WARNING_ICON_BLINKS_PER_ANIMATOR} cycles. Otherwise the
+     * icon is toggled by handler messages. The animation is paused while the screen is off.
      */
     private class AnimationHandler extends Handler {
         /** Latest {@code message.what} value for detecting old messages. */
@@ -97,6 +184,39 @@ public class CellBroadcastAlertDialog extends Activity {
         /** The View containing the warning icon. */
         private ImageView mWarningIconView;
 
+        /** The running render thread animator, or null. */
+        private RenderNodeAnimator mAnimator;
+
+        /** True between startIconAnimation() and stopIconAnimation(). */
+        private boolean mAnimating;
+
+        /** Uptime when the animation was started, for the callback count log. */
+        private long mAnimationStartTime;
+
+        /** Number of main thread callbacks run by the current animation. */
+        private int mMainThreadCallbacks;
+
+        /** Pauses the animation while the screen is off. */
+        private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                    cancelBlinking();
+                } else if (mAnimating) {
+                    startBlinking();
+                }
+            }
+        };
+
+        private final Runnable mStartBlinkingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mAnimating && mWarningIconView.isAttachedToWindow()) {
+                    startBlinking();
+                }
+            }
+        };
+
         /** Package local constructor (called from outer class). */
         AnimationHandler() {}
 
@@ -105,21 +225,84 @@ public class CellBroadcastAlertDialog extends Activity {
             if (!initDrawableAndImageView()) {
                 return;     // init failure
             }
-            mWarningIconVisible = true;
+            if (!mAnimating) {
+                mAnimating = true;
+                mAnimationStartTime = SystemClock.uptimeMillis();
+                mMainThreadCallbacks = 0;
+                IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+                filter.addAction(Intent.ACTION_SCREEN_ON);
+                registerReceiver(mScreenReceiver, filter);
+            }
             mWarningIconView.setVisibility(View.VISIBLE);
-            updateIconState();
-            queueAnimateMessage();
+            startBlinking();
         }
 
         /** Stop the warning icon animation. */
         void stopIconAnimation() {
+            cancelBlinking();
+            if (mAnimating) {
+                mAnimating = false;
+                unregisterReceiver(mScreenReceiver);
+                Log.d(TAG, "warning icon animated for "
+                        + (SystemClock.uptimeMillis() - mAnimationStartTime) + " ms with "
+                        + mMainThreadCallbacks + " main thread callbacks");
+            }
+            if (mWarningIconView != null) {
+                mWarningIconView.setVisibility(View.GONE);
+            }
+        }
+
+        /** Start blinking from the visible state. */
+        private void startBlinking() {
+            cancelBlinking();
+            if (!mWarningIconView.isAttachedToWindow()) {
+                // Hardware acceleration is known, and animators can start, once attached.
+                mWarningIconView.post(mStartBlinkingRunnable);
+                return;
+            }
+            mWarningIconVisible = true;
+            if (mWarningIconView.isHardwareAccelerated()) {
+                startAnimator();
+            } else {
+                updateIconState();
+                queueAnimateMessage();
+            }
+        }
+
+        /** Stop blinking, leaving the icon in its current state. */
+        private void cancelBlinking() {
             // Increment the counter so the handler will ignore the next message.
             mCount.incrementAndGet();
             if (mWarningIconView != null) {
-                mWarningIconView.setVisibility(View.GONE);
+                mWarningIconView.removeCallbacks(mStartBlinkingRunnable);
+            }
+            if (mAnimator != null) {
+                RenderNodeAnimator animator = mAnimator;
+                mAnimator = null;   // so that onAnimationEnd() does not start another
+                animator.cancel();
             }
         }
 
+        /** Run the next cycles of the animation on the render thread. */
+        private void startAnimator() {
+            mAnimator = new RenderNodeAnimator(RenderNodeAnimator.ALPHA, 1f);
+            mAnimator.setStartValue(0f);
+            mAnimator.setDuration((long) WARNING_ICON_BLINKS_PER_ANIMATOR
+                    * (WARNING_ICON_ON_DURATION_MSEC + WARNING_ICON_OFF_DURATION_MSEC));
+            mAnimator.setInterpolator(WARNING_ICON_BLINK_INTERPOLATOR);
+            mAnimator.setTarget(mWarningIconView);
+            mAnimator.addListener(new AnimatorListenerAdapter() {
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    if (animation == mAnimator) {
+                        mMainThreadCallbacks++;
+                        startAnimator();
+                    }
+                }
+            });
+            mAnimator.start();
+        }
+
         /** Update the visibility of the warning icon. */
         private void updateIconState() {
             mWarningIconView.setImageAlpha(mWarningIconVisible ? 255 : 0);
@@ -136,6 +319,7 @@ public class CellBroadcastAlertDialog extends Activity {
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == mCount.get()) {
+                mMainThreadCallbacks++;
                 mWarningIconVisible = !mWarningIconVisible;
                 updateIconState();
                 queueAnimateMessage();
@@ -221,6 +405,7 @@ public class CellBroadcastAlertDialog extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        CellBroadcastReceiverApp.traceEntryPoint("alert dialog");
 
         final Window win = getWindow();
 
@@ -234,9 +419,14 @@ public class CellBroadcastAlertDialog extends Activity {
 
         setFinishOnTouchOutside(false);
 
-        // Initialize the view.
-        LayoutInflater inflater = LayoutInflater.from(this);
-        setContentView(inflater.inflate(R.layout.cell_broadcast_alert, null));
+        // Initialize the view, using the pre-inflated layout if there is one.
+        View view = CellBroadcastAlertViewCache.obtain(this);
+        if (view == null) {
+            view = LayoutInflater.from(this).inflate(R.layout.cell_broadcast_alert, null);
+        }
+        setContentView(view);
+        recordFirstDraw(view, getIntent().getLongExtra(EXTRA_INTENT_TIME, 0),
+                CellBroadcastAlertTrace.getTraceId(getIntent()));
 
         findViewById(R.id.dismissButton).setOnClickListener(
                 new Button.OnClickListener() {
@@ -246,26 +436,31 @@ public class CellBroadcastAlertDialog extends Activity {
                     }
                 });
 
-        // Get message list from saved Bundle or from Intent.
+        // Get message row IDs from saved Bundle or from Intent.
         if (savedInstanceState != null) {
             Log.d(TAG, "onCreate getting message list from saved instance state");
-            mMessageList = savedInstanceState.getParcelableArrayList(
-                    CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+            CellBroadcastMessageCache.restoreUnsaved(savedInstanceState);
+            setAlerts(savedInstanceState.getLongArray(CellBroadcastMessageCache.EXTRA_ROW_IDS));
         } else {
             Log.d(TAG, "onCreate getting message list from intent");
             Intent intent = getIntent();
-            mMessageList = intent.getParcelableArrayListExtra(
-                    CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+            CellBroadcastMessageCache.restoreUnsaved(intent.getExtras());
+            setAlerts(intent.getLongArrayExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS));
 
             // If we were started from a notification, dismiss it.
             clearNotification(intent);
         }
 
-        if (mMessageList == null || mMessageList.size() == 0) {
-            Log.e(TAG, "onCreate failed as message list is null or empty");
-            finish();
+        if (mAlertQueue.isEmpty()) {
+            if (mLoadingRowIds.isEmpty()) {
+                Log.e(TAG, "onCreate failed as message list is null or empty");
+                finish();
+            } else {
+                Log.d(TAG, "onCreate waiting for " + mLoadingRowIds.size() + " alerts to load");
+            }
+            return;
         } else {
-            Log.d(TAG, "onCreate loaded message list of size " + mMessageList.size());
+            Log.d(TAG, "onCreate loaded message list of size " + mAlertQueue.size());
         }
 
         // For emergency alerts, keep screen on so the user can read it
@@ -279,6 +474,42 @@ public class CellBroadcastAlertDialog extends Activity {
         updateAlertText(message);
     }
 
+    /**
+     * Measure the time from the alert intent to the first draw of the alert.
+     * @param view the content view
+     * @param intentTime the time the intent was sent, or 0 if unknown
+     * @param traceId the trace ID of the alert, or {@link CellBroadcastAlertTrace#NO_TRACE}
+     */
+    private void recordFirstDraw(final View view, final long intentTime, final int traceId) {
+        if (intentTime == 0) {
+            return;
+        }
+        view.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (mFirstDrawLatencyMillis >= 0) {
+                    return;
+                }
+                mFirstDrawLatencyMillis = SystemClock.elapsedRealtime() - intentTime;
+                CellBroadcastAlertTrace.mark(traceId, CellBroadcastAlertTrace.Stage.FIRST_DRAW);
+                Log.d(TAG, "alert first drawn " + mFirstDrawLatencyMillis + " ms after intent");
+                // Listeners cannot be removed while dispatching onDraw().
+                final ViewTreeObserver.OnDrawListener listener = this;
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        view.getViewTreeObserver().removeOnDrawListener(listener);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Returns the time from the alert intent to the first draw, or -1 if not drawn yet. */
+    long getFirstDrawLatencyMillis() {
+        return mFirstDrawLatencyMillis;
+    }
+
     /**
      * Start animating warning icon.
      */
@@ -310,40 +541,208 @@ public class CellBroadcastAlertDialog extends Activity {
         // screen goes off
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         if (!(isChangingConfigurations() || getLatestMessage() == null) && pm.isScreenOn()) {
-            CellBroadcastAlertService.addToNotificationBar(getLatestMessage(), mMessageList,
+            CellBroadcastAlertService.addToNotificationBar(getLatestMessage(), getRowIds(),
                     getApplicationContext(), true);
         }
     }
 
-    /** Returns the currently displayed message. */
+    /**
+     * Returns the display rank of a message: presidential, extreme, severe, amber, test, then
+     * everything else. ETWS warnings rank with extreme threats.
+     * @param message the message to rank
+     * @return one of the {@code RANK_*} constants
+     */
+    static int getAlertRank(CellBroadcastMessage message) {
+        if (message.isEtwsMessage()) {
+            return message.isEtwsTestMessage() ? RANK_TEST : RANK_EXTREME;
+        }
+        switch (message.getCmasMessageClass()) {
+            case SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT:
+                return RANK_PRESIDENTIAL;
+            case SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT:
+                return RANK_EXTREME;
+            case SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT:
+                return RANK_SEVERE;
+            case SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
+                return RANK_AMBER;
+            case SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
+            case SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE:
+            case SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
+                return RANK_TEST;
+            default:
+                return RANK_OTHER;
+        }
+    }
+
+    /**
+     * Replace the queue with the messages for a list of row IDs. Row IDs whose message no
+     * longer exists are skipped.
+     * @param rowIds the row IDs to load, or null
+     */
+    private void setAlerts(long[] rowIds) {
+        mLoadGeneration++;
+        mLoadingRowIds.clear();
+        mAlertQueue = new TreeSet<Alert>(ALERT_ORDER);
+        if (rowIds != null) {
+            addAlerts(rowIds);
+        }
+    }
+
+    /**
+     * Add the messages for a list of row IDs to the queue. Cached messages are added right
+     * away; the others are loaded with a single provider query on a worker thread and added
+     * when it completes.
+     * @param rowIds the row IDs to load
+     */
+    private void addAlerts(long[] rowIds) {
+        long[] missing = new long[rowIds.length];
+        int missingCount = 0;
+        for (long rowId : rowIds) {
+            CellBroadcastMessage message = CellBroadcastMessageCache.getCached(rowId);
+            if (message != null) {
+                addAlert(rowId, message);
+            } else if (!CellBroadcastMessageCache.isUnsaved(rowId)
+                    && mLoadingRowIds.add(rowId)) {
+                missing[missingCount++] = rowId;
+            }
+        }
+        if (missingCount > 0) {
+            new LoadAlertsTask(Arrays.copyOf(missing, missingCount), mLoadGeneration)
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Add an alert to the queue, dropping the lowest priority alert if the queue grows beyond
+     * {@link #MAX_QUEUED_ALERTS}.
+     */
+    private void addAlert(long rowId, CellBroadcastMessage message) {
+        mAlertQueue.add(new Alert(rowId, message));
+        if (mAlertQueue.size() > MAX_QUEUED_ALERTS) {
+            dropLowestAlert(mAlertQueue);
+        }
+    }
+
+    /** Loads uncached alerts from the provider and adds them to the queue. */
+    private class LoadAlertsTask
+            extends AsyncTask<Void, Void, LongSparseArray<CellBroadcastMessage>> {
+        private final Context mContext = getApplicationContext();
+        private final long[] mRowIds;
+        private final int mGeneration;
+
+        LoadAlertsTask(long[] rowIds, int generation) {
+            mRowIds = rowIds;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected LongSparseArray<CellBroadcastMessage> doInBackground(Void... params) {
+            return CellBroadcastMessageCache.loadAll(mContext, mRowIds);
+        }
+
+        @Override
+        protected void onPostExecute(LongSparseArray<CellBroadcastMessage> messages) {
+            if (mGeneration != mLoadGeneration || isDestroyed()) {
+                return;
+            }
+            Alert shownAlert = mAlertQueue.isEmpty() ? null : mAlertQueue.first();
+            for (long rowId : mRowIds) {
+                if (mLoadingRowIds.remove(rowId)) {
+                    CellBroadcastMessage message = messages.get(rowId);
+                    if (message != null) {
+                        addAlert(rowId, message);
+                    }
+                }
+            }
+            onAlertsLoaded(shownAlert);
+        }
+    }
+
+    /**
+     * Update the display after alerts were loaded in the background.
+     * @param shownAlert the alert displayed before the load, or null if none was
+     */
+    private void onAlertsLoaded(Alert shownAlert) {
+        CellBroadcastMessage message = getLatestMessage();
+        if (message == null) {
+            if (mLoadingRowIds.isEmpty() && !isFinishing()) {
+                Log.e(TAG, "no alerts left to display after loading");
+                finish();
+            }
+            return;
+        }
+        if (mAlertQueue.first() == shownAlert) {
+            return;
+        }
+        updateAlertText(message);
+        if (CellBroadcastAlertService.isEmergencyMessage(this, message)) {
+            mScreenOffHandler.startScreenOnTimer();
+            if (isResumed()) {
+                mAnimationHandler.startIconAnimation();
+            }
+        } else if (shownAlert != null) {
+            mAnimationHandler.stopIconAnimation();
+        }
+    }
+
+    /**
+     * Remove the lowest priority alert that is stored in the database from the queue. It
+     * stays unread in the broadcast list. Alerts that could not be stored are never dropped,
+     * since there would be no other way to see them.
+     */
+    private static void dropLowestAlert(TreeSet<Alert> queue) {
+        Iterator<Alert> it = queue.descendingIterator();
+        while (it.hasNext()) {
+            Alert alert = it.next();
+            if (!CellBroadcastMessageCache.isUnsaved(alert.mRowId)) {
+                Log.d(TAG, "alert queue full, dropping alert at row " + alert.mRowId);
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the row IDs of the alerts to display, highest priority first, followed by those
+     * still being loaded.
+     */
+    private long[] getRowIds() {
+        long[] rowIds = new long[mAlertQueue.size() + mLoadingRowIds.size()];
+        int i = 0;
+        for (Alert alert : mAlertQueue) {
+            rowIds[i++] = alert.mRowId;
+        }
+        for (long rowId : mLoadingRowIds) {
+            rowIds[i++] = rowId;
+        }
+        return rowIds;
+    }
+
+    /** Returns the currently displayed message: the highest priority, newest alert. */
     CellBroadcastMessage getLatestMessage() {
-        int index = mMessageList.size() - 1;
-        if (index >= 0) {
-            return mMessageList.get(index);
+        if (!mAlertQueue.isEmpty()) {
+            return mAlertQueue.first().mMessage;
         } else {
             Log.d(TAG, "getLatestMessage returns null");
             return null;
         }
     }
 
-    /** Removes and returns the currently displayed message. */
-    private CellBroadcastMessage removeLatestMessage() {
-        int index = mMessageList.size() - 1;
-        if (index >= 0) {
-            return mMessageList.remove(index);
-        } else {
-            return null;
-        }
+    /** Removes and returns the currently displayed alert. */
+    private Alert removeLatestAlert() {
+        return mAlertQueue.pollFirst();
     }
 
     /**
-     * Save the list of messages so the state can be restored later.
+     * Save the row IDs of the messages so the state can be restored later.
      * @param outState Bundle in which to place the saved state.
      */
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putParcelableArrayList(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, mMessageList);
+        long[] rowIds = getRowIds();
+        outState.putLongArray(CellBroadcastMessageCache.EXTRA_ROW_IDS, rowIds);
+        CellBroadcastMessageCache.writeUnsaved(outState, rowIds);
     }
 
     /**
@@ -358,29 +757,32 @@ public class CellBroadcastAlertDialog extends Activity {
         ((TextView) findViewById(R.id.message)).setText(message.getMessageBody());
 
         // Set alert reminder depending on user preference
-        CellBroadcastAlertReminder.queueAlertReminder(this, true);
+        CellBroadcastAlertReminder.queueAlertReminder(this, mAlertQueue.first().mRowId);
     }
 
     /**
      * Called by {@link CellBroadcastAlertService} to add a new alert to the stack.
-     * @param intent The new intent containing one or more {@link CellBroadcastMessage}s.
+     * @param intent The new intent containing the row IDs of one or more messages.
      */
     @Override
     protected void onNewIntent(Intent intent) {
-        ArrayList<CellBroadcastMessage> newMessageList = intent.getParcelableArrayListExtra(
-                CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
-        if (newMessageList != null) {
+        long[] newRowIds = intent.getLongArrayExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS);
+        if (newRowIds != null) {
+            CellBroadcastMessageCache.restoreUnsaved(intent.getExtras());
             if (intent.getBooleanExtra(FROM_SAVE_STATE_NOTIFICATION_EXTRA, false)) {
-                mMessageList = newMessageList;
+                setAlerts(newRowIds);
             } else {
-                mMessageList.addAll(newMessageList);
+                addAlerts(newRowIds);
+            }
+            Log.d(TAG, "onNewIntent called with message list of size " + newRowIds.length);
+            CellBroadcastMessage message = getLatestMessage();
+            if (message != null) {
+                updateAlertText(message);
             }
-            Log.d(TAG, "onNewIntent called with message list of size " + newMessageList.size());
-            updateAlertText(getLatestMessage());
             // If the new intent was sent from a notification, dismiss it.
             clearNotification(intent);
         } else {
-            Log.e(TAG, "onNewIntent called without SMS_CB_MESSAGE_EXTRA, ignoring");
+            Log.e(TAG, "onNewIntent called without EXTRA_ROW_IDS, ignoring");
         }
     }
 
@@ -392,43 +794,48 @@ public class CellBroadcastAlertDialog extends Activity {
         if (intent.getBooleanExtra(FROM_NOTIFICATION_EXTRA, false)) {
             NotificationManager notificationManager =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            CellBroadcastNotificationScheduler.getInstance().cancel();
             notificationManager.cancel(CellBroadcastAlertService.NOTIFICATION_ID);
             CellBroadcastReceiverApp.clearNewMessageList();
         }
     }
 
     /**
-     * Stop animating warning icon and stop the {@link CellBroadcastAlertAudio}
-     * service if necessary.
+     * Stop animating warning icon and stop the audio of the dismissed alert.
      */
     void dismiss() {
         Log.d(TAG, "dismiss");
-        // Stop playing alert sound/vibration/speech (if started)
-        stopService(new Intent(this, CellBroadcastAlertAudio.class));
-
-        // Cancel any pending alert reminder
-        CellBroadcastAlertReminder.cancelAlertReminder();
-
         // Remove the current alert message from the list.
-        CellBroadcastMessage lastMessage = removeLatestMessage();
-        if (lastMessage == null) {
+        Alert lastAlert = removeLatestAlert();
+        if (lastAlert == null) {
             Log.e(TAG, "dismiss() called with empty message list!");
+            CellBroadcastAlertReminder.cancelAlertReminder();
             finish();
             return;
         }
 
-        // Mark the alert as read.
-        final long deliveryTime = lastMessage.getDeliveryTime();
+        // Stop playing alert sound/vibration/speech for this alert (if started).
+        stopAlertAudio(lastAlert.mRowId);
 
-        // Mark broadcast as read on a background thread.
-        new CellBroadcastContentProvider.AsyncCellBroadcastTask(getContentResolver())
-                .execute(new CellBroadcastContentProvider.CellBroadcastOperation() {
-                    @Override
-                    public boolean execute(CellBroadcastContentProvider provider) {
-                        return provider.markBroadcastRead(
-                                Telephony.CellBroadcasts.DELIVERY_TIME, deliveryTime);
-                    }
-                });
+        // Stop reminding of this alert
+        CellBroadcastAlertReminder.cancelAlertReminder(lastAlert.mRowId);
+        CellBroadcastMessage lastMessage = lastAlert.mMessage;
+
+        // Mark the alert as read.
+        final long rowId = lastAlert.mRowId;
+        if (CellBroadcastMessageCache.isUnsaved(rowId)) {
+            // Not in the database; nothing to mark, just forget it.
+            CellBroadcastMessageCache.releaseUnsaved(rowId);
+        } else {
+            // Mark broadcast as read on a background thread.
+            new CellBroadcastContentProvider.AsyncCellBroadcastTask(getContentResolver())
+                    .execute(new CellBroadcastContentProvider.CellBroadcastOperation() {
+                        @Override
+                        public boolean execute(CellBroadcastContentProvider provider) {
+                            return provider.markBroadcastRead(rowId);
+                        }
+                    });
+        }
 
         // Set the opt-out dialog flag if this is a CMAS alert (other than Presidential Alert).
         if (lastMessage.isCmasMessage() && lastMessage.getCmasMessageClass() !=
@@ -448,6 +855,11 @@ public class CellBroadcastAlertDialog extends Activity {
             }
             return;
         }
+        if (!mLoadingRowIds.isEmpty()) {
+            // The next alerts are displayed once they are loaded.
+            mAnimationHandler.stopIconAnimation();
+            return;
+        }
 
         // Remove pending screen-off messages (animation messages are removed in onPause()).
         mScreenOffHandler.stopScreenOnTimer();
@@ -478,6 +890,21 @@ public class CellBroadcastAlertDialog extends Activity {
         finish();
     }
 
+    /**
+     * Stop the audio of an alert, if it is playing or queued. The audio of other alerts is not
+     * affected; the {@link CellBroadcastAlertAudio} service stops itself once its queue is empty.
+     * @param rowId the row ID of the alert
+     */
+    private void stopAlertAudio(long rowId) {
+        if (!CellBroadcastAlertAudio.hasAlertAudio(rowId)) {
+            return;
+        }
+        Intent intent = new Intent(this, CellBroadcastAlertAudio.class);
+        intent.setAction(CellBroadcastAlertAudio.ACTION_STOP_ALERT_AUDIO);
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, rowId);
+        startService(intent);
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
         CellBroadcastMessage message = getLatestMessage();
@@ -489,8 +916,12 @@ public class CellBroadcastAlertDialog extends Activity {
                 case KeyEvent.KEYCODE_VOLUME_MUTE:
                 case KeyEvent.KEYCODE_CAMERA:
                 case KeyEvent.KEYCODE_FOCUS:
-                    // Stop playing alert sound/vibration/speech (if started)
-                    stopService(new Intent(this, CellBroadcastAlertAudio.class));
+                    // Stop playing alert sound/vibration/speech (if started). Act on the first
+                    // key down only, and consume the rest of the key events.
+                    if (event.getAction() == KeyEvent.ACTION_DOWN
+                            && event.getRepeatCount() == 0) {
+                        stopAlertAudio(mAlertQueue.first().mRowId);
+                    }
                     return true;
 
                 default:
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.preference.PreferenceManager;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.android.cellbroadcastreceiver.intake.ToneType;
+
+import java.util.EnumMap;
+
+import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
+
+/**
+ * Everything needed to decide how to present an alert, resolved ahead of time: vibration
+ * patterns per tone type, the ringer mode, the call state, the alert preferences and the
+ * reminder settings. The ringer mode, call state and preferences are kept up to date by
+ * listeners, so starting an alert reads only fields.
+ *
+ * <p>Must be created and used on the main thread.
+ */
+class CellBroadcastAlertPolicy implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "CellBroadcastAlertPolicy";
+
+    /** Volume suggested by media team for in-call alarms. */
+    static final float IN_CALL_VOLUME = 0.125f;
+
+    private static CellBroadcastAlertPolicy sInstance;
+
+    /** Vibration pattern for each tone type. */
+    private final EnumMap<ToneType, long[]> mVibrationPatterns =
+            new EnumMap<ToneType, long[]>(ToneType.class);
+
+    private int mRingerMode;
+    private int mCallState;
+    private boolean mAlertSpeechEnabled;
+    private boolean mAlertVibrateEnabled;
+    private int mReminderIntervalMinutes;
+    private final boolean mReminderInexact;
+
+    private final BroadcastReceiver mRingerModeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mRingerMode = intent.getIntExtra(AudioManager.EXTRA_RINGER_MODE, mRingerMode);
+            if (DBG) log("ringer mode changed: " + mRingerMode);
+        }
+    };
+
+    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+        @Override
+        public void onCallStateChanged(int state, String ignored) {
+            mCallState = state;
+        }
+    };
+
+    private CellBroadcastAlertPolicy(Context context) {
+        // All tone types share the default pattern for now.
+        int[] patternArray = context.getResources().getIntArray(
+                R.array.default_vibration_pattern);
+        long[] vibrationPattern = new long[patternArray.length];
+        for (int i = 0; i < patternArray.length; i++) {
+            vibrationPattern[i] = patternArray[i];
+        }
+        for (ToneType toneType : ToneType.values()) {
+            mVibrationPatterns.put(toneType, vibrationPattern);
+        }
+
+        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        mRingerMode = audioManager.getRingerMode();
+        context.registerReceiver(mRingerModeReceiver,
+                new IntentFilter(AudioManager.RINGER_MODE_CHANGED_ACTION));
+
+        TelephonyManager telephonyManager =
+                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        mCallState = telephonyManager.getCallState();
+        telephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
+
+        mReminderInexact = context.getResources().getBoolean(R.bool.alert_reminder_inexact);
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        readPreferences(prefs);
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /** Returns the singleton instance. */
+    static CellBroadcastAlertPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CellBroadcastAlertPolicy(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Returns the vibration pattern for a tone type. The array must not be modified. */
+    long[] getVibrationPattern(ToneType toneType) {
+        return mVibrationPatterns.get(toneType);
+    }
+
+    /** Returns the current ringer mode, as {@link AudioManager#getRingerMode}. */
+    int getRingerMode() {
+        return mRingerMode;
+    }
+
+    /** Returns the current call state, as {@link TelephonyManager#getCallState}. */
+    int getCallState() {
+        return mCallState;
+    }
+
+    /** Returns the volume to play alert tones at; reduced during calls. */
+    float getToneVolume() {
+        return mCallState != TelephonyManager.CALL_STATE_IDLE ? IN_CALL_VOLUME : 1.0f;
+    }
+
+    /** Returns true if the alert text should be spoken. */
+    boolean isAlertSpeechEnabled() {
+        return mAlertSpeechEnabled;
+    }
+
+    /** Returns true if non-ETWS alerts should vibrate. */
+    boolean isAlertVibrateEnabled() {
+        return mAlertVibrateEnabled;
+    }
+
+    /**
+     * Returns the alert reminder interval preference in minutes: 0 for no reminders, 1 for a
+     * single reminder.
+     */
+    int getReminderIntervalMinutes() {
+        return mReminderIntervalMinutes;
+    }
+
+    /** Returns true if reminder alarms may be delivered inexactly. */
+    boolean isReminderInexact() {
+        return mReminderInexact;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (CellBroadcastSettings.KEY_ENABLE_ALERT_SPEECH.equals(key)
+                || CellBroadcastSettings.KEY_ENABLE_ALERT_VIBRATE.equals(key)
+                || CellBroadcastSettings.KEY_ALERT_REMINDER_INTERVAL.equals(key)) {
+            readPreferences(prefs);
+        }
+    }
+
+    private void readPreferences(SharedPreferences prefs) {
+        mAlertSpeechEnabled = prefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_ALERT_SPEECH, true);
+        mAlertVibrateEnabled = prefs.getBoolean(
+                CellBroadcastSettings.KEY_ENABLE_ALERT_VIBRATE, true);
+
+        String prefStr = prefs.getString(CellBroadcastSettings.KEY_ALERT_REMINDER_INTERVAL, null);
+        mReminderIntervalMinutes = 0;
+        if (prefStr == null) {
+            if (DBG) log("no preference value for alert reminder");
+        } else {
+            try {
+                mReminderIntervalMinutes = Integer.valueOf(prefStr);
+            } catch (NumberFormatException ignored) {
+                loge("invalid alert reminder interval preference: " + prefStr);
+            }
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(TAG, msg);
+    }
+
+    private static void loge(String msg) {
+        Log.e(TAG, msg);
+    }
+}
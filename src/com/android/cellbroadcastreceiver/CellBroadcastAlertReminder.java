@@ -21,19 +21,23 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.IBinder;
 import android.os.SystemClock;
-import android.preference.PreferenceManager;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.media.AudioManager;
+
+import java.io.PrintWriter;
+
 import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
 
 /**
- * Manages alert reminder notification.
+ * Manages alert reminder notification. A single alarm serves all alerts that have not been
+ * dismissed yet; each alarm plays the reminder sound once and counts as a reminder for every
+ * outstanding alert. All methods run on the main thread.
  */
 public class CellBroadcastAlertReminder extends Service {
     private static final String TAG = "CellBroadcastAlertReminder";
@@ -41,17 +45,28 @@ public class CellBroadcastAlertReminder extends Service {
     /** Action to wake up and play alert reminder sound. */
     static final String ACTION_PLAY_ALERT_REMINDER = "ACTION_PLAY_ALERT_REMINDER";
 
+    /** How much later than requested an inexact reminder alarm may go off. */
+    private static final long INEXACT_WINDOW_MILLIS = 60000;
+
     /**
      * Pending intent for alert reminder. This is static so that we don't have to start the
      * service in order to cancel any pending reminders when user dismisses the alert dialog.
+     * Null if no reminder alarm is set.
      */
     private static PendingIntent sPlayReminderIntent;
 
     /**
-     * Alert reminder for current ringtone being played.
+     * Alert reminder ringtone, resolved once. It refers to the default notification sound, so
+     * it follows changes to that setting.
      */
     private static Ringtone sPlayReminderRingtone;
 
+    /** Number of reminders played so far for each alert not dismissed yet, by row ID. */
+    private static final LongSparseArray<Integer> sReminderCounts = new LongSparseArray<Integer>();
+
+    /** Number of reminder alarms that went off. */
+    private static int sWakeupCount;
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -65,10 +80,31 @@ public class CellBroadcastAlertReminder extends Service {
             return START_NOT_STICKY;
         }
 
+        sPlayReminderIntent = null;
+        if (sReminderCounts.size() == 0) {
+            log("no alerts to remind of");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
         log("playing alert reminder");
-        playAlertReminderSound();
+        sWakeupCount++;
+        playAlertReminderSound(this);
+
+        // Count the reminder for every outstanding alert, and drop alerts that are done.
+        int interval = CellBroadcastAlertPolicy.getInstance(this).getReminderIntervalMinutes();
+        for (int i = sReminderCounts.size() - 1; i >= 0; i--) {
+            int count = sReminderCounts.valueAt(i) + 1;
+            // "1" = one reminder only; "0" = reminders were turned off meanwhile.
+            if (interval <= 1) {
+                if (DBG) log("last reminder for alert " + sReminderCounts.keyAt(i));
+                sReminderCounts.removeAt(i);
+            } else {
+                sReminderCounts.setValueAt(i, count);
+            }
+        }
 
-        if (queueAlertReminder(this, false)) {
+        if (sReminderCounts.size() > 0 && scheduleReminder(this, interval)) {
             return START_STICKY;
         } else {
             log("no reminders queued");
@@ -80,49 +116,60 @@ public class CellBroadcastAlertReminder extends Service {
     /**
      * Use the RingtoneManager to play the alert reminder sound.
      */
-    private void playAlertReminderSound() {
-        Uri notificationUri = RingtoneManager.getDefaultUri(
-                RingtoneManager.TYPE_NOTIFICATION);
-        if (notificationUri == null) {
-            loge("Can't get URI for alert reminder sound");
-            return;
-        }
-        Ringtone r = RingtoneManager.getRingtone(this, notificationUri);
-        r.setStreamType(AudioManager.STREAM_NOTIFICATION);
-
-        if (r != null) {
-            log("playing alert reminder sound");
-            r.play();
-        } else {
-            loge("can't get Ringtone for alert reminder sound");
+    private static void playAlertReminderSound(Context context) {
+        if (sPlayReminderRingtone == null) {
+            Uri notificationUri = RingtoneManager.getDefaultUri(
+                    RingtoneManager.TYPE_NOTIFICATION);
+            if (notificationUri == null) {
+                loge("Can't get URI for alert reminder sound");
+                return;
+            }
+            sPlayReminderRingtone = RingtoneManager.getRingtone(
+                    context.getApplicationContext(), notificationUri);
+            if (sPlayReminderRingtone == null) {
+                loge("can't get Ringtone for alert reminder sound");
+                return;
+            }
+            sPlayReminderRingtone.setStreamType(AudioManager.STREAM_NOTIFICATION);
         }
+
+        log("playing alert reminder sound");
+        sPlayReminderRingtone.play();
     }
 
     /**
-     * Helper method to start the alert reminder service to queue the alert reminder.
-     * @return true if a pending reminder was set; false if there are no more reminders
+     * Queue reminders for an alert shown to the user. If a reminder alarm is already set for
+     * other alerts, it serves this alert as well.
+     * @param rowId the row ID of the alert
+     * @return true if a reminder is pending for the alert
      */
-    static boolean queueAlertReminder(Context context, boolean firstTime) {
-        // Stop any alert reminder sound and cancel any previously queued reminders.
-        cancelAlertReminder();
-
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String prefStr = prefs.getString(CellBroadcastSettings.KEY_ALERT_REMINDER_INTERVAL, null);
-
-        if (prefStr == null) {
-            if (DBG) log("no preference value for alert reminder");
+    static boolean queueAlertReminder(Context context, long rowId) {
+        int interval = CellBroadcastAlertPolicy.getInstance(context).getReminderIntervalMinutes();
+        if (interval == 0) {
             return false;
         }
 
-        int interval;
-        try {
-            interval = Integer.valueOf(prefStr);
-        } catch (NumberFormatException ignored) {
-            loge("invalid alert reminder interval preference: " + prefStr);
+        if (sReminderCounts.indexOfKey(rowId) < 0) {
+            sReminderCounts.put(rowId, 0);
+        }
+        if (sPlayReminderIntent != null) {
+            if (DBG) log("reminder already queued, " + sReminderCounts.size() + " alerts");
+            return true;
+        }
+        if (!scheduleReminder(context, interval)) {
+            sReminderCounts.remove(rowId);
             return false;
         }
+        return true;
+    }
 
-        if (interval == 0 || (interval == 1 && !firstTime)) {
+    /**
+     * Set the reminder alarm.
+     * @param interval the reminder interval preference, in minutes
+     * @return true if the alarm was set
+     */
+    private static boolean scheduleReminder(Context context, int interval) {
+        if (interval == 0) {
             return false;
         }
         if (interval == 1) {
@@ -133,7 +180,7 @@ public class CellBroadcastAlertReminder extends Service {
 
         Intent playIntent = new Intent(context, CellBroadcastAlertReminder.class);
         playIntent.setAction(ACTION_PLAY_ALERT_REMINDER);
-        sPlayReminderIntent = PendingIntent.getService(context, 0, playIntent,
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, playIntent,
                 PendingIntent.FLAG_UPDATE_CURRENT);
 
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
@@ -144,23 +191,52 @@ public class CellBroadcastAlertReminder extends Service {
 
         // remind user after 2 minutes or 15 minutes
         long triggerTime = SystemClock.elapsedRealtime() + (interval * 60000);
-        // We use setExact instead of set because this is for emergency reminder.
-        alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                triggerTime, sPlayReminderIntent);
+        if (CellBroadcastAlertPolicy.getInstance(context).isReminderInexact()) {
+            // Let the alarm be batched with other wakeups, where regulations allow it.
+            alarmManager.setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    triggerTime, INEXACT_WINDOW_MILLIS, pendingIntent);
+        } else {
+            // We use setExact instead of set because this is for emergency reminder.
+            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    triggerTime, pendingIntent);
+        }
+        sPlayReminderIntent = pendingIntent;
         log("Set reminder in " + interval + " minutes");
         return true;
     }
 
+    /**
+     * Stops the alert reminder sound and stops reminding of an alert. The reminder alarm is
+     * canceled if no other alert needs it.
+     * @param rowId the row ID of the dismissed alert
+     */
+    static void cancelAlertReminder(long rowId) {
+        if (DBG) log("cancelAlertReminder() for alert " + rowId);
+        sReminderCounts.remove(rowId);
+        stopReminderSound();
+        if (sReminderCounts.size() == 0) {
+            cancelReminderAlarm();
+        }
+    }
+
     /**
      * Stops alert reminder and cancels any queued reminders.
      */
     static void cancelAlertReminder() {
         if (DBG) log("cancelAlertReminder()");
-        if (sPlayReminderRingtone != null) {
+        sReminderCounts.clear();
+        stopReminderSound();
+        cancelReminderAlarm();
+    }
+
+    private static void stopReminderSound() {
+        if (sPlayReminderRingtone != null && sPlayReminderRingtone.isPlaying()) {
             if (DBG) log("stopping play reminder ringtone");
             sPlayReminderRingtone.stop();
-            sPlayReminderRingtone = null;
         }
+    }
+
+    private static void cancelReminderAlarm() {
         if (sPlayReminderIntent != null) {
             if (DBG) log("canceling pending play reminder intent");
             sPlayReminderIntent.cancel();
@@ -168,6 +244,30 @@ public class CellBroadcastAlertReminder extends Service {
         }
     }
 
+    /** Returns the number of reminders played for an alert that is not dismissed yet. */
+    static int getReminderCount(long rowId) {
+        return sReminderCounts.get(rowId, 0);
+    }
+
+    /** Returns the number of reminder alarms that went off. */
+    static int getWakeupCount() {
+        return sWakeupCount;
+    }
+
+    /**
+     * Print the reminder state. Called from a binder thread, so the values may be slightly out
+     * of date.
+     */
+    static void dump(PrintWriter pw) {
+        pw.print("Alert reminders: wakeups=" + sWakeupCount
+                + " alarmSet=" + (sPlayReminderIntent != null) + " pending=");
+        for (int i = 0; i < sReminderCounts.size(); i++) {
+            pw.print((i > 0 ? "," : "") + sReminderCounts.keyAt(i) + ":"
+                    + sReminderCounts.valueAt(i));
+        }
+        pw.println();
+    }
+
     private static void log(String msg) {
         Log.d(TAG, msg);
     }
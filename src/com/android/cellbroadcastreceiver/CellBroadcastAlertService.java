@@ -16,41 +16,47 @@
 
 package com.android.cellbroadcastreceiver;
 
-import android.app.ActivityManagerNative;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.graphics.Typeface;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.os.RemoteException;
 import android.os.UserHandle;
+import android.os.SystemClock;
 import android.os.SystemProperties;
+import android.os.Trace;
 import android.os.PersistableBundle;
-import android.preference.PreferenceManager;
 import android.provider.Telephony;
-import android.telephony.CarrierConfigManager;
 import android.telephony.CellBroadcastMessage;
-import android.telephony.TelephonyManager;
-import android.telephony.SmsCbCmasInfo;
 import android.telephony.SmsCbEtwsInfo;
-import android.telephony.SmsCbLocation;
 import android.telephony.SmsCbMessage;
 import android.telephony.SubscriptionManager;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.util.Log;
 
-import com.android.cellbroadcastreceiver.CellBroadcastAlertAudio.ToneType;
+import com.android.cellbroadcastreceiver.CellBroadcastAlertTrace.Stage;
+import com.android.cellbroadcastreceiver.CellBroadcastBinderCounter.Phase;
+import com.android.cellbroadcastreceiver.CellBroadcastEventLog.Event;
 import com.android.cellbroadcastreceiver.CellBroadcastOtherChannelsManager.CellBroadcastChannelRange;
+import com.android.cellbroadcastreceiver.intake.AlertClassifier;
+import com.android.cellbroadcastreceiver.intake.DuplicateDetector;
+import com.android.cellbroadcastreceiver.intake.IntakeFilter;
+import com.android.cellbroadcastreceiver.intake.ToneType;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.PhoneConstants;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * This service manages the display and animation of broadcast messages.
@@ -61,6 +67,12 @@ import java.util.Locale;
 public class CellBroadcastAlertService extends Service {
     private static final String TAG = "CBAlertService";
 
+    /**
+     * Verbose intake logging, read once: "adb shell setprop log.tag.CBAlertService VERBOSE"
+     * and restart the process. Intake decisions are always kept in {@link CellBroadcastEventLog}.
+     */
+    private static final boolean VDBG = Log.isLoggable(TAG, Log.VERBOSE);
+
     /** Intent action to display alert dialog/notification, after verifying the alert is new. */
     static final String SHOW_NEW_ALERT_ACTION = "cellbroadcastreceiver.SHOW_NEW_ALERT";
 
@@ -76,120 +88,48 @@ public class CellBroadcastAlertService extends Service {
     /** Check for system property to enable/disable duplicate detection.  */
     static boolean mUseDupDetection = SystemProperties.getBoolean(CB_DUP_DETECTION, true);
 
-    /** Channel 50 Cell Broadcast. */
-    static final int CB_CHANNEL_50 = 50;
-
-    /** Channel 60 Cell Broadcast. */
-    static final int CB_CHANNEL_60 = 60;
-
-    private static final String COUNTRY_BRAZIL = "br";
-    private static final String COUNTRY_INDIA = "in";
-
-    /**
-     *  Container for service category, serial number, location, body hash code, and ETWS primary/
-     *  secondary information for duplication detection.
-     */
-    private static final class MessageServiceCategoryAndScope {
-        private final int mServiceCategory;
-        private final int mSerialNumber;
-        private final SmsCbLocation mLocation;
-        private final int mBodyHash;
-        private final boolean mIsEtwsPrimary;
-        private final SmsCbEtwsInfo mEtwsWarningInfo;
-
-        MessageServiceCategoryAndScope(int serviceCategory, int serialNumber,
-                SmsCbLocation location, int bodyHash, boolean isEtwsPrimary) {
-            mServiceCategory = serviceCategory;
-            mSerialNumber = serialNumber;
-            mLocation = location;
-            mBodyHash = bodyHash;
-            mIsEtwsPrimary = isEtwsPrimary;
-            mEtwsWarningInfo = null;
-        }
-
-        MessageServiceCategoryAndScope(int serviceCategory, int serialNumber,
-                SmsCbLocation location, int bodyHash, boolean isEtwsPrimary,
-                SmsCbEtwsInfo etwsWarningInfo) {
-            mServiceCategory = serviceCategory;
-            mSerialNumber = serialNumber;
-            mLocation = location;
-            mBodyHash = bodyHash;
-            mIsEtwsPrimary = isEtwsPrimary;
-            mEtwsWarningInfo = etwsWarningInfo;
-        }
-
-        @Override
-        public int hashCode() {
-            if (mEtwsWarningInfo != null) {
-                return mEtwsWarningInfo.hashCode() + mLocation.hashCode() + 5 * mServiceCategory
-                        + 7 * mSerialNumber + 13 * mBodyHash;
-            }
-            return mLocation.hashCode() + 5 * mServiceCategory + 7 * mSerialNumber + 13 * mBodyHash;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (o == this) {
-                return true;
-            }
-            if (o instanceof MessageServiceCategoryAndScope) {
-                MessageServiceCategoryAndScope other = (MessageServiceCategoryAndScope) o;
-                if (mEtwsWarningInfo == null && other.mEtwsWarningInfo != null) {
-                    return false;
-                } else if (mEtwsWarningInfo != null && other.mEtwsWarningInfo == null) {
-                    return false;
-                } else if (mEtwsWarningInfo != null && other.mEtwsWarningInfo != null
-                        && !mEtwsWarningInfo.equals(other.mEtwsWarningInfo)) {
-                    return false;
-                }
-                return (mServiceCategory == other.mServiceCategory &&
-                        mSerialNumber == other.mSerialNumber &&
-                        mLocation.equals(other.mLocation) &&
-                        mBodyHash == other.mBodyHash &&
-                        mIsEtwsPrimary == other.mIsEtwsPrimary);
-            }
-            return false;
-        }
-
-        @Override
-        public String toString() {
-            return "{mServiceCategory: " + mServiceCategory + " serial number: " + mSerialNumber
-                    + " location: " + mLocation.toString() + " mEtwsWarningInfo: "
-                    + (mEtwsWarningInfo == null ? "NULL" : mEtwsWarningInfo.toString())
-                    + " body hash: " + mBodyHash + " mIsEtwsPrimary: " + mIsEtwsPrimary +'}';
-        }
-    }
-
-    /** Cache of received message IDs, for duplicate message detection. */
-    private static final HashSet<MessageServiceCategoryAndScope> sCmasIdSet =
-            new HashSet<MessageServiceCategoryAndScope>(8);
-
     /** Maximum number of message IDs to save before removing the oldest message ID. */
     private static final int MAX_MESSAGE_ID_SIZE = 65535;
 
-    /** List of message IDs received, for removing oldest ID when max message IDs are received. */
-    private static final ArrayList<MessageServiceCategoryAndScope> sCmasIdList =
-            new ArrayList<MessageServiceCategoryAndScope>(8);
-
-    /** Index of message ID to replace with new message ID when max message IDs are received. */
-    private static int sCmasIdListIndex = 0;
+    /** Message IDs received, for duplicate message detection. */
+    private static final DuplicateDetector sDuplicateDetector =
+            new DuplicateDetector(MAX_MESSAGE_ID_SIZE);
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         String action = intent.getAction();
+        CellBroadcastReceiverApp.traceEntryPoint("alert service " + action);
         if (Telephony.Sms.Intents.SMS_EMERGENCY_CB_RECEIVED_ACTION.equals(action) ||
                 Telephony.Sms.Intents.SMS_CB_RECEIVED_ACTION.equals(action)) {
-            handleCellBroadcastIntent(intent);
+            CellBroadcastAlertWakeLock.acquire(this, CellBroadcastAlertWakeLock.Reason.INTAKE);
+            CellBroadcastAlertTrace.mark(CellBroadcastAlertTrace.getTraceId(intent),
+                    Stage.SERVICE_STARTED);
+            Trace.traceBegin(Trace.TRACE_TAG_APP, "handleCellBroadcastIntent");
+            int binderCalls = CellBroadcastBinderCounter.get();
+            try {
+                handleCellBroadcastIntent(intent);
+            } finally {
+                CellBroadcastBinderCounter.recordPhase(Phase.INTAKE, binderCalls);
+                Trace.traceEnd(Trace.TRACE_TAG_APP);
+                CellBroadcastAlertWakeLock.release(CellBroadcastAlertWakeLock.Reason.INTAKE);
+            }
         } else if (SHOW_NEW_ALERT_ACTION.equals(action)) {
+            CellBroadcastAlertTrace.mark(CellBroadcastAlertTrace.getTraceId(intent),
+                    Stage.SHOW_NEW_ALERT);
+            Trace.traceBegin(Trace.TRACE_TAG_APP, "showNewAlert");
+            int binderCalls = CellBroadcastBinderCounter.get();
             try {
                 if (UserHandle.myUserId() ==
-                        ActivityManagerNative.getDefault().getCurrentUser().id) {
+                        CellBroadcastTelephonyCache.getInstance(this).getCurrentUserId()) {
                     showNewAlert(intent);
                 } else {
                     Log.d(TAG,"Not active user, ignore the alert display");
                 }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            } finally {
+                CellBroadcastBinderCounter.recordPhase(Phase.DISPLAY, binderCalls);
+                Trace.traceEnd(Trace.TRACE_TAG_APP);
+                // Taken when the broadcast was written to the database.
+                CellBroadcastAlertWakeLock.release(CellBroadcastAlertWakeLock.Reason.INTAKE);
             }
         } else {
             Log.e(TAG, "Unrecognized intent action: " + action);
@@ -198,9 +138,11 @@ public class CellBroadcastAlertService extends Service {
     }
 
     private void handleCellBroadcastIntent(Intent intent) {
+        final int traceId = CellBroadcastAlertTrace.getTraceId(intent);
         Bundle extras = intent.getExtras();
         if (extras == null) {
             Log.e(TAG, "received SMS_CB_RECEIVED_ACTION with no extras!");
+            CellBroadcastAlertTrace.end(traceId);
             return;
         }
 
@@ -208,6 +150,7 @@ public class CellBroadcastAlertService extends Service {
 
         if (message == null) {
             Log.e(TAG, "received SMS_CB_RECEIVED_ACTION with no message extra");
+            CellBroadcastAlertTrace.end(traceId);
             return;
         }
 
@@ -218,100 +161,103 @@ public class CellBroadcastAlertService extends Service {
         } else {
             Log.e(TAG, "Invalid subscription id");
         }
+        CellBroadcastEventLog.record(Event.RECEIVED, cbm.getSubId(),
+                cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
 
         if (!isMessageEnabledByUser(cbm)) {
-            Log.d(TAG, "ignoring alert of type " + cbm.getServiceCategory() +
-                    " by user preference");
+            if (VDBG) {
+                Log.v(TAG, "ignoring alert of type " + cbm.getServiceCategory()
+                        + " by user preference");
+            }
+            CellBroadcastEventLog.record(Event.FILTERED, cbm.getSubId(),
+                    cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
+            CellBroadcastAlertTrace.end(traceId);
             return;
         }
+        CellBroadcastAlertTrace.mark(traceId, Stage.FILTERED);
 
-        // If this is an ETWS message, then we want to include the body message to be a factor for
-        // duplication detection. We found that some Japanese carriers send ETWS messages
-        // with the same serial number, therefore the subsequent messages were all ignored.
-        // In the other hand, US carriers have the requirement that only serial number, location,
-        // and category should be used for duplicate detection.
-        int hashCode = message.isEtwsMessage() ? message.getMessageBody().hashCode() : 0;
-
-        // If this is an ETWS message, we need to include primary/secondary message information to
-        // be a factor for duplication detection as well. Per 3GPP TS 23.041 section 8.2,
-        // duplicate message detection shall be performed independently for primary and secondary
-        // notifications.
-        boolean isEtwsPrimary = false;
-        if (message.isEtwsMessage()) {
-            SmsCbEtwsInfo etwsInfo = message.getEtwsWarningInfo();
-            if (etwsInfo != null) {
-                isEtwsPrimary = etwsInfo.isPrimary();
-            } else {
-                Log.w(TAG, "ETWS info is not available.");
-            }
+        CellBroadcastTelephonyCache telephonyCache = CellBroadcastTelephonyCache.getInstance(this);
+        if (intent.hasExtra(PhoneConstants.SUBSCRIPTION_KEY)) {
+            subId = intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY,
+                    SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        } else {
+            subId = telephonyCache.getDefaultSmsSubscriptionId();
         }
-
-        subId = intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY,
-                SubscriptionManager.getDefaultSmsSubscriptionId());
         if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-            subId = SubscriptionManager.getDefaultSubscriptionId();
+            subId = telephonyCache.getDefaultSubscriptionId();
         }
         boolean carrierDisableDupDetection = false;
-        CarrierConfigManager configManager =
-                (CarrierConfigManager) getSystemService(Context.CARRIER_CONFIG_SERVICE);
-        if (configManager != null) {
-            PersistableBundle carrierConfig =
-                configManager.getConfigForSubId(subId);
-            if (carrierConfig != null) {
-                carrierDisableDupDetection =
-                    carrierConfig.getBoolean("carrier_disable_etws_cmas_dup_detection");
-            }
+        PersistableBundle carrierConfig = telephonyCache.getCarrierConfig(subId);
+        if (carrierConfig != null) {
+            carrierDisableDupDetection =
+                carrierConfig.getBoolean("carrier_disable_etws_cmas_dup_detection");
         }
 
         if (mUseDupDetection && !carrierDisableDupDetection) {
-            // Check for duplicate message IDs according to CMAS carrier requirements. Message IDs
-            // are stored in volatile memory. If the maximum of 65535 messages is reached, the
-            // message ID of the oldest message is deleted from the list.
-            MessageServiceCategoryAndScope newCmasId = new MessageServiceCategoryAndScope(
-                    message.getServiceCategory(), message.getSerialNumber(), message.getLocation(),
-                    hashCode, isEtwsPrimary, message.getEtwsWarningInfo());
-
-            Log.v(TAG,"newCmasId:" + newCmasId + " hash: " + newCmasId.hashCode()
-                    + "body hash:" + hashCode);
-
-            // Add the new message ID to the list. It's okay if this is a duplicate message ID,
-            // because the list is only used for removing old message IDs from the hash set.
-            if (sCmasIdList.size() < MAX_MESSAGE_ID_SIZE) {
-                sCmasIdList.add(newCmasId);
-            } else {
-                // Get oldest message ID from the list and replace with the new message ID.
-                MessageServiceCategoryAndScope oldestCmasId = sCmasIdList.get(sCmasIdListIndex);
-                sCmasIdList.set(sCmasIdListIndex, newCmasId);
-                Log.d(TAG, "message ID limit reached, removing oldest message ID " + oldestCmasId);
-                // Remove oldest message ID from the set.
-                sCmasIdSet.remove(oldestCmasId);
-                if (++sCmasIdListIndex >= MAX_MESSAGE_ID_SIZE) {
-                    sCmasIdListIndex = 0;
+            if (sDuplicateDetector.isDuplicate(
+                    new CellBroadcastIntakeMessage(cbm, message.getLocation()))) {
+                if (VDBG) {
+                    Log.v(TAG, "ignoring duplicate alert with category "
+                            + cbm.getServiceCategory() + " serial " + cbm.getSerialNumber());
                 }
-            }
-            // Set.add() returns false if message ID has already been added
-            if (!sCmasIdSet.add(newCmasId)) {
-                Log.d(TAG, "ignoring duplicate alert with " + newCmasId);
+                CellBroadcastEventLog.record(Event.DUPLICATE, cbm.getSubId(),
+                        cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
+                CellBroadcastAlertTrace.end(traceId);
                 return;
             }
         }
+        CellBroadcastAlertTrace.mark(traceId, Stage.DEDUPLICATED);
+
+        if (cbm.isEmergencyAlertMessage()) {
+            // Inflate the alert layout while the main thread waits for the database write.
+            CellBroadcastAlertViewCache.prewarm(this);
+            // Bind the TTS engine now, so it is ready by the time the alert tone has played.
+            if (CellBroadcastAlertPolicy.getInstance(this).isAlertSpeechEnabled()) {
+                CellBroadcastTtsManager.getInstance(this).warmUp();
+            }
+        }
 
         final Intent alertIntent = new Intent(SHOW_NEW_ALERT_ACTION);
         alertIntent.setClass(this, CellBroadcastAlertService.class);
-        alertIntent.putExtra("message", cbm);
+        CellBroadcastAlertTrace.propagate(intent, alertIntent);
 
         // write to database on a background thread
+        final Context context = this;
+        CellBroadcastAlertWakeLock.acquire(this, CellBroadcastAlertWakeLock.Reason.DB_WRITE);
         new CellBroadcastContentProvider.AsyncCellBroadcastTask(getContentResolver())
                 .execute(new CellBroadcastContentProvider.CellBroadcastOperation() {
                     @Override
                     public boolean execute(CellBroadcastContentProvider provider) {
-                        if (provider.insertNewBroadcast(cbm)) {
-                            // new message, show the alert or notification on UI thread
-                            startService(alertIntent);
-                            return true;
+                        int binderCalls = CellBroadcastBinderCounter.get();
+                        long rowId;
+                        Trace.traceBegin(Trace.TRACE_TAG_APP, "insertNewBroadcast");
+                        try {
+                            rowId = provider.insertNewBroadcast(cbm);
+                        } finally {
+                            Trace.traceEnd(Trace.TRACE_TAG_APP);
+                            // Keep the CPU awake until the alert is shown.
+                            CellBroadcastAlertWakeLock.acquire(context,
+                                    CellBroadcastAlertWakeLock.Reason.INTAKE);
+                            CellBroadcastAlertWakeLock.release(
+                                    CellBroadcastAlertWakeLock.Reason.DB_WRITE);
+                        }
+                        if (rowId != -1) {
+                            CellBroadcastMessageCache.put(rowId, cbm);
+                            CellBroadcastEventLog.record(Event.INSERTED, cbm.getSubId(),
+                                    cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
                         } else {
-                            return false;
+                            // Notify the user even if the broadcast could not be written.
+                            rowId = CellBroadcastMessageCache.putUnsaved(cbm);
+                            CellBroadcastEventLog.record(Event.INSERT_FAILED, cbm.getSubId(),
+                                    cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
                         }
+                        CellBroadcastAlertTrace.mark(traceId, Stage.STORED);
+                        // new message, show the alert or notification on UI thread
+                        alertIntent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, rowId);
+                        CellBroadcastBinderCounter.count();
+                        startService(alertIntent);
+                        CellBroadcastBinderCounter.recordPhase(Phase.STORE, binderCalls);
+                        return !CellBroadcastMessageCache.isUnsaved(rowId);
                     }
                 });
     }
@@ -323,22 +269,31 @@ public class CellBroadcastAlertService extends Service {
             return;
         }
 
-        CellBroadcastMessage cbm = (CellBroadcastMessage) intent.getParcelableExtra("message");
+        // Row IDs are never 0; synthetic IDs for unsaved broadcasts are negative.
+        long rowId = intent.getLongExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, 0);
+        CellBroadcastMessage cbm = (rowId != 0)
+                ? CellBroadcastMessageCache.get(this, rowId) : null;
 
+        int traceId = CellBroadcastAlertTrace.getTraceId(intent);
         if (cbm == null) {
-            Log.e(TAG, "received SHOW_NEW_ALERT_ACTION with no message extra");
+            Log.e(TAG, "received SHOW_NEW_ALERT_ACTION with no message for row " + rowId);
+            CellBroadcastAlertTrace.end(traceId);
             return;
         }
 
         if (isEmergencyMessage(this, cbm)) {
             // start alert sound / vibration / TTS and display full-screen alert
-            openEmergencyAlertNotification(cbm);
+            openEmergencyAlertNotification(rowId, cbm, traceId);
+            CellBroadcastEventLog.record(Event.DISPLAYED, cbm.getSubId(),
+                    cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
         } else {
-            // add notification to the bar by passing the list of unread non-emergency
-            // CellBroadcastMessages
-            ArrayList<CellBroadcastMessage> messageList = CellBroadcastReceiverApp
-                    .addNewMessageToList(cbm);
-            addToNotificationBar(cbm, messageList, this, false);
+            // add notification to the bar by passing the row IDs of the most recent unread
+            // non-emergency broadcasts. Updates during a burst are coalesced.
+            CellBroadcastReceiverApp.addNewMessageToList(rowId, getNotificationLine(this, cbm));
+            CellBroadcastNotificationScheduler.getInstance().requestUpdate(this, cbm);
+            CellBroadcastEventLog.record(Event.NOTIFIED, cbm.getSubId(),
+                    cbm.getServiceCategory(), cbm.getSerialNumber(), traceId);
+            CellBroadcastAlertTrace.end(traceId);
         }
     }
 
@@ -355,172 +310,80 @@ public class CellBroadcastAlertService extends Service {
                 android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE);
     }
 
-    /**
-     * Get preference setting for channel 60
-     * @param message the message to check
-     * @return true if channel 60 preference is set; false otherwise
-     */
-    private boolean getChannel60Preference(CellBroadcastMessage message) {
-        String country = TelephonyManager.getDefault().
-                getSimCountryIso(message.getSubId());
-
-        boolean enable60Channel = SubscriptionManager.
-                getResourcesForSubId(getApplicationContext(), message.
-                        getSubId()).getBoolean(R.bool.show_india_settings) ||
-                COUNTRY_INDIA.equals(country);
-
-        return PreferenceManager.getDefaultSharedPreferences(this).
-                getBoolean(CellBroadcastSettings.
-                        KEY_ENABLE_CHANNEL_60_ALERTS, enable60Channel);
-    }
-
     /**
      * Filter out broadcasts on the test channels that the user has not enabled,
      * and types of notifications that the user is not interested in receiving.
-     * This allows us to enable an entire range of message identifiers in the
-     * radio and not have to explicitly disable the message identifiers for
-     * test broadcasts. In the unlikely event that the default shared preference
-     * values were not initialized in CellBroadcastReceiverApp, the second parameter
-     * to the getBoolean() calls match the default values in res/xml/preferences.xml.
+     * Area info broadcasts on channels 50 and 60 are also saved and forwarded here.
      *
      * @param message the message to check
      * @return true if the user has enabled this message type; false otherwise
      */
     private boolean isMessageEnabledByUser(CellBroadcastMessage message) {
-
-        // Check if all emergency alerts are disabled.
-        boolean emergencyAlertEnabled = PreferenceManager.getDefaultSharedPreferences(this).
-                getBoolean(CellBroadcastSettings.KEY_ENABLE_EMERGENCY_ALERTS, true);
-
-        // Check if ETWS/CMAS test message is forced to disabled on the device.
-        boolean forceDisableEtwsCmasTest =
-                CellBroadcastSettings.isFeatureEnabled(this,
-                        CarrierConfigManager.KEY_CARRIER_FORCE_DISABLE_ETWS_CMAS_TEST_BOOL, false);
-
-        if (message.isEtwsTestMessage()) {
-            return emergencyAlertEnabled &&
-                    !forceDisableEtwsCmasTest &&
-                    PreferenceManager.getDefaultSharedPreferences(this)
-                    .getBoolean(CellBroadcastSettings.KEY_ENABLE_ETWS_TEST_ALERTS, false);
-        }
-
-        if (message.isEtwsMessage()) {
-            // ETWS messages.
-            // Turn on/off emergency notifications is the only way to turn on/off ETWS messages.
-            return emergencyAlertEnabled;
-
-        }
-
-        if (message.isCmasMessage()) {
-            switch (message.getCmasMessageClass()) {
-                case SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT:
-                    return emergencyAlertEnabled &&
-                            PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
-                            CellBroadcastSettings.KEY_ENABLE_CMAS_EXTREME_THREAT_ALERTS, true);
-
-                case SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT:
-                    return emergencyAlertEnabled &&
-                            PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
-                            CellBroadcastSettings.KEY_ENABLE_CMAS_SEVERE_THREAT_ALERTS, true);
-
-                case SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
-                    return emergencyAlertEnabled &&
-                            PreferenceManager.getDefaultSharedPreferences(this)
-                            .getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_AMBER_ALERTS, true);
-
-                case SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
-                case SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE:
-                case SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
-                    return emergencyAlertEnabled &&
-                            !forceDisableEtwsCmasTest &&
-                            PreferenceManager.getDefaultSharedPreferences(this)
-                                    .getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_TEST_ALERTS,
-                                            false);
-                default:
-                    return true;    // presidential-level CMAS alerts are always enabled
+        if (!message.isEtwsMessage() && !message.isCmasMessage()) {
+            int serviceCategory = message.getServiceCategory();
+            if (serviceCategory == IntakeFilter.CB_CHANNEL_50) {
+                // save latest area info broadcast for Settings display and send as
+                // broadcast
+                CellBroadcastReceiverApp.setLatestAreaInfo(message);
+                broadcastAreaInfoReceivedAction(message);
+            } else if (serviceCategory == IntakeFilter.CB_CHANNEL_60) {
+                broadcastAreaInfoReceivedAction(message);
             }
         }
-
-        int serviceCategory = message.getServiceCategory();
-        if (serviceCategory == CB_CHANNEL_50) {
-            String country = TelephonyManager.getDefault().
-                    getSimCountryIso(message.getSubId());
-            // save latest area info broadcast for Settings display and send as
-            // broadcast
-            CellBroadcastReceiverApp.setLatestAreaInfo(message);
-            broadcastAreaInfoReceivedAction(message);
-            return !(COUNTRY_BRAZIL.equals(country) ||
-                    COUNTRY_INDIA.equals(country));
-        } else if (serviceCategory == CB_CHANNEL_60) {
-            broadcastAreaInfoReceivedAction(message);
-            return getChannel60Preference(message);
-        }
-
-        return true;    // other broadcast messages are always enabled
+        return IntakeFilter.isEnabledByUser(new CellBroadcastIntakeMessage(message),
+                new CellBroadcastFilterSettings(this));
     }
 
     /**
      * Display a full-screen alert message for emergency alerts.
+     * @param rowId the row ID of the alert to display
      * @param message the alert to display
+     * @param traceId the trace ID of the alert, or {@link CellBroadcastAlertTrace#NO_TRACE}
      */
-    private void openEmergencyAlertNotification(CellBroadcastMessage message) {
+    private void openEmergencyAlertNotification(long rowId, CellBroadcastMessage message,
+            int traceId) {
         // Acquire a CPU wake lock until the alert dialog and audio start playing.
-        CellBroadcastAlertWakeLock.acquireScreenCpuWakeLock(this);
+        CellBroadcastAlertWakeLock.acquire(this, CellBroadcastAlertWakeLock.Reason.AUDIO);
 
         // Close dialogs and window shade
         Intent closeDialogs = new Intent(Intent.ACTION_CLOSE_SYSTEM_DIALOGS);
+        CellBroadcastBinderCounter.count();
         sendBroadcast(closeDialogs);
 
         // start audio/vibration/speech service for emergency alerts
         Intent audioIntent = new Intent(this, CellBroadcastAlertAudio.class);
         audioIntent.setAction(CellBroadcastAlertAudio.ACTION_START_ALERT_AUDIO);
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        audioIntent.putExtra(CellBroadcastAlertTrace.EXTRA_TRACE_ID, traceId);
+        audioIntent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, rowId);
+        audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_DELIVERY_TIME_EXTRA,
+                message.getDeliveryTime());
+        CellBroadcastAlertPolicy policy = CellBroadcastAlertPolicy.getInstance(this);
+
+        audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_PRIORITY_EXTRA,
+                CellBroadcastAlertDialog.getAlertRank(message));
 
-        ToneType toneType = ToneType.CMAS_DEFAULT;
+        ArrayList<CellBroadcastChannelRange> ranges = null;
         if (message.isEtwsMessage()) {
             // For ETWS, always vibrate, even in silent mode.
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_VIBRATE_EXTRA, true);
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_ETWS_VIBRATE_EXTRA, true);
-            toneType = ToneType.ETWS_DEFAULT;
-
-            if (message.getEtwsWarningInfo() != null) {
-                int warningType = message.getEtwsWarningInfo().getWarningType();
-
-                switch (warningType) {
-                    case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE:
-                    case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI:
-                        toneType = ToneType.EARTHQUAKE;
-                        break;
-                    case SmsCbEtwsInfo.ETWS_WARNING_TYPE_TSUNAMI:
-                        toneType = ToneType.TSUNAMI;
-                        break;
-                    case SmsCbEtwsInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY:
-                        toneType = ToneType.OTHER;
-                        break;
-                }
-            }
+            SmsCbEtwsInfo etwsInfo = message.getEtwsWarningInfo();
+            audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_ETWS_PRIMARY_EXTRA,
+                    etwsInfo == null || etwsInfo.isPrimary());
         } else {
             // For other alerts, vibration can be disabled in app settings.
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_VIBRATE_EXTRA,
-                    prefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_ALERT_VIBRATE, true));
-            int channel = message.getServiceCategory();
-            ArrayList<CellBroadcastChannelRange> ranges= CellBroadcastOtherChannelsManager.
-                    getInstance().getCellBroadcastChannelRanges(getApplicationContext(),
-                    message.getSubId());
-            if (ranges != null) {
-                for (CellBroadcastChannelRange range : ranges) {
-                    if (channel >= range.mStartId && channel <= range.mEndId) {
-                        toneType = range.mToneType;
-                        break;
-                    }
-                }
-            }
+                    policy.isAlertVibrateEnabled());
+            ranges = CellBroadcastOtherChannelsManager.getInstance()
+                    .getCellBroadcastChannelRanges(getApplicationContext(), message.getSubId());
         }
+        ToneType toneType = AlertClassifier.selectTone(new CellBroadcastIntakeMessage(message),
+                ranges);
         audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_TONE_TYPE, toneType);
 
         String messageBody = message.getMessageBody();
 
-        if (prefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_ALERT_SPEECH, true)) {
+        if (policy.isAlertSpeechEnabled()) {
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_MESSAGE_BODY, messageBody);
 
             String preferredLanguage = message.getLanguageCode();
@@ -552,32 +415,51 @@ public class CellBroadcastAlertService extends Service {
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_MESSAGE_DEFAULT_LANGUAGE,
                     defaultLanguage);
         }
+        CellBroadcastBinderCounter.count();
         startService(audioIntent);
 
-        ArrayList<CellBroadcastMessage> messageList = new ArrayList<CellBroadcastMessage>(1);
-        messageList.add(message);
-
         Intent alertDialogIntent = createDisplayMessageIntent(this, CellBroadcastAlertDialog.class,
-                messageList);
+                new long[] {rowId});
         alertDialogIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        alertDialogIntent.putExtra(CellBroadcastAlertDialog.EXTRA_INTENT_TIME,
+                SystemClock.elapsedRealtime());
+        alertDialogIntent.putExtra(CellBroadcastAlertTrace.EXTRA_TRACE_ID, traceId);
+        CellBroadcastBinderCounter.count();
         startActivity(alertDialogIntent);
+        CellBroadcastAlertTrace.mark(traceId, Stage.ALERT_OPENED);
     }
 
     /**
      * Add the new alert to the notification bar (non-emergency alerts), or launch a
      * high-priority immediate intent for emergency alerts.
-     * @param message the alert to display
+     * @param message the latest alert, used for the notification text
+     * @param rowIds the row IDs of all alerts to show when the notification is selected
+     */
+    static void addToNotificationBar(CellBroadcastMessage message, long[] rowIds,
+                                     Context context, boolean fromSaveState) {
+        addToNotificationBar(message, rowIds, rowIds.length, null, context, fromSaveState,
+                true);
+    }
+
+    /**
+     * Add the new alert to the notification bar (non-emergency alerts). With more than one
+     * unread alert, the expanded notification lists the most recent ones.
+     * @param message the latest alert, used for the notification text
+     * @param rowIds the row IDs of the alerts to show when the notification is selected
+     * @param unreadCount the total number of unread alerts, may be more than rowIds
+     * @param lines the lines for the most recent unread alerts (newest first), or null
+     * @param alert true to play the default sound and vibration, false to only update
      */
-    static void addToNotificationBar(CellBroadcastMessage message,
-                                     ArrayList<CellBroadcastMessage> messageList, Context context,
-                                     boolean fromSaveState) {
+    static void addToNotificationBar(CellBroadcastMessage message, long[] rowIds,
+                                     int unreadCount, CharSequence[] lines, Context context,
+                                     boolean fromSaveState, boolean alert) {
         int channelTitleId = CellBroadcastResources.getDialogTitleResource(context, message);
         CharSequence channelName = context.getText(channelTitleId);
         String messageBody = message.getMessageBody();
 
         // Create intent to show the new messages when user selects the notification.
         Intent intent = createDisplayMessageIntent(context, CellBroadcastAlertDialog.class,
-                messageList);
+                rowIds);
 
         intent.putExtra(CellBroadcastAlertDialog.FROM_NOTIFICATION_EXTRA, true);
         intent.putExtra(CellBroadcastAlertDialog.FROM_SAVE_STATE_NOTIFICATION_EXTRA, fromSaveState);
@@ -595,33 +477,99 @@ public class CellBroadcastAlertService extends Service {
                 .setPriority(Notification.PRIORITY_HIGH)
                 .setColor(context.getResources().getColor(R.color.notification_color))
                 .setVisibility(Notification.VISIBILITY_PUBLIC)
-                .setDefaults(Notification.DEFAULT_ALL);
-
-        builder.setDefaults(Notification.DEFAULT_ALL);
+                .setDefaults(alert ? Notification.DEFAULT_ALL : Notification.DEFAULT_LIGHTS)
+                .setOnlyAlertOnce(!alert);
 
-        // increment unread alert count (decremented when user dismisses alert dialog)
-        int unreadCount = messageList.size();
         if (unreadCount > 1) {
             // use generic count of unread broadcasts if more than one unread
             builder.setContentTitle(context.getString(R.string.notification_multiple_title));
             builder.setContentText(context.getString(R.string.notification_multiple, unreadCount));
+            if (lines != null && lines.length > 0) {
+                Notification.InboxStyle style = new Notification.InboxStyle();
+                for (CharSequence line : lines) {
+                    style.addLine(line);
+                }
+                if (unreadCount > lines.length) {
+                    style.setSummaryText(context.getString(R.string.notification_more,
+                            unreadCount - lines.length));
+                }
+                builder.setStyle(style);
+            }
         } else {
             builder.setContentTitle(channelName).setContentText(messageBody);
         }
 
         NotificationManager notificationManager = NotificationManager.from(context);
 
+        CellBroadcastBinderCounter.count();
         notificationManager.notify(NOTIFICATION_ID, builder.build());
     }
 
+    /**
+     * Returns the line shown for a broadcast in the expanded notification: the channel name
+     * in bold, followed by the message body.
+     */
+    static CharSequence getNotificationLine(Context context, CellBroadcastMessage message) {
+        CharSequence channelName = context.getText(
+                CellBroadcastResources.getDialogTitleResource(context, message));
+        SpannableStringBuilder line = new SpannableStringBuilder(channelName);
+        line.setSpan(new StyleSpan(Typeface.BOLD), 0, line.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        line.append(' ');
+        line.append(message.getMessageBody());
+        return line;
+    }
+
     static Intent createDisplayMessageIntent(Context context, Class intentClass,
-            ArrayList<CellBroadcastMessage> messageList) {
-        // Trigger the list activity to fire up a dialog that shows the received messages
+            long[] rowIds) {
+        // Trigger the list activity to fire up a dialog that shows the received messages.
+        // Only row IDs are passed; the dialog loads the messages from CellBroadcastMessageCache.
+        // Broadcasts that are not in the database are parceled, to survive process death.
         Intent intent = new Intent(context, intentClass);
-        intent.putParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, messageList);
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS, rowIds);
+        Bundle unsaved = new Bundle();
+        CellBroadcastMessageCache.writeUnsaved(unsaved, rowIds);
+        if (!unsaved.isEmpty()) {
+            intent.putExtras(unsaved);
+        }
         return intent;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("CellBroadcastAlertService:");
+        CellBroadcastEventLog.dump(pw);
+        pw.println();
+        pw.println("Duplicate detection: enabled=" + mUseDupDetection
+                + " " + sDuplicateDetector);
+        pw.println();
+        CellBroadcastAlertTrace.dump(pw);
+        pw.println();
+        CellBroadcastAlertWakeLock.dump(pw);
+        pw.println();
+        CellBroadcastMessageCache.dump(pw);
+        pw.println();
+        CellBroadcastBinderCounter.dump(pw);
+        CellBroadcastTelephonyCache.getInstance(this).dump(pw);
+        pw.println();
+        pw.println("Alert view cache: hits=" + CellBroadcastAlertViewCache.getHitCount()
+                + " misses=" + CellBroadcastAlertViewCache.getMissCount());
+        CellBroadcastNotificationScheduler scheduler =
+                CellBroadcastNotificationScheduler.getInstance();
+        pw.println("Notification scheduler: requests=" + scheduler.getRequestCount()
+                + " posts=" + scheduler.getPostCount()
+                + " unread=" + CellBroadcastReceiverApp.getNewMessageCount());
+        CellBroadcastAlertReminder.dump(pw);
+        pw.println();
+        pw.println("Entry points, ms after process start:");
+        for (Map.Entry<String, Long> entry
+                : CellBroadcastReceiverApp.getEntryPointLatency().entrySet()) {
+            pw.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        pw.println();
+        CellBroadcastConfigService.dumpChannelRanges(pw);
+    }
+
     @VisibleForTesting
     @Override
     public IBinder onBind(Intent intent) {
@@ -642,33 +590,34 @@ public class CellBroadcastAlertService extends Service {
      * @return True if the message is an emergency message, otherwise false.
      */
     public static boolean isEmergencyMessage(Context context, CellBroadcastMessage cbm) {
-        boolean isEmergency = false;
-
         if (cbm == null) {
             return false;
         }
 
-        int id = cbm.getServiceCategory();
-        int subId = cbm.getSubId();
+        return isEmergencyMessage(context, cbm.getServiceCategory(), cbm.getSubId(),
+                cbm.isEmergencyAlertMessage());
+    }
 
-        if (cbm.isEmergencyAlertMessage()) {
-            isEmergency = true;
-        } else {
-            ArrayList<CellBroadcastChannelRange> ranges = CellBroadcastOtherChannelsManager.
-                    getInstance().getCellBroadcastChannelRanges(context, subId);
-
-            if (ranges != null) {
-                for (CellBroadcastChannelRange range : ranges) {
-                    if (range.mStartId <= id && range.mEndId >= id) {
-                        isEmergency = range.mIsEmergency;
-                        break;
-                    }
-                }
-            }
+    /**
+     * Check if a cell broadcast is an emergency message, without requiring a fully parsed
+     * {@link CellBroadcastMessage}. Used when binding list rows straight from a cursor.
+     * @param context Device context
+     * @param id Service category (message identifier)
+     * @param subId Subscription id
+     * @param isEmergencyPriority True if the broadcast has emergency priority
+     * @return True if the message is an emergency message, otherwise false.
+     */
+    static boolean isEmergencyMessage(Context context, int id, int subId,
+            boolean isEmergencyPriority) {
+        ArrayList<CellBroadcastChannelRange> ranges = isEmergencyPriority ? null
+                : CellBroadcastOtherChannelsManager.getInstance()
+                        .getCellBroadcastChannelRanges(context, subId);
+        boolean isEmergency = AlertClassifier.isEmergency(id, isEmergencyPriority, ranges);
+
+        if (VDBG) {
+            Log.v(TAG, "isEmergencyMessage: " + isEmergency + ", subId = " + subId + ", "
+                    + "message id = " + id);
         }
-
-        Log.d(TAG, "isEmergencyMessage: " + isEmergency + ", subId = " + subId + ", " +
-                "message id = " + id);
         return isEmergency;
     }
 }
@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.cellbroadcastreceiver.intake.ToneType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
+
+/**
+ * Plays the alert tones from decoded PCM through a static {@link AudioTrack}, so that sound
+ * starts without opening and decoding the OGG resource on the critical path.
+ *
+ * <p>Tones are decoded once with {@link MediaCodec} and written to a PCM file in the cache
+ * directory, keyed by resource, locale and package update time. Only the last played tone is
+ * kept in memory, since each decoded tone is close to 1 MB. File reads and track setup run on a
+ * dedicated tone thread, and decoding on a separate background thread so that it never delays
+ * a playback; callbacks are delivered on the main thread. If a tone has not been decoded yet,
+ * the caller is told right away to fall back to {@link android.media.MediaPlayer} and the tone
+ * is decoded for next time.
+ */
+class CellBroadcastAlertTones {
+    private static final String TAG = "CellBroadcastAlertTones";
+
+    /** All tone resources, decoded by {@link #preload}. */
+    private static final int[] TONE_RESOURCES = {
+            R.raw.cmas_default,
+            R.raw.etws_default,
+            R.raw.etws_earthquake,
+            R.raw.etws_tsunami,
+            R.raw.etws_other_disaster,
+    };
+
+    /** Subdirectory of the cache directory holding the decoded tones. */
+    private static final String CACHE_DIR = "alert_tones";
+
+    /** Version of the PCM file format; bump to invalidate existing files. */
+    private static final int CACHE_FILE_VERSION = 1;
+
+    /** Timeout for dequeueing codec buffers. */
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    /** Callbacks for a tone playback, delivered on the main thread. */
+    interface Callback {
+        /** The tone is not decoded yet, or could not be played; play it some other way. */
+        void onToneUnavailable(int resId);
+
+        /** The tone finished playing. */
+        void onToneCompleted();
+    }
+
+    /** A decoded tone: 16-bit PCM samples. */
+    private static final class Tone {
+        final String mKey;
+        final int mSampleRate;
+        final int mChannelCount;
+        final byte[] mPcm;
+
+        Tone(String key, int sampleRate, int channelCount, byte[] pcm) {
+            mKey = key;
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mPcm = pcm;
+        }
+
+        int getFrameCount() {
+            return mPcm.length / (2 * mChannelCount);
+        }
+    }
+
+    private static CellBroadcastAlertTones sInstance;
+
+    private final Context mContext;
+    private final Handler mToneHandler;
+    private final Handler mDecodeHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final File mCacheDir;
+
+    /** Package update time, part of the cache key so tones are decoded again after updates. */
+    private final long mPackageUpdateTime;
+
+    /** The last played tone; only accessed on the tone thread. */
+    private Tone mLastTone;
+
+    /** Guards the fields below, which are shared between the main and tone threads. */
+    private final Object mLock = new Object();
+
+    /** Incremented on every play and stop, so stale callbacks can be dropped. */
+    private int mGeneration;
+
+    /** The track currently playing, or null. */
+    private AudioTrack mTrack;
+
+    /** Elapsed realtime at which the current playback was requested. */
+    private long mRequestTime;
+
+    /** Number of tones that started playing from PCM. */
+    private int mPcmPlayCount;
+
+    /** Number of tones for which the caller had to fall back. */
+    private int mFallbackCount;
+
+    /** Time to first sample of the last playback, or -1 if none. */
+    private long mLastTimeToFirstSampleMillis = -1;
+
+    /** Sum of times to first sample, for the average. */
+    private long mTotalTimeToFirstSampleMillis;
+
+    /** Number of recorded times to first sample. */
+    private int mTimeToFirstSampleCount;
+
+    private CellBroadcastAlertTones(Context context) {
+        mContext = context;
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        long updateTime = 0;
+        try {
+            updateTime = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            loge("package info not found: " + e);
+        }
+        mPackageUpdateTime = updateTime;
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mToneHandler = new Handler(thread.getLooper());
+
+        HandlerThread decodeThread = new HandlerThread(TAG + ":decode",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        decodeThread.start();
+        mDecodeHandler = new Handler(decodeThread.getLooper());
+    }
+
+    /** Returns the singleton instance. */
+    static synchronized CellBroadcastAlertTones getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CellBroadcastAlertTones(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the raw resource of the tone to play for a tone type.
+     * @param toneType the alert tone type
+     * @return the raw resource ID
+     */
+    static int getToneResource(ToneType toneType) {
+        switch (toneType) {
+            case EARTHQUAKE:
+                return R.raw.etws_earthquake;
+            case TSUNAMI:
+                return R.raw.etws_tsunami;
+            case OTHER:
+                return R.raw.etws_other_disaster;
+            case ETWS_DEFAULT:
+                return R.raw.etws_default;
+            case CMAS_DEFAULT:
+            default:
+                return R.raw.cmas_default;
+        }
+    }
+
+    /**
+     * Decode all tones that are not cached yet, in the background. Stale cache files are
+     * removed.
+     */
+    void preload() {
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                removeStaleFiles();
+            }
+        });
+        for (int resId : TONE_RESOURCES) {
+            requestDecode(resId);
+        }
+    }
+
+    /**
+     * Decode a tone on the decode thread, unless it is cached by then. Requests are handled in
+     * order, so a tone requested twice is only decoded once.
+     */
+    private void requestDecode(final int resId) {
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                File file = getCacheFile(resId);
+                if (!file.exists()) {
+                    decodeToFile(resId, file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start playing a tone. If the tone is not decoded yet, {@link Callback#onToneUnavailable}
+     * is called and the tone is decoded in the background for the next alert.
+     * @param resId the raw resource of the tone, from {@link #getToneResource}
+     * @param volume the track volume, from 0 to 1
+     * @param callback called on the main thread
+     */
+    void play(final int resId, final float volume, final Callback callback) {
+        final int generation;
+        synchronized (mLock) {
+            releaseTrackLocked();
+            generation = ++mGeneration;
+            mRequestTime = SystemClock.elapsedRealtime();
+        }
+        mToneHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                playOnToneThread(resId, volume, callback, generation);
+            }
+        });
+    }
+
+    /** Stop the current tone, if any. No callbacks are delivered for it afterwards. */
+    void stop() {
+        synchronized (mLock) {
+            mGeneration++;
+            releaseTrackLocked();
+        }
+    }
+
+    /**
+     * Record the time to first sample of a tone played by the caller after
+     * {@link Callback#onToneUnavailable}.
+     */
+    void recordFallbackStarted() {
+        synchronized (mLock) {
+            recordTimeToFirstSampleLocked();
+        }
+    }
+
+    /** Returns the time to first sample of the last tone, or -1 if none was played. */
+    long getLastTimeToFirstSampleMillis() {
+        synchronized (mLock) {
+            return mLastTimeToFirstSampleMillis;
+        }
+    }
+
+    /** Returns the average time to first sample, or -1 if no tone was played. */
+    long getAverageTimeToFirstSampleMillis() {
+        synchronized (mLock) {
+            return mTimeToFirstSampleCount == 0 ? -1
+                    : mTotalTimeToFirstSampleMillis / mTimeToFirstSampleCount;
+        }
+    }
+
+    /** Returns the number of tones played from decoded PCM. */
+    int getPcmPlayCount() {
+        synchronized (mLock) {
+            return mPcmPlayCount;
+        }
+    }
+
+    /** Returns the number of tones for which the caller had to fall back. */
+    int getFallbackCount() {
+        synchronized (mLock) {
+            return mFallbackCount;
+        }
+    }
+
+    private void playOnToneThread(final int resId, float volume, final Callback callback,
+            final int generation) {
+        Tone tone = loadTone(resId);
+        AudioTrack track = null;
+        if (tone != null) {
+            track = createTrack(tone, volume);
+        }
+
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                // Stopped or replaced while loading.
+                if (track != null) {
+                    track.release();
+                }
+                return;
+            }
+            if (track == null) {
+                mFallbackCount++;
+                postIfCurrent(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onToneUnavailable(resId);
+                    }
+                });
+            }
+        }
+        if (track == null) {
+            if (tone == null) {
+                // Decode in the background so the next alert can use it.
+                requestDecode(resId);
+            }
+            return;
+        }
+
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                track.release();
+                return;
+            }
+
+            mTrack = track;
+            mPcmPlayCount++;
+            track.setPlaybackPositionUpdateListener(
+                    new AudioTrack.OnPlaybackPositionUpdateListener() {
+                        @Override
+                        public void onMarkerReached(AudioTrack t) {
+                            postIfCurrent(generation, new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onToneCompleted();
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void onPeriodicNotification(AudioTrack t) {
+                            // First position update: the first samples have been played.
+                            t.setPositionNotificationPeriod(0);
+                            synchronized (mLock) {
+                                if (generation == mGeneration) {
+                                    recordTimeToFirstSampleLocked();
+                                }
+                            }
+                        }
+                    }, mToneHandler);
+            try {
+                track.play();
+            } catch (IllegalStateException e) {
+                loge("failed to start tone: " + e);
+                releaseTrackLocked();
+                mFallbackCount++;
+                postIfCurrent(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onToneUnavailable(resId);
+                    }
+                });
+            }
+        }
+    }
+
+    /** Post a callback to the main thread, dropping it if the playback was stopped since. */
+    private void postIfCurrent(final int generation, final Runnable r) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                }
+                r.run();
+            }
+        });
+    }
+
+    private void recordTimeToFirstSampleLocked() {
+        long latency = SystemClock.elapsedRealtime() - mRequestTime;
+        mLastTimeToFirstSampleMillis = latency;
+        mTotalTimeToFirstSampleMillis += latency;
+        mTimeToFirstSampleCount++;
+        if (DBG) log("time to first sample: " + latency + " ms");
+    }
+
+    private void releaseTrackLocked() {
+        if (mTrack != null) {
+            try {
+                mTrack.stop();
+            } catch (IllegalStateException e) {
+                loge("exception trying to stop tone");
+            }
+            mTrack.release();
+            mTrack = null;
+        }
+    }
+
+    /**
+     * Create a static track holding the tone, ready to play.
+     * @return the track, or null on failure
+     */
+    private AudioTrack createTrack(Tone tone, float volume) {
+        AudioTrack track;
+        try {
+            track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setLegacyStreamType(AudioManager.STREAM_NOTIFICATION)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                            .setSampleRate(tone.mSampleRate)
+                            .setChannelMask(tone.mChannelCount == 1
+                                    ? AudioFormat.CHANNEL_OUT_MONO
+                                    : AudioFormat.CHANNEL_OUT_STEREO)
+                            .build())
+                    .setTransferMode(AudioTrack.MODE_STATIC)
+                    .setBufferSizeInBytes(tone.mPcm.length)
+                    .build();
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            loge("failed to create tone track: " + e);
+            return null;
+        }
+        if (track.getState() != AudioTrack.STATE_NO_STATIC_DATA
+                || track.write(tone.mPcm, 0, tone.mPcm.length) != tone.mPcm.length) {
+            loge("failed to load tone track, state=" + track.getState());
+            track.release();
+            return null;
+        }
+        track.setVolume(volume);
+        track.setNotificationMarkerPosition(tone.getFrameCount());
+        // Report the first position update after about 10 ms of audio.
+        track.setPositionNotificationPeriod(Math.max(1, tone.mSampleRate / 100));
+        return track;
+    }
+
+    /**
+     * Returns the decoded tone from memory or from the cache directory.
+     * @return the tone, or null if it has not been decoded yet
+     */
+    private Tone loadTone(int resId) {
+        File file = getCacheFile(resId);
+        String key = file.getName();
+        if (mLastTone != null && mLastTone.mKey.equals(key)) {
+            return mLastTone;
+        }
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != CACHE_FILE_VERSION) {
+                loge("unknown tone file version: " + file);
+                file.delete();
+                return null;
+            }
+            int sampleRate = in.readInt();
+            int channelCount = in.readInt();
+            byte[] pcm = new byte[in.readInt()];
+            in.readFully(pcm);
+            mLastTone = new Tone(key, sampleRate, channelCount, pcm);
+            return mLastTone;
+        } catch (IOException e) {
+            loge("failed to read tone file " + file + ": " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Decode a tone resource and write it to the cache directory. */
+    private void decodeToFile(int resId, File file) {
+        long start = SystemClock.elapsedRealtime();
+        Tone tone;
+        try {
+            tone = decode(resId, file.getName());
+        } catch (IOException | RuntimeException e) {
+            loge("failed to decode tone " + resId + ": " + e);
+            return;
+        }
+
+        mCacheDir.mkdirs();
+        File tmp = new File(mCacheDir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(CACHE_FILE_VERSION);
+            out.writeInt(tone.mSampleRate);
+            out.writeInt(tone.mChannelCount);
+            out.writeInt(tone.mPcm.length);
+            out.write(tone.mPcm);
+        } catch (IOException e) {
+            loge("failed to write tone file " + tmp + ": " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            loge("failed to rename tone file " + tmp);
+            tmp.delete();
+            return;
+        }
+        if (DBG) {
+            log("decoded " + file.getName() + " in " + (SystemClock.elapsedRealtime() - start)
+                    + " ms");
+        }
+    }
+
+    /** Decode a tone resource to 16-bit PCM. */
+    private Tone decode(int resId, String key) throws IOException {
+        AssetFileDescriptor afd = mContext.getResources().openRawResourceFd(resId);
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(),
+                    afd.getLength());
+            MediaFormat format = extractor.getTrackFormat(0);
+            extractor.selectTrack(0);
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            byte[] chunk = new byte[0];
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                if (!inputDone) {
+                    int index = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (index >= 0) {
+                        ByteBuffer buffer = codec.getInputBuffer(index);
+                        int size = extractor.readSampleData(buffer, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(index, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int index = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (index >= 0) {
+                    ByteBuffer buffer = codec.getOutputBuffer(index);
+                    if (chunk.length < info.size) {
+                        chunk = new byte[info.size];
+                    }
+                    buffer.position(info.offset);
+                    buffer.get(chunk, 0, info.size);
+                    pcm.write(chunk, 0, info.size);
+                    codec.releaseOutputBuffer(index, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                }
+            }
+            return new Tone(key, sampleRate, channelCount, pcm.toByteArray());
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+            afd.close();
+        }
+    }
+
+    /** Returns the cache file for a tone in the current locale. */
+    private File getCacheFile(int resId) {
+        String name = mContext.getResources().getResourceEntryName(resId) + '_'
+                + mContext.getResources().getConfiguration().getLocales().get(0).toLanguageTag()
+                + '_' + mPackageUpdateTime + ".pcm";
+        return new File(mCacheDir, name);
+    }
+
+    /** Delete cache files for other locales or older versions of the package. */
+    private void removeStaleFiles() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String suffix = "_" + mContext.getResources().getConfiguration().getLocales().get(0)
+                .toLanguageTag() + '_' + mPackageUpdateTime + ".pcm";
+        for (File file : files) {
+            if (!file.getName().endsWith(suffix)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(TAG, msg);
+    }
+
+    private static void loge(String msg) {
+        Log.e(TAG, msg);
+    }
+}
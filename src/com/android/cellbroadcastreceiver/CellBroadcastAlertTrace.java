@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Traces a broadcast from its arrival at {@link PrivilegedCellBroadcastReceiver} until the alert
+ * is visible and audible. Each broadcast gets a trace ID, which is passed along in
+ * {@link #EXTRA_TRACE_ID} with every intent on the alert path. The whole path shows up in
+ * systrace as one async section per broadcast, with a section for each {@link Stage} it passes.
+ * The latency from arrival to each stage is also kept for dumpsys, as a histogram and as
+ * percentiles of recent broadcasts.
+ */
+class CellBroadcastAlertTrace {
+    private static final String TAG = "CellBroadcastAlertTrace";
+
+    /** Intent extra with the trace ID of a broadcast. */
+    static final String EXTRA_TRACE_ID = "com.android.cellbroadcastreceiver.TRACE_ID";
+
+    /** Trace ID of a broadcast that is not traced. */
+    static final int NO_TRACE = 0;
+
+    /** Points on the alert path, in order. */
+    enum Stage {
+        /** The broadcast was received by PrivilegedCellBroadcastReceiver. */
+        RECEIVED,
+        /** CellBroadcastAlertService started handling the broadcast. */
+        SERVICE_STARTED,
+        /** The broadcast passed the user preference filter. */
+        FILTERED,
+        /** The broadcast passed duplicate detection. */
+        DEDUPLICATED,
+        /** The broadcast was written to the database. */
+        STORED,
+        /** CellBroadcastAlertService received SHOW_NEW_ALERT_ACTION. */
+        SHOW_NEW_ALERT,
+        /** The emergency alert audio and dialog were started. */
+        ALERT_OPENED,
+        /** The alert tone or vibration started. */
+        TONE_STARTED,
+        /** The alert dialog was first drawn. */
+        FIRST_DRAW
+    }
+
+    /** Upper bounds of the latency histogram buckets; the last bucket is unbounded. */
+    private static final long[] LATENCY_BUCKETS_MILLIS =
+            {10, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    /** Number of recent latencies per stage that percentiles are computed from. */
+    private static final int MAX_SAMPLES = 128;
+
+    /** Number of broadcasts whose start time is kept. */
+    private static final int MAX_ACTIVE_TRACES = 32;
+
+    /** A broadcast being traced. */
+    private static final class ActiveTrace {
+        final int mTraceId;
+        final long mStartTime;
+        /** Bit per {@link Stage} that was reached. */
+        int mStagesReached;
+        boolean mEnded;
+
+        ActiveTrace(int traceId, long startTime) {
+            mTraceId = traceId;
+            mStartTime = startTime;
+        }
+    }
+
+    /** Latency accounting for one stage. */
+    private static final class StageStats {
+        int mCount;
+        long mTotalMillis;
+        long mMaxMillis;
+        final int[] mHistogram = new int[LATENCY_BUCKETS_MILLIS.length + 1];
+        /** Ring of the last {@link #MAX_SAMPLES} latencies. */
+        final long[] mSamples = new long[MAX_SAMPLES];
+    }
+
+    private static final SparseArray<ActiveTrace> sTraces = new SparseArray<ActiveTrace>();
+
+    /** Trace IDs in order of arrival, to evict the oldest trace. */
+    private static final int[] sTraceOrder = new int[MAX_ACTIVE_TRACES];
+    private static int sTraceOrderIndex;
+
+    private static final StageStats[] sStageStats = new StageStats[Stage.values().length];
+
+    private static int sNextTraceId = 1;
+
+    static {
+        for (int i = 0; i < sStageStats.length; i++) {
+            sStageStats[i] = new StageStats();
+        }
+    }
+
+    private CellBroadcastAlertTrace() {}
+
+    /**
+     * Start tracing a broadcast and put its trace ID in the intent.
+     * @param intent the broadcast intent, which is forwarded to the alert service
+     */
+    static synchronized void begin(Intent intent) {
+        int traceId = sNextTraceId++;
+        if (sNextTraceId == NO_TRACE) {
+            sNextTraceId = 1;
+        }
+        intent.putExtra(EXTRA_TRACE_ID, traceId);
+
+        int evicted = sTraceOrder[sTraceOrderIndex];
+        if (evicted != NO_TRACE) {
+            ActiveTrace oldest = sTraces.get(evicted);
+            if (oldest != null && !oldest.mEnded) {
+                Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, TAG, evicted);
+            }
+            sTraces.remove(evicted);
+        }
+        sTraceOrder[sTraceOrderIndex] = traceId;
+        sTraceOrderIndex = (sTraceOrderIndex + 1) % MAX_ACTIVE_TRACES;
+
+        sTraces.put(traceId, new ActiveTrace(traceId, SystemClock.elapsedRealtime()));
+        Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, TAG, traceId);
+        mark(traceId, Stage.RECEIVED);
+    }
+
+    /** Returns the trace ID of an intent on the alert path, or {@link #NO_TRACE}. */
+    static int getTraceId(Intent intent) {
+        return intent.getIntExtra(EXTRA_TRACE_ID, NO_TRACE);
+    }
+
+    /** Pass the trace ID of one intent on to the next intent on the alert path. */
+    static void propagate(Intent from, Intent to) {
+        int traceId = getTraceId(from);
+        if (traceId != NO_TRACE) {
+            to.putExtra(EXTRA_TRACE_ID, traceId);
+        }
+    }
+
+    /**
+     * Record that a broadcast reached a stage. Only the first time a broadcast reaches a stage
+     * is recorded, so that alerts replayed after an interruption do not count again.
+     * @param traceId the trace ID of the broadcast, or {@link #NO_TRACE}
+     * @param stage the stage reached
+     */
+    static synchronized void mark(int traceId, Stage stage) {
+        ActiveTrace trace = sTraces.get(traceId);
+        if (trace == null || (trace.mStagesReached & (1 << stage.ordinal())) != 0) {
+            return;
+        }
+        trace.mStagesReached |= 1 << stage.ordinal();
+
+        long latency = SystemClock.elapsedRealtime() - trace.mStartTime;
+        StageStats stats = sStageStats[stage.ordinal()];
+        stats.mCount++;
+        stats.mTotalMillis += latency;
+        stats.mMaxMillis = Math.max(stats.mMaxMillis, latency);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MILLIS.length
+                && latency > LATENCY_BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        stats.mHistogram[bucket]++;
+        stats.mSamples[(stats.mCount - 1) % MAX_SAMPLES] = latency;
+
+        if (Trace.isTagEnabled(Trace.TRACE_TAG_APP)) {
+            // An instant section, so the stage lines up with the broadcast's async section.
+            Trace.traceBegin(Trace.TRACE_TAG_APP, "alert " + traceId + " " + stage);
+            Trace.traceEnd(Trace.TRACE_TAG_APP);
+        }
+        if (CellBroadcastReceiver.DBG) {
+            Log.d(TAG, "alert " + traceId + " reached " + stage + " after " + latency + " ms");
+        }
+
+        if (stage == Stage.FIRST_DRAW) {
+            end(traceId);
+        }
+    }
+
+    /**
+     * End the async section of a broadcast that will not go further, e.g. because it was
+     * filtered out or shown as a notification. Stages reached later are still recorded.
+     */
+    static synchronized void end(int traceId) {
+        ActiveTrace trace = sTraces.get(traceId);
+        if (trace != null && !trace.mEnded) {
+            trace.mEnded = true;
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, TAG, traceId);
+        }
+    }
+
+    /** Print the latency histogram of each stage. */
+    static synchronized void dump(PrintWriter pw) {
+        pw.println("Alert latency from broadcast arrival:");
+        for (Stage stage : Stage.values()) {
+            StageStats stats = sStageStats[stage.ordinal()];
+            pw.print("  " + stage + ": count=" + stats.mCount + " maxMs=" + stats.mMaxMillis);
+            if (stats.mCount > 0) {
+                pw.print(" avgMs=" + (stats.mTotalMillis / stats.mCount));
+                long[] samples = Arrays.copyOf(stats.mSamples,
+                        Math.min(stats.mCount, MAX_SAMPLES));
+                Arrays.sort(samples);
+                pw.print(" recent p50=" + percentile(samples, 50)
+                        + " p90=" + percentile(samples, 90)
+                        + " p99=" + percentile(samples, 99));
+            }
+            pw.println();
+            pw.print("    latency histogram:");
+            for (int i = 0; i < stats.mHistogram.length; i++) {
+                if (i < LATENCY_BUCKETS_MILLIS.length) {
+                    pw.print(" <=" + LATENCY_BUCKETS_MILLIS[i] + "ms:");
+                } else {
+                    pw.print(" >" + LATENCY_BUCKETS_MILLIS[i - 1] + "ms:");
+                }
+                pw.print(stats.mHistogram[i]);
+            }
+            pw.println();
+        }
+    }
+
+    /** Returns the nearest-rank percentile of sorted, non-empty samples. */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (percent * sorted.length + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
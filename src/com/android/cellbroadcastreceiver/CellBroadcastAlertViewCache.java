@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+
+/**
+ * Keeps an inflated {@link CellBroadcastAlertDialog} layout ready, so that an alert can be
+ * shown without inflating it after the activity launch. The layout is inflated when the main
+ * thread is idle after the process starts, and again after each use. A layout inflated under a
+ * different configuration is not used.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class CellBroadcastAlertViewCache {
+    private static final String TAG = "CellBroadcastAlertViewCache";
+
+    /** Configuration changes that affect how the layout is inflated. */
+    private static final int RELEVANT_CONFIG_CHANGES = ActivityInfo.CONFIG_LOCALE
+            | ActivityInfo.CONFIG_LAYOUT_DIRECTION | ActivityInfo.CONFIG_FONT_SCALE
+            | ActivityInfo.CONFIG_DENSITY | ActivityInfo.CONFIG_UI_MODE;
+
+    private static Context sContext;
+
+    /** The inflated layout, or null. */
+    private static View sView;
+
+    /** Configuration sView was inflated with. */
+    private static Configuration sConfiguration;
+
+    /** True while an idle handler is queued to inflate the layout. */
+    private static boolean sInflateScheduled;
+
+    private static int sHitCount;
+    private static int sMissCount;
+
+    private static final MessageQueue.IdleHandler sInflateHandler =
+            new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    sInflateScheduled = false;
+                    inflate();
+                    return false;
+                }
+            };
+
+    private CellBroadcastAlertViewCache() {}
+
+    /**
+     * Inflate the alert layout the next time the main thread is idle.
+     * @param context any context of the application
+     */
+    static void prewarm(Context context) {
+        sContext = context.getApplicationContext();
+        if (sView == null && !sInflateScheduled) {
+            sInflateScheduled = true;
+            Looper.getMainLooper().getQueue().addIdleHandler(sInflateHandler);
+        }
+    }
+
+    /**
+     * Returns the pre-inflated alert layout for an activity and schedules the next one, or
+     * returns null if none is ready.
+     * @param activity the activity that will show the layout
+     */
+    static View obtain(Context activity) {
+        View view = sView;
+        sView = null;
+        if (view != null && (sConfiguration.diff(activity.getResources().getConfiguration())
+                & RELEVANT_CONFIG_CHANGES) != 0) {
+            if (CellBroadcastReceiver.DBG) Log.d(TAG, "configuration changed, not reusing view");
+            view = null;
+        }
+        if (view != null) {
+            sHitCount++;
+        } else {
+            sMissCount++;
+        }
+        prewarm(activity);
+        return view;
+    }
+
+    /** Returns the number of alerts shown with a pre-inflated layout. */
+    static int getHitCount() {
+        return sHitCount;
+    }
+
+    /** Returns the number of alerts that had to inflate the layout themselves. */
+    static int getMissCount() {
+        return sMissCount;
+    }
+
+    private static void inflate() {
+        if (sView != null) {
+            return;
+        }
+        // Inflate with the activity theme so the views resolve the same attributes.
+        Context themed = new ContextThemeWrapper(sContext, R.style.CellBroadcastAlertDialog);
+        sView = LayoutInflater.from(themed).inflate(R.layout.cell_broadcast_alert, null);
+        sConfiguration = new Configuration(sContext.getResources().getConfiguration());
+        // Load the warning icon into the resource cache as well.
+        sContext.getDrawable(R.drawable.ic_warning_large);
+        if (CellBroadcastReceiver.DBG) Log.d(TAG, "alert layout inflated");
+    }
+}
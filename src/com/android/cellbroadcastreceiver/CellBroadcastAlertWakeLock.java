@@ -17,36 +17,189 @@
 package com.android.cellbroadcastreceiver;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.PrintWriter;
+
 /**
- * Hold a wakelock that can be acquired in the CellBroadcastAlertService and
- * released in the CellBroadcastAlertDialog Activity.
+ * Wake locks held along the alert path, one per {@link Reason}. Each reason has a safety
+ * timeout after which its lock is released even if the holder never released it. Holds of the
+ * same reason are counted, and the lock is released when the count drops to zero. Hold times
+ * are kept per reason as a histogram for dumpsys.
  */
 class CellBroadcastAlertWakeLock {
     private static final String TAG = "CellBroadcastAlertWakeLock";
 
-    private static PowerManager.WakeLock sCpuWakeLock;
+    /** Why a wake lock is held, with the safety timeout for the reason. */
+    enum Reason {
+        /** From receiving a broadcast until its alert or notification is shown. */
+        INTAKE(30 * 1000),
+        /** While a broadcast is written to the database. */
+        DB_WRITE(10 * 1000),
+        /** From showing an emergency alert until the alert tone has played. */
+        AUDIO(60 * 1000),
+        /** While the alert text is spoken. */
+        TTS(60 * 1000),
+        /** From scheduling a coalesced notification update until it is posted. */
+        NOTIFICATION_FLUSH(10 * 1000);
+
+        final long mTimeoutMillis;
+
+        Reason(long timeoutMillis) {
+            mTimeoutMillis = timeoutMillis;
+        }
+    }
+
+    /** Upper bounds of the hold time histogram buckets; the last bucket is unbounded. */
+    private static final long[] HOLD_TIME_BUCKETS_MILLIS =
+            {100, 500, 1000, 5000, 10000, 30000, 60000};
+
+    /** Lock and accounting for one reason. */
+    private static final class ReasonLock {
+        final Reason mReason;
+        PowerManager.WakeLock mWakeLock;
+        int mHoldCount;
+        long mAcquireTime;
+        final Runnable mTimeoutRunnable;
+
+        int mAcquireCount;
+        int mTimeoutCount;
+        long mTotalHoldMillis;
+        long mMaxHoldMillis;
+        final int[] mHistogram = new int[HOLD_TIME_BUCKETS_MILLIS.length + 1];
+
+        ReasonLock(final Reason reason) {
+            mReason = reason;
+            mTimeoutRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout(reason);
+                }
+            };
+        }
+    }
+
+    private static final ReasonLock[] sLocks = new ReasonLock[Reason.values().length];
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    static {
+        for (Reason reason : Reason.values()) {
+            sLocks[reason.ordinal()] = new ReasonLock(reason);
+        }
+    }
 
     private CellBroadcastAlertWakeLock() {}
 
-    static void acquireScreenCpuWakeLock(Context context) {
-        if (sCpuWakeLock != null) {
-            return;
+    /**
+     * Acquire the wake lock for a reason, or add a hold if it is already held. Either way the
+     * safety timeout of the reason starts over.
+     */
+    static synchronized void acquire(Context context, Reason reason) {
+        ReasonLock lock = sLocks[reason.ordinal()];
+        if (lock.mWakeLock == null) {
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            int flags = PowerManager.PARTIAL_WAKE_LOCK;
+            if (reason == Reason.AUDIO) {
+                // Emergency alerts also turn the screen on.
+                flags |= PowerManager.ACQUIRE_CAUSES_WAKEUP | PowerManager.ON_AFTER_RELEASE;
+            }
+            lock.mWakeLock = pm.newWakeLock(flags, TAG + ":" + reason);
+            lock.mWakeLock.setReferenceCounted(false);
+        }
+        if (lock.mHoldCount++ == 0) {
+            CellBroadcastBinderCounter.count();
+            lock.mWakeLock.acquire();
+            lock.mAcquireTime = SystemClock.elapsedRealtime();
+            lock.mAcquireCount++;
+            Log.d(TAG, "acquired " + reason + " wake lock");
+        }
+        sHandler.removeCallbacks(lock.mTimeoutRunnable);
+        sHandler.postDelayed(lock.mTimeoutRunnable, reason.mTimeoutMillis);
+    }
+
+    /** Remove one hold for a reason, releasing the wake lock if it was the last. */
+    static synchronized void release(Reason reason) {
+        ReasonLock lock = sLocks[reason.ordinal()];
+        if (lock.mHoldCount == 0) {
+            return;     // already released, e.g. by the timeout
         }
-        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-        sCpuWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK
-                | PowerManager.ACQUIRE_CAUSES_WAKEUP | PowerManager.ON_AFTER_RELEASE, TAG);
-        sCpuWakeLock.acquire();
-        Log.d(TAG, "acquired screen + CPU wake lock");
+        if (--lock.mHoldCount == 0) {
+            releaseLocked(lock, false);
+        }
+    }
+
+    /** Remove all holds for a reason and release its wake lock. */
+    static synchronized void releaseAll(Reason reason) {
+        ReasonLock lock = sLocks[reason.ordinal()];
+        if (lock.mHoldCount > 0) {
+            lock.mHoldCount = 0;
+            releaseLocked(lock, false);
+        }
+    }
+
+    private static synchronized void onTimeout(Reason reason) {
+        ReasonLock lock = sLocks[reason.ordinal()];
+        if (lock.mHoldCount > 0) {
+            Log.w(TAG, reason + " wake lock timed out with " + lock.mHoldCount + " holds");
+            lock.mHoldCount = 0;
+            releaseLocked(lock, true);
+        }
+    }
+
+    private static void releaseLocked(ReasonLock lock, boolean timedOut) {
+        sHandler.removeCallbacks(lock.mTimeoutRunnable);
+        CellBroadcastBinderCounter.count();
+        lock.mWakeLock.release();
+
+        long held = SystemClock.elapsedRealtime() - lock.mAcquireTime;
+        lock.mTotalHoldMillis += held;
+        lock.mMaxHoldMillis = Math.max(lock.mMaxHoldMillis, held);
+        if (timedOut) {
+            lock.mTimeoutCount++;
+        }
+        int bucket = 0;
+        while (bucket < HOLD_TIME_BUCKETS_MILLIS.length
+                && held > HOLD_TIME_BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        lock.mHistogram[bucket]++;
+        Log.d(TAG, "released " + lock.mReason + " wake lock after " + held + " ms");
+    }
+
+    /** Returns true if the wake lock for a reason is held. */
+    static synchronized boolean isHeld(Reason reason) {
+        return sLocks[reason.ordinal()].mHoldCount > 0;
     }
 
-    static void releaseCpuLock() {
-        if (sCpuWakeLock != null) {
-            sCpuWakeLock.release();
-            sCpuWakeLock = null;
-            Log.d(TAG, "released screen + CPU wake lock");
+    /** Print wake lock state and hold time histograms. */
+    static synchronized void dump(PrintWriter pw) {
+        pw.println("Wake locks:");
+        long now = SystemClock.elapsedRealtime();
+        for (ReasonLock lock : sLocks) {
+            pw.print("  " + lock.mReason + ": acquired=" + lock.mAcquireCount
+                    + " timeouts=" + lock.mTimeoutCount
+                    + " totalMs=" + lock.mTotalHoldMillis
+                    + " maxMs=" + lock.mMaxHoldMillis);
+            if (lock.mHoldCount > 0) {
+                pw.print(" HELD holds=" + lock.mHoldCount
+                        + " forMs=" + (now - lock.mAcquireTime));
+            }
+            pw.println();
+            pw.print("    hold time histogram:");
+            for (int i = 0; i < lock.mHistogram.length; i++) {
+                if (i < HOLD_TIME_BUCKETS_MILLIS.length) {
+                    pw.print(" <=" + HOLD_TIME_BUCKETS_MILLIS[i] + "ms:");
+                } else {
+                    pw.print(" >" + HOLD_TIME_BUCKETS_MILLIS[i - 1] + "ms:");
+                }
+                pw.print(lock.mHistogram[i]);
+            }
+            pw.println();
         }
     }
 }
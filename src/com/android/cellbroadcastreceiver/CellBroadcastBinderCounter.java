@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the binder transactions made while processing broadcasts, for dumpsys. Call sites on
+ * the alert path call {@link #count} next to each cross-process call, and the alert service
+ * records how many were made per {@link Phase} of each broadcast. Calls are also counted per
+ * thread, and each phase runs on a single thread, so the count for a phase does not include
+ * calls made by other threads meanwhile.
+ */
+class CellBroadcastBinderCounter {
+
+    /** Parts of processing a broadcast. */
+    enum Phase {
+        /** Filtering and duplicate detection, on the main thread. */
+        INTAKE,
+        /** The database write and the request to show the alert, on a worker thread. */
+        STORE,
+        /** Showing the alert or notification, on the main thread. */
+        DISPLAY
+    }
+
+    /** Binder transactions made since process start. */
+    private static final AtomicInteger sCount = new AtomicInteger();
+
+    /** Binder transactions made by the current thread. */
+    private static final ThreadLocal<int[]> sThreadCount = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private static final int[] sPhaseCounts = new int[Phase.values().length];
+    private static final long[] sPhaseCalls = new long[Phase.values().length];
+    private static final int[] sPhaseMaxCalls = new int[Phase.values().length];
+
+    private CellBroadcastBinderCounter() {}
+
+    /** Note one binder transaction. */
+    static void count() {
+        sCount.incrementAndGet();
+        sThreadCount.get()[0]++;
+    }
+
+    /** Returns the number of binder transactions made by the calling thread. */
+    static int get() {
+        return sThreadCount.get()[0];
+    }
+
+    /**
+     * Record the binder transactions made by one broadcast in a phase. Must be called on the
+     * thread the phase ran on.
+     * @param phase the phase that ended
+     * @param start the value of {@link #get} when the phase started
+     */
+    static synchronized void recordPhase(Phase phase, int start) {
+        int calls = get() - start;
+        sPhaseCounts[phase.ordinal()]++;
+        sPhaseCalls[phase.ordinal()] += calls;
+        sPhaseMaxCalls[phase.ordinal()] = Math.max(sPhaseMaxCalls[phase.ordinal()], calls);
+    }
+
+    /** Print the binder transactions per broadcast for each phase. */
+    static synchronized void dump(PrintWriter pw) {
+        pw.println("Binder calls: total=" + sCount.get());
+        for (Phase phase : Phase.values()) {
+            int count = sPhaseCounts[phase.ordinal()];
+            pw.print("  " + phase + ": broadcasts=" + count
+                    + " maxCalls=" + sPhaseMaxCalls[phase.ordinal()]);
+            if (count > 0) {
+                pw.print(" avgCalls=" + ((float) sPhaseCalls[phase.ordinal()] / count));
+            }
+            pw.println();
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.cellbroadcastreceiver;
 
 import android.app.IntentService;
-import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -25,13 +24,15 @@ import android.preference.PreferenceManager;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SmsManager;
 import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
+import android.text.format.DateFormat;
 import android.util.Log;
 
 import com.android.cellbroadcastreceiver.CellBroadcastOtherChannelsManager.CellBroadcastChannelRange;
 import com.android.internal.telephony.cdma.sms.SmsEnvelope;
 import com.android.internal.telephony.gsm.SmsCbConstants;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
@@ -57,13 +58,49 @@ public class CellBroadcastConfigService extends IntentService {
     private static final String COUNTRY_BRAZIL = "br";
     private static final String COUNTRY_INDIA = "in";
 
+    /** A channel range as last applied to the radio, for dumpsys. */
+    private static final class AppliedRange {
+        final int mSubId;
+        final int mType;
+        final int mStartId;
+        final int mEndId;
+        final boolean mEnabled;
+        final boolean mSuccess;
+
+        AppliedRange(int subId, int type, int startId, int endId, boolean enabled,
+                boolean success) {
+            mSubId = subId;
+            mType = type;
+            mStartId = startId;
+            mEndId = endId;
+            mEnabled = enabled;
+            mSuccess = success;
+        }
+    }
+
+    /** Ranges applied by the last ACTION_ENABLE_CHANNELS, in order. Guarded by itself. */
+    private static final ArrayList<AppliedRange> sAppliedRanges = new ArrayList<AppliedRange>();
+
+    /** Wall clock time of the last ACTION_ENABLE_CHANNELS, or 0. */
+    private static long sLastAppliedTime;
+
+    /** Subscription the ranges being applied belong to. Only used on the worker thread. */
+    private int mCurrentSubId;
+
     public CellBroadcastConfigService() {
         super(TAG);          // use class name for worker thread name
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
+        CellBroadcastReceiverApp.traceEntryPoint("config service " + intent.getAction());
+        // Channel settings are read below, so make sure the XML defaults are in place.
+        CellBroadcastReceiverApp.ensureDefaultValues(this);
         if (ACTION_ENABLE_CHANNELS.equals(intent.getAction())) {
+            synchronized (sAppliedRanges) {
+                sAppliedRanges.clear();
+                sLastAppliedTime = System.currentTimeMillis();
+            }
             try {
 
                 SubscriptionManager subManager = SubscriptionManager.from(getApplicationContext());
@@ -117,6 +154,9 @@ public class CellBroadcastConfigService extends IntentService {
             } catch (Exception ex) {
                 Log.e(TAG, "exception enabling cell broadcast channels", ex);
             }
+
+            // Decode the alert tones ahead of the first alert; a no-op once they are cached.
+            CellBroadcastAlertTones.getInstance(this).preload();
         }
     }
 
@@ -129,6 +169,7 @@ public class CellBroadcastConfigService extends IntentService {
      *                     will disable all messages
      */
     private void setCellBroadcastOnSub(SmsManager manager, int subId, boolean enableForSub) {
+        mCurrentSubId = subId;
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         Resources res = getResources();
@@ -168,9 +209,8 @@ public class CellBroadcastConfigService extends IntentService {
                 enableEmergencyAlerts &&
                 prefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_TEST_ALERTS, false);
 
-        TelephonyManager tm = (TelephonyManager) getSystemService(
-                Context.TELEPHONY_SERVICE);
-        String country = tm.getSimCountryIso(subId);
+        CellBroadcastTelephonyCache telephonyCache = CellBroadcastTelephonyCache.getInstance(this);
+        String country = telephonyCache.getSimCountryIso(subId);
 
         boolean enableChannel50Support = res.getBoolean(R.bool.show_brazil_settings) ||
                 COUNTRY_BRAZIL.equals(country) ||
@@ -188,11 +228,12 @@ public class CellBroadcastConfigService extends IntentService {
 
 
         // Current Israel requires enable certain CMAS messages ids.
-        boolean supportIsraelPwsAlerts = (COUNTRY_ISRAEL.equals(tm.getSimCountryIso(subId))
-                || COUNTRY_ISRAEL.equals(tm.getNetworkCountryIso(subId)));
+        String networkCountry = telephonyCache.getNetworkCountryIso(subId);
+        boolean supportIsraelPwsAlerts = (COUNTRY_ISRAEL.equals(country)
+                || COUNTRY_ISRAEL.equals(networkCountry));
 
-        boolean supportTaiwanPwsAlerts = (COUNTRY_TAIWAN.equals(tm.getSimCountryIso(subId))
-                || COUNTRY_TAIWAN.equals(tm.getNetworkCountryIso(subId)));
+        boolean supportTaiwanPwsAlerts = (COUNTRY_TAIWAN.equals(country)
+                || COUNTRY_TAIWAN.equals(networkCountry));
 
         if (DBG) {
             log("enableEmergencyAlerts = " + enableEmergencyAlerts);
@@ -382,10 +423,41 @@ public class CellBroadcastConfigService extends IntentService {
      */
     private boolean setCellBroadcastRange(
             SmsManager manager, boolean enable, int type, int start, int end) {
+        boolean success;
         if (enable) {
-            return manager.enableCellBroadcastRange(start, end, type);
+            success = manager.enableCellBroadcastRange(start, end, type);
         } else {
-            return manager.disableCellBroadcastRange(start, end, type);
+            success = manager.disableCellBroadcastRange(start, end, type);
+        }
+        synchronized (sAppliedRanges) {
+            sAppliedRanges.add(new AppliedRange(mCurrentSubId, type, start, end, enable,
+                    success));
+        }
+        return success;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        dumpChannelRanges(pw);
+    }
+
+    /** Print the channel ranges last applied to the radio. */
+    static void dumpChannelRanges(PrintWriter pw) {
+        synchronized (sAppliedRanges) {
+            if (sLastAppliedTime == 0) {
+                pw.println("Channel ranges: not applied since process start");
+                return;
+            }
+            pw.println("Channel ranges applied at "
+                    + DateFormat.format("MM-dd HH:mm:ss", sLastAppliedTime) + ":");
+            for (AppliedRange range : sAppliedRanges) {
+                pw.println("  sub=" + range.mSubId
+                        + (range.mType == SmsManager.CELL_BROADCAST_RAN_TYPE_CDMA
+                                ? " CDMA " : " GSM ")
+                        + range.mStartId + "-" + range.mEndId
+                        + (range.mEnabled ? " enabled" : " disabled")
+                        + (range.mSuccess ? "" : " FAILED"));
+            }
         }
     }
 
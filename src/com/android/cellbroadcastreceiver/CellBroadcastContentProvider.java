@@ -20,19 +20,29 @@ import android.app.AppOpsManager;
 import android.content.ContentProvider;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.provider.Telephony;
 import android.telephony.CellBroadcastMessage;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.cellbroadcastreceiver.db.BroadcastTable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * ContentProvider for the database of received cell broadcasts.
  */
@@ -48,12 +58,22 @@ public class CellBroadcastContentProvider extends ContentProvider {
     /** Content URI for notifying observers. */
     static final Uri CONTENT_URI = Uri.parse("content://cellbroadcasts/");
 
+    /**
+     * Optional query parameter limiting the number of rows returned, e.g.
+     * {@code content://cellbroadcasts/?limit=500}. Used by the list view to page through
+     * large archives.
+     */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+
     /** URI matcher type to get all cell broadcasts. */
     private static final int CB_ALL = 0;
 
     /** URI matcher type to get a cell broadcast by ID. */
     private static final int CB_ALL_ID = 1;
 
+    /** Maximum number of rows deleted per transaction. */
+    static final int DELETE_CHUNK_SIZE = BroadcastTable.DELETE_CHUNK_SIZE;
+
     /** MIME type for the list of all cell broadcasts. */
     private static final String CB_LIST_TYPE = "vnd.android.cursor.dir/cellbroadcast";
 
@@ -65,20 +85,48 @@ public class CellBroadcastContentProvider extends ContentProvider {
         sUriMatcher.addURI(CB_AUTHORITY, "#", CB_ALL_ID);
     }
 
-    /** The database for this content provider. */
+    /**
+     * URI to notify once the operation running on this thread completes: the row URI if it
+     * changed a single broadcast, or {@link #CONTENT_URI}. Set by the internal methods and
+     * read by {@link #executeOperation}.
+     */
+    private static final ThreadLocal<Uri> sChangedUri = new ThreadLocal<Uri>();
+
+    /** The database for this content provider; created on first use. */
     private SQLiteOpenHelper mOpenHelper;
 
+    /** Counters for dumpsys. */
+    private final AtomicInteger mQueryCount = new AtomicInteger();
+    private final AtomicInteger mInsertCount = new AtomicInteger();
+    private final AtomicInteger mInsertFailureCount = new AtomicInteger();
+    private final AtomicInteger mMarkReadCount = new AtomicInteger();
+    private final AtomicInteger mDeleteCount = new AtomicInteger();
+
+    /** Total and maximum time spent in {@link #insertNewBroadcast}. Guarded by this. */
+    private long mTotalInsertMillis;
+    private long mMaxInsertMillis;
+
     /**
      * Initialize content provider.
      * @return true if the provider was successfully loaded, false otherwise
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new CellBroadcastDatabaseHelper(getContext());
+        // Providers are created on every process start, so the database helper is created
+        // only when the database is first accessed.
         setAppOps(AppOpsManager.OP_READ_CELL_BROADCASTS, AppOpsManager.OP_NONE);
         return true;
     }
 
+    /** Returns the database helper, creating it on first use. */
+    private synchronized SQLiteOpenHelper getOpenHelper() {
+        if (mOpenHelper == null) {
+            CellBroadcastReceiverApp.traceEntryPoint("provider");
+            mOpenHelper = new CellBroadcastDatabaseHelper(getContext());
+        }
+        return mOpenHelper;
+    }
+
     /**
      * Return a cursor for the cell broadcast table.
      * @param uri the URI to query.
@@ -92,6 +140,7 @@ public class CellBroadcastContentProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
+        mQueryCount.incrementAndGet();
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         qb.setTables(CellBroadcastDatabaseHelper.TABLE_NAME);
 
@@ -118,8 +167,15 @@ public class CellBroadcastContentProvider extends ContentProvider {
             orderBy = Telephony.CellBroadcasts.DEFAULT_SORT_ORDER;
         }
 
-        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+            Log.e(TAG, "Invalid limit: " + limit);
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+
+        SQLiteDatabase db = getOpenHelper().getReadableDatabase();
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy,
+                limit);
         if (c != null) {
             c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
         }
@@ -186,10 +242,11 @@ public class CellBroadcastContentProvider extends ContentProvider {
     /**
      * Internal method to insert a new Cell Broadcast into the database and notify observers.
      * @param message the message to insert
-     * @return true if the broadcast is new, false if it's a duplicate broadcast.
+     * @return the row ID of the new broadcast, or -1 if it could not be written
      */
-    boolean insertNewBroadcast(CellBroadcastMessage message) {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    long insertNewBroadcast(CellBroadcastMessage message) {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = getOpenHelper().getWritableDatabase();
         ContentValues cv = message.getContentValues();
 
         // Note: this method previously queried the database for duplicate message IDs, but this
@@ -198,15 +255,24 @@ public class CellBroadcastContentProvider extends ContentProvider {
         // Use duplicate message ID detection in CellBroadcastAlertService instead of DB query.
 
         long rowId = db.insert(CellBroadcastDatabaseHelper.TABLE_NAME, null, cv);
-        if (rowId == -1) {
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        synchronized (this) {
+            mTotalInsertMillis += elapsed;
+            mMaxInsertMillis = Math.max(mMaxInsertMillis, elapsed);
+        }
+        mInsertCount.incrementAndGet();
+        if (rowId != -1) {
+            noteChangedRow(rowId);
+        } else {
+            mInsertFailureCount.incrementAndGet();
             Log.e(TAG, "failed to insert new broadcast into database");
-            // Return true on DB write failure because we still want to notify the user.
-            // The CellBroadcastMessage will be passed with the intent, so the message will be
-            // displayed in the emergency alert dialog, or the dialog that is displayed when
-            // the user selects the notification for a non-emergency broadcast, even if the
-            // broadcast could not be written to the database.
+            // The caller still notifies the user on DB write failure. The message is kept in
+            // CellBroadcastMessageCache under a synthetic row ID, so it will be displayed in
+            // the emergency alert dialog, or the dialog that is displayed when the user
+            // selects the notification for a non-emergency broadcast, even if the broadcast
+            // could not be written to the database.
         }
-        return true;    // broadcast is not a duplicate
+        return rowId;
     }
 
     /**
@@ -215,12 +281,13 @@ public class CellBroadcastContentProvider extends ContentProvider {
      * @return true if the database was updated, false otherwise
      */
     boolean deleteBroadcast(long rowId) {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        mDeleteCount.incrementAndGet();
 
         int rowCount = db.delete(CellBroadcastDatabaseHelper.TABLE_NAME,
-                Telephony.CellBroadcasts._ID + "=?",
-                new String[]{Long.toString(rowId)});
+                BroadcastTable.WHERE_ID, new String[]{Long.toString(rowId)});
         if (rowCount != 0) {
+            noteChangedRow(rowId);
             return true;
         } else {
             Log.e(TAG, "failed to delete broadcast at row " + rowId);
@@ -233,10 +300,67 @@ public class CellBroadcastContentProvider extends ContentProvider {
      * @return true if the database was updated, false otherwise
      */
     boolean deleteAllBroadcasts() {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        return deleteAllBroadcasts(null);
+    }
 
-        int rowCount = db.delete(CellBroadcastDatabaseHelper.TABLE_NAME, null, null);
-        if (rowCount != 0) {
+    /**
+     * Internal method to delete all cell broadcasts in chunks of {@link #DELETE_CHUNK_SIZE}
+     * rows, in ascending row ID order. Each chunk is deleted in its own transaction. Alerts
+     * inserted after the delete started are kept.
+     * @param listener receives progress after each chunk, or null
+     * @return true if the database was updated, false otherwise
+     */
+    boolean deleteAllBroadcasts(DeleteProgressListener listener) {
+        SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        mDeleteCount.incrementAndGet();
+
+        int total = (int) DatabaseUtils.queryNumEntries(db,
+                CellBroadcastDatabaseHelper.TABLE_NAME);
+        long maxRowId = DatabaseUtils.longForQuery(db, BroadcastTable.SELECT_MAX_ID, null);
+        int deleted = 0;
+        boolean done = false;
+        while (!done) {
+            int rowCount;
+            db.beginTransaction();
+            try {
+                // Find the highest row ID of the next chunk, then delete by primary key range.
+                long upperRowId = -1;
+                Cursor c = db.query(CellBroadcastDatabaseHelper.TABLE_NAME,
+                        new String[] {Telephony.CellBroadcasts._ID}, null, null, null, null,
+                        Telephony.CellBroadcasts._ID + " ASC",
+                        (DELETE_CHUNK_SIZE - 1) + ",1");
+                try {
+                    if (c.moveToFirst()) {
+                        upperRowId = c.getLong(0);
+                    }
+                } finally {
+                    c.close();
+                }
+
+                if (upperRowId == -1 || upperRowId >= maxRowId) {
+                    // Last chunk.
+                    upperRowId = maxRowId;
+                    done = true;
+                }
+                rowCount = db.delete(CellBroadcastDatabaseHelper.TABLE_NAME,
+                        BroadcastTable.WHERE_ID_AT_MOST, new String[] {Long.toString(upperRowId)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            deleted += rowCount;
+            if (listener != null) {
+                listener.onProgress(deleted, Math.max(total, deleted));
+            }
+            if (!done) {
+                // Give threads waiting to insert a new alert a chance to take the lock.
+                Thread.yield();
+            }
+        }
+
+        if (deleted != 0) {
+            noteChange(CONTENT_URI);
             return true;
         } else {
             Log.e(TAG, "failed to delete all broadcasts");
@@ -244,9 +368,65 @@ public class CellBroadcastContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Internal method to delete a set of cell broadcasts by row ID, in chunks of
+     * {@link #DELETE_CHUNK_SIZE} rows. Each chunk is deleted in its own transaction.
+     * @param rowIds the row IDs of the broadcasts to delete
+     * @param listener receives progress after each chunk, or null
+     * @return true if the database was updated, false otherwise
+     */
+    boolean deleteBroadcasts(long[] rowIds, DeleteProgressListener listener) {
+        SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        mDeleteCount.incrementAndGet();
+
+        int deleted = 0;
+        for (int start = 0; start < rowIds.length; start += DELETE_CHUNK_SIZE) {
+            int count = Math.min(DELETE_CHUNK_SIZE, rowIds.length - start);
+            StringBuilder where = new StringBuilder(Telephony.CellBroadcasts._ID + " IN (");
+            String[] whereArgs = new String[count];
+            for (int i = 0; i < count; i++) {
+                where.append(i == 0 ? "?" : ",?");
+                whereArgs[i] = Long.toString(rowIds[start + i]);
+            }
+            where.append(')');
+
+            db.beginTransaction();
+            try {
+                deleted += db.delete(CellBroadcastDatabaseHelper.TABLE_NAME, where.toString(),
+                        whereArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            if (listener != null) {
+                listener.onProgress(start + count, rowIds.length);
+            }
+            // Give threads waiting to insert a new alert a chance to take the lock.
+            Thread.yield();
+        }
+
+        if (deleted != 0) {
+            noteChange(CONTENT_URI);
+            return true;
+        } else {
+            Log.e(TAG, "failed to delete " + rowIds.length + " broadcasts");
+            return false;
+        }
+    }
+
+    /**
+     * Internal method to mark a broadcast as read and notify observers.
+     * @param rowId the row ID of the broadcast to mark read
+     * @return true if the database was updated, false otherwise
+     */
+    boolean markBroadcastRead(long rowId) {
+        return markBroadcastRead(Telephony.CellBroadcasts._ID, rowId);
+    }
+
     /**
      * Internal method to mark a broadcast as read and notify observers. The broadcast can be
-     * identified by delivery time (for new alerts) or by row ID. The caller is responsible for
+     * identified by delivery time or by row ID. The caller is responsible for
      * decrementing the unread non-emergency alert count, if necessary.
      *
      * @param columnName the column name to query (ID or delivery time)
@@ -254,7 +434,8 @@ public class CellBroadcastContentProvider extends ContentProvider {
      * @return true if the database was updated, false otherwise
      */
     boolean markBroadcastRead(String columnName, long columnValue) {
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        mMarkReadCount.incrementAndGet();
 
         ContentValues cv = new ContentValues(1);
         cv.put(Telephony.CellBroadcasts.MESSAGE_READ, 1);
@@ -264,6 +445,11 @@ public class CellBroadcastContentProvider extends ContentProvider {
 
         int rowCount = db.update(CellBroadcastDatabaseHelper.TABLE_NAME, cv, whereClause, whereArgs);
         if (rowCount != 0) {
+            if (Telephony.CellBroadcasts._ID.equals(columnName)) {
+                noteChangedRow(columnValue);
+            } else {
+                noteChange(CONTENT_URI);
+            }
             return true;
         } else {
             Log.e(TAG, "failed to mark broadcast read: " + columnName + " = " + columnValue);
@@ -271,6 +457,37 @@ public class CellBroadcastContentProvider extends ContentProvider {
         }
     }
 
+    /** Record that a single broadcast changed, for the notification of the operation. */
+    private static void noteChangedRow(long rowId) {
+        noteChange(ContentUris.withAppendedId(CONTENT_URI, rowId));
+    }
+
+    /**
+     * Record a change for the notification of the operation. If an operation changes more
+     * than one broadcast, {@link #CONTENT_URI} is notified.
+     */
+    private static void noteChange(Uri uri) {
+        Uri changed = sChangedUri.get();
+        sChangedUri.set(changed == null || changed.equals(uri) ? uri : CONTENT_URI);
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        File dbFile = getContext().getDatabasePath(CellBroadcastDatabaseHelper.DATABASE_NAME);
+        synchronized (this) {
+            pw.println("CellBroadcastContentProvider: opened=" + (mOpenHelper != null)
+                    + " dbBytes=" + dbFile.length());
+            int inserts = mInsertCount.get();
+            pw.println("  queries=" + mQueryCount.get() + " inserts=" + inserts
+                    + " insertFailures=" + mInsertFailureCount.get()
+                    + " markRead=" + mMarkReadCount.get() + " deletes=" + mDeleteCount.get());
+            if (inserts > 0) {
+                pw.println("  insert avgMs=" + (mTotalInsertMillis / inserts)
+                        + " maxMs=" + mMaxInsertMillis);
+            }
+        }
+    }
+
     /** Callback for users of AsyncCellBroadcastOperation. */
     interface CellBroadcastOperation {
         /**
@@ -281,6 +498,49 @@ public class CellBroadcastContentProvider extends ContentProvider {
         boolean execute(CellBroadcastContentProvider provider);
     }
 
+    /** Progress callback for chunked deletes. Called on the thread doing the delete. */
+    interface DeleteProgressListener {
+        /**
+         * Called after each chunk has been deleted.
+         * @param processed the number of rows processed so far
+         * @param total the total number of rows to process
+         */
+        void onProgress(int processed, int total);
+    }
+
+    /**
+     * Call one of this content provider's internal methods and notify observers if the
+     * database changed. If a single broadcast changed, its row URI is notified, so that
+     * observers of {@link #CONTENT_URI} with descendants can tell which row it was. Must be
+     * called on a background thread.
+     * @param contentResolver this app's content resolver
+     * @param operation the CellBroadcastOperation object to call for this provider
+     */
+    static void executeOperation(ContentResolver contentResolver,
+            CellBroadcastOperation operation) {
+        ContentProviderClient cpc = contentResolver.acquireContentProviderClient(
+                CellBroadcastContentProvider.CB_AUTHORITY);
+        CellBroadcastContentProvider provider = (CellBroadcastContentProvider)
+                cpc.getLocalContentProvider();
+
+        if (provider != null) {
+            sChangedUri.remove();
+            try {
+                boolean changed = operation.execute(provider);
+                if (changed) {
+                    Uri uri = sChangedUri.get();
+                    Log.d(TAG, "database changed: notifying observers of " + uri);
+                    contentResolver.notifyChange(uri != null ? uri : CONTENT_URI, null, false);
+                }
+            } finally {
+                sChangedUri.remove();
+                cpc.release();
+            }
+        } else {
+            Log.e(TAG, "getLocalContentProvider() returned null");
+        }
+    }
+
     /**
      * Async task to call this content provider's internal methods on a background thread.
      * The caller supplies the CellBroadcastOperation object to call for this provider.
@@ -300,24 +560,7 @@ public class CellBroadcastContentProvider extends ContentProvider {
          */
         @Override
         protected Void doInBackground(CellBroadcastOperation... params) {
-            ContentProviderClient cpc = mContentResolver.acquireContentProviderClient(
-                    CellBroadcastContentProvider.CB_AUTHORITY);
-            CellBroadcastContentProvider provider = (CellBroadcastContentProvider)
-                    cpc.getLocalContentProvider();
-
-            if (provider != null) {
-                try {
-                    boolean changed = params[0].execute(provider);
-                    if (changed) {
-                        Log.d(TAG, "database changed: notifying observers...");
-                        mContentResolver.notifyChange(CONTENT_URI, null, false);
-                    }
-                } finally {
-                    cpc.release();
-                }
-            } else {
-                Log.e(TAG, "getLocalContentProvider() returned null");
-            }
+            executeOperation(mContentResolver, params[0]);
 
             mContentResolver = null;    // free reference to content resolver
             return null;
@@ -18,20 +18,98 @@ package com.android.cellbroadcastreceiver;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.telephony.CellBroadcastMessage;
+import android.os.Debug;
+import android.provider.Telephony;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 
+import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
+
 /**
  * The back-end data adapter for {@link CellBroadcastListActivity}.
  */
 public class CellBroadcastCursorAdapter extends CursorAdapter {
+    private static final String TAG = "CellBroadcastCursorAdapter";
+
+    /**
+     * Column indices of the cursor currently bound to the adapter. Looked up once per cursor
+     * instead of once per row bind.
+     */
+    static final class ColumnIndices {
+        final int mId;
+        final int mDeliveryTime;
+        final int mRead;
+        final int mBody;
+        final int mServiceCategory;
+        final int mPriority;
+        final int mEtwsWarningType;
+        final int mCmasMessageClass;
+
+        ColumnIndices(Cursor cursor) {
+            mId = cursor.getColumnIndexOrThrow(Telephony.CellBroadcasts._ID);
+            mDeliveryTime = cursor.getColumnIndexOrThrow(Telephony.CellBroadcasts.DELIVERY_TIME);
+            mRead = cursor.getColumnIndexOrThrow(Telephony.CellBroadcasts.MESSAGE_READ);
+            mBody = cursor.getColumnIndexOrThrow(Telephony.CellBroadcasts.MESSAGE_BODY);
+            mServiceCategory = cursor.getColumnIndexOrThrow(
+                    Telephony.CellBroadcasts.SERVICE_CATEGORY);
+            mPriority = cursor.getColumnIndexOrThrow(Telephony.CellBroadcasts.MESSAGE_PRIORITY);
+            mEtwsWarningType = cursor.getColumnIndexOrThrow(
+                    Telephony.CellBroadcasts.ETWS_WARNING_TYPE);
+            mCmasMessageClass = cursor.getColumnIndexOrThrow(
+                    Telephony.CellBroadcasts.CMAS_MESSAGE_CLASS);
+        }
+    }
+
+    /** Column indices for the current cursor, or null if there is no cursor. */
+    private ColumnIndices mColumns;
+
+    /** Formatted dates and resolved titles of the rows bound so far. */
+    private final CellBroadcastRowCache mRowCache;
+
+    /** Whether this adapter started allocation counting, which is global. DBG only. */
+    private boolean mAllocCounting;
 
     public CellBroadcastCursorAdapter(Context context, Cursor cursor) {
         // don't set FLAG_AUTO_REQUERY or FLAG_REGISTER_CONTENT_OBSERVER
         super(context, cursor, 0);
+        mRowCache = new CellBroadcastRowCache(context);
+        if (cursor != null) {
+            mColumns = new ColumnIndices(cursor);
+        }
+        setAllocCounting(cursor != null);
+    }
+
+    /**
+     * Count allocations while the adapter has a cursor, so bindView() can report them. The
+     * counter is stopped again when the cursor is swapped out, e.g. when the loader is reset.
+     */
+    private void setAllocCounting(boolean counting) {
+        if (!DBG || counting == mAllocCounting) {
+            return;
+        }
+        mAllocCounting = counting;
+        if (counting) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /** Returns the row presentation cache used when binding rows. */
+    CellBroadcastRowCache getRowCache() {
+        return mRowCache;
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != getCursor()) {
+            mColumns = (newCursor != null) ? new ColumnIndices(newCursor) : null;
+        }
+        setAllocCounting(newCursor != null);
+        return super.swapCursor(newCursor);
     }
 
     /**
@@ -44,18 +122,18 @@ public class CellBroadcastCursorAdapter extends CursorAdapter {
      */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        CellBroadcastMessage message = CellBroadcastMessage.createFromCursor(cursor);
-
         LayoutInflater factory = LayoutInflater.from(context);
         CellBroadcastListItem listItem = (CellBroadcastListItem) factory.inflate(
                     R.layout.cell_broadcast_list_item, parent, false);
 
-        listItem.bind(message);
+        listItem.bind(cursor, mColumns, mRowCache);
         return listItem;
     }
 
     /**
-     * Bind an existing view to the data pointed to by cursor
+     * Bind an existing view to the data pointed to by cursor. Only the displayed columns
+     * are read; the full {@link android.telephony.CellBroadcastMessage} is built on demand
+     * when the user opens or inspects the broadcast.
      * @param view Existing view, returned earlier by newView
      * @param context Interface to application's global information
      * @param cursor The cursor from which to get the data. The cursor is already
@@ -63,8 +141,14 @@ public class CellBroadcastCursorAdapter extends CursorAdapter {
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
-        CellBroadcastMessage message = CellBroadcastMessage.createFromCursor(cursor);
+        int allocCount = DBG ? Debug.getThreadAllocCount() : 0;
+
         CellBroadcastListItem listItem = (CellBroadcastListItem) view;
-        listItem.bind(message);
+        listItem.bind(cursor, mColumns, mRowCache);
+
+        if (DBG) {
+            Log.d(TAG, "bindView position " + cursor.getPosition() + " allocations: "
+                    + (Debug.getThreadAllocCount() - allocCount));
+        }
     }
 }
@@ -23,12 +23,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.Telephony;
-import android.telephony.SmsCbCmasInfo;
-import android.telephony.SmsCbEtwsInfo;
 import android.telephony.SmsCbMessage;
 import android.util.Log;
 
-import com.android.internal.telephony.gsm.SmsCbConstants;
+import com.android.cellbroadcastreceiver.db.BroadcastTable;
+import com.android.cellbroadcastreceiver.db.MessageV1Upgrade;
 
 /**
  * Open, create, and upgrade the cell broadcast SQLite database. Previously an inner class of
@@ -40,19 +39,14 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "CellBroadcastDatabaseHelper";
 
-    static final String DATABASE_NAME = "cell_broadcasts.db";
-    static final String TABLE_NAME = "broadcasts";
+    static final String DATABASE_NAME = BroadcastTable.DATABASE_NAME;
+    static final String TABLE_NAME = BroadcastTable.TABLE_NAME;
 
     /** Temporary table for upgrading the database version. */
     static final String TEMP_TABLE_NAME = "old_broadcasts";
 
-    /**
-     * Database version 1: initial version
-     * Database version 2-9: (reserved for OEM database customization)
-     * Database version 10: adds ETWS and CMAS columns and CDMA support
-     * Database version 11: adds delivery time index
-     */
-    static final int DATABASE_VERSION = 11;
+    /** See {@link BroadcastTable#DATABASE_VERSION} for the version history. */
+    static final int DATABASE_VERSION = BroadcastTable.DATABASE_VERSION;
 
     CellBroadcastDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -60,34 +54,13 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
-                + Telephony.CellBroadcasts._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + Telephony.CellBroadcasts.GEOGRAPHICAL_SCOPE + " INTEGER,"
-                + Telephony.CellBroadcasts.PLMN + " TEXT,"
-                + Telephony.CellBroadcasts.LAC + " INTEGER,"
-                + Telephony.CellBroadcasts.CID + " INTEGER,"
-                + Telephony.CellBroadcasts.SERIAL_NUMBER + " INTEGER,"
-                + Telephony.CellBroadcasts.SERVICE_CATEGORY + " INTEGER,"
-                + Telephony.CellBroadcasts.LANGUAGE_CODE + " TEXT,"
-                + Telephony.CellBroadcasts.MESSAGE_BODY + " TEXT,"
-                + Telephony.CellBroadcasts.DELIVERY_TIME + " INTEGER,"
-                + Telephony.CellBroadcasts.MESSAGE_READ + " INTEGER,"
-                + Telephony.CellBroadcasts.MESSAGE_FORMAT + " INTEGER,"
-                + Telephony.CellBroadcasts.MESSAGE_PRIORITY + " INTEGER,"
-                + Telephony.CellBroadcasts.ETWS_WARNING_TYPE + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_MESSAGE_CLASS + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_CATEGORY + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_RESPONSE_TYPE + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_SEVERITY + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_URGENCY + " INTEGER,"
-                + Telephony.CellBroadcasts.CMAS_CERTAINTY + " INTEGER);");
+        db.execSQL(BroadcastTable.CREATE_TABLE);
 
         createDeliveryTimeIndex(db);
     }
 
     private void createDeliveryTimeIndex(SQLiteDatabase db) {
-        db.execSQL("CREATE INDEX IF NOT EXISTS deliveryTimeIndex ON " + TABLE_NAME
-                + " (" + Telephony.CellBroadcasts.DELIVERY_TIME + ");");
+        db.execSQL(BroadcastTable.CREATE_DELIVERY_TIME_INDEX);
     }
 
     /** Columns to copy on database upgrade. */
@@ -134,8 +107,9 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper {
                 Cursor cursor = db.query(TEMP_TABLE_NAME, COLUMNS_V1, null, null, null, null,
                         null);
                 try {
+                    MessageV1Upgrade upgrade = new MessageV1Upgrade();
                     while (cursor.moveToNext()) {
-                        upgradeMessageV1ToV2(db, cursor);
+                        upgradeMessageV1ToV2(db, cursor, upgrade);
                     }
                 } finally {
                     cursor.close();
@@ -165,8 +139,10 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper {
 
     /**
      * Upgrades a single broadcast message from version 1 to version 2.
+     * @param upgrade reused for each message
      */
-    private static void upgradeMessageV1ToV2(SQLiteDatabase db, Cursor cursor) {
+    private static void upgradeMessageV1ToV2(SQLiteDatabase db, Cursor cursor,
+            MessageV1Upgrade upgrade) {
         int geographicalScope = cursor.getInt(COLUMN_V1_GEOGRAPHICAL_SCOPE);
         int updateNumber = cursor.getInt(COLUMN_V1_SERIAL_NUMBER);
         int messageCode = cursor.getInt(COLUMN_V1_MESSAGE_CODE);
@@ -176,149 +152,37 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper {
         long deliveryTime = cursor.getLong(COLUMN_V1_DELIVERY_TIME);
         boolean isRead = (cursor.getInt(COLUMN_V1_MESSAGE_READ) != 0);
 
-        int serialNumber = ((geographicalScope & 0x03) << 14)
-                | ((messageCode & 0x3ff) << 4) | (updateNumber & 0x0f);
+        upgrade.upgrade(geographicalScope, updateNumber, messageCode, messageId);
 
         ContentValues cv = new ContentValues(16);
         cv.put(Telephony.CellBroadcasts.GEOGRAPHICAL_SCOPE, geographicalScope);
-        cv.put(Telephony.CellBroadcasts.SERIAL_NUMBER, serialNumber);
+        cv.put(Telephony.CellBroadcasts.SERIAL_NUMBER, upgrade.mSerialNumber);
         cv.put(Telephony.CellBroadcasts.SERVICE_CATEGORY, messageId);
         cv.put(Telephony.CellBroadcasts.LANGUAGE_CODE, languageCode);
         cv.put(Telephony.CellBroadcasts.MESSAGE_BODY, messageBody);
         cv.put(Telephony.CellBroadcasts.DELIVERY_TIME, deliveryTime);
         cv.put(Telephony.CellBroadcasts.MESSAGE_READ, isRead);
         cv.put(Telephony.CellBroadcasts.MESSAGE_FORMAT, SmsCbMessage.MESSAGE_FORMAT_3GPP);
+        cv.put(Telephony.CellBroadcasts.MESSAGE_PRIORITY, upgrade.mMessagePriority);
 
-        int etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_UNKNOWN;
-        int cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_UNKNOWN;
-        int cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_UNKNOWN;
-        int cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_UNKNOWN;
-        int cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_UNKNOWN;
-        switch (messageId) {
-            case SmsCbConstants.MESSAGE_ID_ETWS_EARTHQUAKE_WARNING:
-                etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_ETWS_TSUNAMI_WARNING:
-                etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_TSUNAMI;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_ETWS_EARTHQUAKE_AND_TSUNAMI_WARNING:
-                etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_ETWS_TEST_MESSAGE:
-                etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_TEST_MESSAGE;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_ETWS_OTHER_EMERGENCY_TYPE:
-                etwsWarningType = SmsCbEtwsInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_EXTREME;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_IMMEDIATE;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_OBSERVED;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_LIKELY:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_EXTREME;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_IMMEDIATE;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_LIKELY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_OBSERVED:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_EXTREME;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_EXPECTED;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_OBSERVED;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_LIKELY:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_EXTREME;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_EXPECTED;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_LIKELY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_OBSERVED:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_SEVERE;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_IMMEDIATE;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_OBSERVED;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_LIKELY:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_SEVERE;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_IMMEDIATE;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_LIKELY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_OBSERVED:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_SEVERE;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_EXPECTED;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_OBSERVED;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_LIKELY:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT;
-                cmasSeverity = SmsCbCmasInfo.CMAS_SEVERITY_SEVERE;
-                cmasUrgency = SmsCbCmasInfo.CMAS_URGENCY_EXPECTED;
-                cmasCertainty = SmsCbCmasInfo.CMAS_CERTAINTY_LIKELY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_CHILD_ABDUCTION_EMERGENCY:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_REQUIRED_MONTHLY_TEST:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXERCISE:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE;
-                break;
-
-            case SmsCbConstants.MESSAGE_ID_CMAS_ALERT_OPERATOR_DEFINED_USE:
-                cmasMessageClass = SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE;
-                break;
-        }
-
-        if (etwsWarningType != SmsCbEtwsInfo.ETWS_WARNING_TYPE_UNKNOWN
-                || cmasMessageClass != SmsCbCmasInfo.CMAS_CLASS_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.MESSAGE_PRIORITY,
-                    SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY);
-        } else {
-            cv.put(Telephony.CellBroadcasts.MESSAGE_PRIORITY,
-                    SmsCbMessage.MESSAGE_PRIORITY_NORMAL);
-        }
-
-        if (etwsWarningType != SmsCbEtwsInfo.ETWS_WARNING_TYPE_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.ETWS_WARNING_TYPE, etwsWarningType);
+        if (upgrade.mEtwsWarningType != MessageV1Upgrade.UNKNOWN) {
+            cv.put(Telephony.CellBroadcasts.ETWS_WARNING_TYPE, upgrade.mEtwsWarningType);
         }
 
-        if (cmasMessageClass != SmsCbCmasInfo.CMAS_CLASS_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.CMAS_MESSAGE_CLASS, cmasMessageClass);
+        if (upgrade.mCmasMessageClass != MessageV1Upgrade.UNKNOWN) {
+            cv.put(Telephony.CellBroadcasts.CMAS_MESSAGE_CLASS, upgrade.mCmasMessageClass);
         }
 
-        if (cmasSeverity != SmsCbCmasInfo.CMAS_SEVERITY_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.CMAS_SEVERITY, cmasSeverity);
+        if (upgrade.mCmasSeverity != MessageV1Upgrade.UNKNOWN) {
+            cv.put(Telephony.CellBroadcasts.CMAS_SEVERITY, upgrade.mCmasSeverity);
         }
 
-        if (cmasUrgency != SmsCbCmasInfo.CMAS_URGENCY_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.CMAS_URGENCY, cmasUrgency);
+        if (upgrade.mCmasUrgency != MessageV1Upgrade.UNKNOWN) {
+            cv.put(Telephony.CellBroadcasts.CMAS_URGENCY, upgrade.mCmasUrgency);
         }
 
-        if (cmasCertainty != SmsCbCmasInfo.CMAS_CERTAINTY_UNKNOWN) {
-            cv.put(Telephony.CellBroadcasts.CMAS_CERTAINTY, cmasCertainty);
+        if (upgrade.mCmasCertainty != MessageV1Upgrade.UNKNOWN) {
+            cv.put(Telephony.CellBroadcasts.CMAS_CERTAINTY, upgrade.mCmasCertainty);
         }
 
         db.insert(TABLE_NAME, null, cv);
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.os.SystemClock;
+import android.text.format.DateFormat;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counters and a ring of the last {@link #RING_SIZE} intake events, for dumpsys. This is the
+ * intake log: each record is a handful of primitives, and is only formatted when dumped, so
+ * the intake path does not build log strings. Recording an event takes no lock and allocates
+ * nothing: a writer claims a slot with an atomic increment and fills in primitive fields. A
+ * dump that races with a writer may print a slot that is only partly written, which is
+ * acceptable for diagnostics.
+ */
+class CellBroadcastEventLog {
+
+    /** What happened to a broadcast; the decision code of a record. */
+    enum Event {
+        /** Received by the alert service. */
+        RECEIVED,
+        /** Dropped because the user or carrier disabled its channel. */
+        FILTERED,
+        /** Dropped by duplicate detection. */
+        DUPLICATE,
+        /** Written to the database. */
+        INSERTED,
+        /** Could not be written to the database, and kept in memory only. */
+        INSERT_FAILED,
+        /** Shown as a full screen emergency alert. */
+        DISPLAYED,
+        /** Added to the non-emergency notification. */
+        NOTIFIED
+    }
+
+    /** Number of events kept; a power of two. */
+    static final int RING_SIZE = 64;
+
+    private static final Event[] EVENTS = Event.values();
+
+    private static final AtomicIntegerArray sCounters = new AtomicIntegerArray(EVENTS.length);
+
+    /** Total number of events recorded; the next slot is this modulo {@link #RING_SIZE}. */
+    private static final AtomicInteger sNextSlot = new AtomicInteger();
+
+    private static final long[] sTimes = new long[RING_SIZE];
+    private static final long[] sWallTimes = new long[RING_SIZE];
+    private static final int[] sEvents = new int[RING_SIZE];
+    private static final int[] sSubIds = new int[RING_SIZE];
+    private static final int[] sServiceCategories = new int[RING_SIZE];
+    private static final int[] sSerialNumbers = new int[RING_SIZE];
+    private static final int[] sTraceIds = new int[RING_SIZE];
+
+    private CellBroadcastEventLog() {}
+
+    /**
+     * Record an event.
+     * @param event what happened
+     * @param subId the subscription the broadcast was received on
+     * @param serviceCategory the service category (message identifier) of the broadcast
+     * @param serialNumber the serial number of the broadcast
+     * @param traceId the trace ID of the broadcast, or {@link CellBroadcastAlertTrace#NO_TRACE}
+     */
+    static void record(Event event, int subId, int serviceCategory, int serialNumber,
+            int traceId) {
+        sCounters.incrementAndGet(event.ordinal());
+        int slot = sNextSlot.getAndIncrement() & (RING_SIZE - 1);
+        sTimes[slot] = SystemClock.elapsedRealtime();
+        sWallTimes[slot] = System.currentTimeMillis();
+        sEvents[slot] = event.ordinal();
+        sSubIds[slot] = subId;
+        sServiceCategories[slot] = serviceCategory;
+        sSerialNumbers[slot] = serialNumber;
+        sTraceIds[slot] = traceId;
+    }
+
+    /** Returns the number of times an event was recorded. */
+    static int getCount(Event event) {
+        return sCounters.get(event.ordinal());
+    }
+
+    /** Print the counters and the recorded events, newest first. */
+    static void dump(PrintWriter pw) {
+        pw.print("Intake counters:");
+        for (Event event : EVENTS) {
+            pw.print(" " + event + "=" + sCounters.get(event.ordinal()));
+        }
+        pw.println();
+
+        int next = sNextSlot.get();
+        int count = Math.min(next, RING_SIZE);
+        long now = SystemClock.elapsedRealtime();
+        pw.println("Last " + count + " intake events:");
+        for (int i = 1; i <= count; i++) {
+            int slot = (next - i) & (RING_SIZE - 1);
+            pw.println("  " + DateFormat.format("MM-dd HH:mm:ss", sWallTimes[slot])
+                    + " (-" + (now - sTimes[slot]) + "ms) " + EVENTS[sEvents[slot]]
+                    + " sub=" + sSubIds[slot]
+                    + " category=" + sServiceCategories[slot]
+                    + " serial=" + sSerialNumbers[slot]
+                    + " trace=" + sTraceIds[slot]);
+        }
+    }
+}
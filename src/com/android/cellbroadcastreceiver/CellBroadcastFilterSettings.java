@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.telephony.CarrierConfigManager;
+
+import com.android.cellbroadcastreceiver.intake.IntakeFilter;
+
+/**
+ * The user preferences and carrier config that {@link IntakeFilter} reads. In the unlikely event
+ * that the default shared preference values were not initialized in CellBroadcastReceiverApp,
+ * the defaults here match the default values in res/xml/preferences.xml.
+ */
+class CellBroadcastFilterSettings implements IntakeFilter.Settings {
+    private static final String COUNTRY_BRAZIL = "br";
+    private static final String COUNTRY_INDIA = "in";
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    CellBroadcastFilterSettings(Context context) {
+        mContext = context;
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    @Override
+    public boolean isEmergencyAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_EMERGENCY_ALERTS, true);
+    }
+
+    @Override
+    public boolean isEtwsCmasTestForceDisabled() {
+        return CellBroadcastSettings.isFeatureEnabled(mContext,
+                CarrierConfigManager.KEY_CARRIER_FORCE_DISABLE_ETWS_CMAS_TEST_BOOL, false);
+    }
+
+    @Override
+    public boolean isEtwsTestAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_ETWS_TEST_ALERTS, false);
+    }
+
+    @Override
+    public boolean isCmasExtremeAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_EXTREME_THREAT_ALERTS, true);
+    }
+
+    @Override
+    public boolean isCmasSevereAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_SEVERE_THREAT_ALERTS, true);
+    }
+
+    @Override
+    public boolean isCmasAmberAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_AMBER_ALERTS, true);
+    }
+
+    @Override
+    public boolean isCmasTestAlertsEnabled() {
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CMAS_TEST_ALERTS, false);
+    }
+
+    /** Area info on channel 50 is shown in Settings instead in Brazil and India. */
+    @Override
+    public boolean isChannel50AlertEnabled(int subId) {
+        String country = CellBroadcastTelephonyCache.getInstance(mContext).getSimCountryIso(subId);
+        return !(COUNTRY_BRAZIL.equals(country) || COUNTRY_INDIA.equals(country));
+    }
+
+    @Override
+    public boolean isChannel60AlertEnabled(int subId) {
+        CellBroadcastTelephonyCache telephonyCache =
+                CellBroadcastTelephonyCache.getInstance(mContext);
+        String country = telephonyCache.getSimCountryIso(subId);
+
+        boolean enable60Channel = telephonyCache.getResourcesForSubId(subId)
+                .getBoolean(R.bool.show_india_settings) || COUNTRY_INDIA.equals(country);
+
+        return mPrefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CHANNEL_60_ALERTS,
+                enable60Channel);
+    }
+}
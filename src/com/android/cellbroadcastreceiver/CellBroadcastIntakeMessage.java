@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbEtwsInfo;
+import android.telephony.SmsCbLocation;
+
+import com.android.cellbroadcastreceiver.intake.BroadcastInfo;
+
+/** A {@link CellBroadcastMessage} as seen by the intake decisions. */
+class CellBroadcastIntakeMessage implements BroadcastInfo {
+    private final CellBroadcastMessage mMessage;
+    private final SmsCbLocation mLocation;
+
+    /**
+     * @param message the broadcast
+     * @param location the location of the broadcast, needed for duplicate detection only
+     */
+    CellBroadcastIntakeMessage(CellBroadcastMessage message, SmsCbLocation location) {
+        mMessage = message;
+        mLocation = location;
+    }
+
+    CellBroadcastIntakeMessage(CellBroadcastMessage message) {
+        this(message, null);
+    }
+
+    @Override
+    public int getSubId() {
+        return mMessage.getSubId();
+    }
+
+    @Override
+    public int getServiceCategory() {
+        return mMessage.getServiceCategory();
+    }
+
+    @Override
+    public int getSerialNumber() {
+        return mMessage.getSerialNumber();
+    }
+
+    @Override
+    public Object getLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public String getMessageBody() {
+        return mMessage.getMessageBody();
+    }
+
+    @Override
+    public boolean isEmergencyAlertMessage() {
+        return mMessage.isEmergencyAlertMessage();
+    }
+
+    @Override
+    public boolean isEtwsMessage() {
+        return mMessage.isEtwsMessage();
+    }
+
+    @Override
+    public Object getEtwsWarningInfo() {
+        return mMessage.getEtwsWarningInfo();
+    }
+
+    @Override
+    public boolean isEtwsPrimary() {
+        SmsCbEtwsInfo etwsInfo = mMessage.getEtwsWarningInfo();
+        return etwsInfo != null && etwsInfo.isPrimary();
+    }
+
+    @Override
+    public int getEtwsWarningType() {
+        SmsCbEtwsInfo etwsInfo = mMessage.getEtwsWarningInfo();
+        return etwsInfo != null ? etwsInfo.getWarningType() : ETWS_WARNING_TYPE_UNKNOWN;
+    }
+
+    @Override
+    public boolean isCmasMessage() {
+        return mMessage.isCmasMessage();
+    }
+
+    @Override
+    public int getCmasMessageClass() {
+        return mMessage.getCmasMessageClass();
+    }
+}
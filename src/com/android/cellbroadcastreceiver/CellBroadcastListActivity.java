@@ -22,18 +22,27 @@ import android.app.FragmentManager;
 import android.app.ListFragment;
 import android.app.LoaderManager;
 import android.app.NotificationManager;
+import android.app.ProgressDialog;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Telephony;
 import android.telephony.CellBroadcastMessage;
+import android.view.ActionMode;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -43,10 +52,12 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This activity provides a list view of received cell broadcasts. Most of the work is handled
@@ -57,6 +68,7 @@ public class CellBroadcastListActivity extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        CellBroadcastReceiverApp.traceEntryPoint("list activity");
 
         // Dismiss the notification that brought us here (if any).
         ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE))
@@ -80,13 +92,83 @@ public class CellBroadcastListActivity extends Activity {
         // IDs of the main menu items.
         private static final int MENU_DELETE_ALL           = 3;
         private static final int MENU_PREFERENCES          = 4;
+        private static final int MENU_SELECT               = 5;
 
         // IDs of the context menu items (package local, accessed from inner DeleteThreadListener).
         static final int MENU_DELETE               = 0;
         static final int MENU_VIEW_DETAILS         = 1;
 
+        /** Number of rows loaded per page. */
+        private static final int PAGE_SIZE = 500;
+
+        /**
+         * Load the next page when the last visible row is this close to the end of the
+         * loaded rows, so that off-screen rows are already in the cursor window.
+         */
+        private static final int PREFETCH_DISTANCE = 100;
+
+        /** Rows are ordered by delivery time, then by row ID for rows delivered together. */
+        private static final String SORT_ORDER = Telephony.CellBroadcasts.DELIVERY_TIME
+                + " DESC, " + Telephony.CellBroadcasts._ID + " DESC";
+
+        /** Selection of the rows after a (delivery time, row ID) key in list order. */
+        private static final String SELECTION_AFTER_KEY = "("
+                + Telephony.CellBroadcasts.DELIVERY_TIME + "<? OR ("
+                + Telephony.CellBroadcasts.DELIVERY_TIME + "=? AND "
+                + Telephony.CellBroadcasts._ID + "<?))";
+
+        /** Selection of the rows up to and including a key in list order. */
+        private static final String SELECTION_UP_TO_KEY = "("
+                + Telephony.CellBroadcasts.DELIVERY_TIME + ">? OR ("
+                + Telephony.CellBroadcasts.DELIVERY_TIME + "=? AND "
+                + Telephony.CellBroadcasts._ID + ">=?))";
+
+        /** Saved instance state keys for the keys of the last row of each full page. */
+        private static final String KEY_PAGE_END_TIMES = "page_end_times";
+        private static final String KEY_PAGE_END_IDS = "page_end_ids";
+
         // This is the Adapter being used to display the list's data.
-        CursorAdapter mAdapter;
+        CellBroadcastCursorAdapter mAdapter;
+
+        /**
+         * Delivery time and row ID of the last row of each page but the last. Page N has the
+         * rows after the end of page N - 1 up to its own end; the last page has up to
+         * {@link #PAGE_SIZE} rows after the end of the page before it. Each page is read
+         * once. Page loaders do not reload on their own; {@link #mBroadcastsObserver} reloads
+         * only the page that a changed row falls into.
+         */
+        private long[] mPageEndTimes = new long[0];
+        private long[] mPageEndIds = new long[0];
+
+        /** Loaded cursor of each page, by loader ID, or null until loaded. */
+        private final ArrayList<Cursor> mPages = new ArrayList<>();
+
+        /** True while the next page is being loaded. */
+        private boolean mLoadingNextPage;
+
+        /**
+         * Reloads the page holding a changed broadcast. The provider notifies the row URI for
+         * changes to a single broadcast, and {@link CellBroadcastContentProvider#CONTENT_URI}
+         * for bulk changes, which start over from the first page.
+         */
+        private final ContentObserver mBroadcastsObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                if (uri == null || uri.getPathSegments().size() != 1) {
+                    resetPages();
+                } else {
+                    reloadPageOf(ContentUris.parseId(uri));
+                }
+            }
+        };
+
+        /** Action mode for selecting broadcasts to delete, or null when not selecting. */
+        private ActionMode mSelectionMode;
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -109,20 +191,59 @@ public class CellBroadcastListActivity extends Activity {
             // Set context menu for long-press.
             ListView listView = getListView();
             listView.setOnCreateContextMenuListener(mOnCreateContextMenuListener);
+            listView.setOnScrollListener(mOnScrollListener);
+
+            if (savedInstanceState != null
+                    && savedInstanceState.getLongArray(KEY_PAGE_END_TIMES) != null) {
+                mPageEndTimes = savedInstanceState.getLongArray(KEY_PAGE_END_TIMES);
+                mPageEndIds = savedInstanceState.getLongArray(KEY_PAGE_END_IDS);
+            }
 
             // Create a cursor adapter to display the loaded data.
             mAdapter = new CellBroadcastCursorAdapter(getActivity(), null);
             setListAdapter(mAdapter);
 
-            // Prepare the loader.  Either re-connect with an existing one,
-            // or start a new one.
-            getLoaderManager().initLoader(0, null, this);
+            // Rebind rows with freshly formatted dates on locale, time zone or format changes.
+            mAdapter.getRowCache().register(new Runnable() {
+                @Override
+                public void run() {
+                    mAdapter.notifyDataSetChanged();
+                }
+            });
+
+            // Prepare one loader per page.  Either re-connect with existing ones,
+            // or start new ones.
+            for (int page = 0; page <= mPageEndTimes.length; page++) {
+                mPages.add(null);
+                getLoaderManager().initLoader(page, null, this);
+            }
+
+            getActivity().getContentResolver().registerContentObserver(
+                    CellBroadcastContentProvider.CONTENT_URI, true, mBroadcastsObserver);
+        }
+
+        @Override
+        public void onDestroy() {
+            if (mAdapter != null) {
+                mAdapter.getRowCache().unregister();
+                getActivity().getContentResolver().unregisterContentObserver(
+                        mBroadcastsObserver);
+            }
+            super.onDestroy();
+        }
+
+        @Override
+        public void onSaveInstanceState(Bundle outState) {
+            super.onSaveInstanceState(outState);
+            outState.putLongArray(KEY_PAGE_END_TIMES, mPageEndTimes);
+            outState.putLongArray(KEY_PAGE_END_IDS, mPageEndIds);
         }
 
         @Override
         public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
             menu.add(0, MENU_DELETE_ALL, 0, R.string.menu_delete_all).setIcon(
                     android.R.drawable.ic_menu_delete);
+            menu.add(0, MENU_SELECT, 0, R.string.menu_select);
             if (UserManager.get(getActivity()).isAdminUser()) {
                 menu.add(0, MENU_PREFERENCES, 0, R.string.menu_preferences).setIcon(
                         android.R.drawable.ic_menu_preferences);
@@ -132,43 +253,325 @@ public class CellBroadcastListActivity extends Activity {
         @Override
         public void onPrepareOptionsMenu(Menu menu) {
             menu.findItem(MENU_DELETE_ALL).setVisible(!mAdapter.isEmpty());
+            menu.findItem(MENU_SELECT).setVisible(!mAdapter.isEmpty());
         }
 
         @Override
         public void onListItemClick(ListView l, View v, int position, long id) {
-            CellBroadcastListItem cbli = (CellBroadcastListItem) v;
-            showDialogAndMarkRead(cbli.getMessage());
+            if (mSelectionMode != null) {
+                // The list view toggled the checked state; just update the count.
+                updateSelectionTitle();
+                return;
+            }
+            // Rows are bound without parsing the full message; build it only when opened.
+            Cursor cursor = (Cursor) mAdapter.getItem(position);
+            if (cursor != null) {
+                showDialogAndMarkRead(id, CellBroadcastMessage.createFromCursor(cursor));
+            }
         }
 
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-            return new CursorLoader(getActivity(), CellBroadcastContentProvider.CONTENT_URI,
-                    Telephony.CellBroadcasts.QUERY_COLUMNS, null, null,
-                    Telephony.CellBroadcasts.DELIVERY_TIME + " DESC");
+            // The loader ID is the page number. Each cursor is filled on the loader thread,
+            // so large archives never block the UI thread.
+            PageLoader loader = new PageLoader(getActivity());
+            setPageQuery(loader, id);
+            return loader;
+        }
+
+        /**
+         * Loader for one page. It ignores change notifications on its cursor, which cover all
+         * broadcasts, and reloads only when the fragment finds that the page changed.
+         */
+        private static class PageLoader extends CursorLoader {
+            PageLoader(Context context) {
+                super(context, CellBroadcastContentProvider.CONTENT_URI,
+                        Telephony.CellBroadcasts.QUERY_COLUMNS, null, null, SORT_ORDER);
+            }
+
+            @Override
+            public void onContentChanged() {
+                // Changes are dispatched to the affected page by mBroadcastsObserver.
+            }
+
+            /** Reload the page now, or when the loader is started again. */
+            void reload() {
+                super.onContentChanged();
+            }
+        }
+
+        /** Reload a page, if its loader exists. */
+        private void reloadPage(int page) {
+            PageLoader loader = (PageLoader) getLoaderManager().<Cursor>getLoader(page);
+            if (loader != null) {
+                loader.reload();
+            }
+        }
+
+        /**
+         * Reload the page holding a broadcast. A broadcast that is not in a loaded page, e.g.
+         * a new one, is looked up to find the page its sort key falls into.
+         * @param rowId the row ID of the changed broadcast
+         */
+        private void reloadPageOf(long rowId) {
+            for (int page = 0; page < mPages.size(); page++) {
+                Cursor c = mPages.get(page);
+                if (c == null) {
+                    continue;
+                }
+                int idColumn = c.getColumnIndexOrThrow(Telephony.CellBroadcasts._ID);
+                for (boolean more = c.moveToFirst(); more; more = c.moveToNext()) {
+                    if (c.getLong(idColumn) == rowId) {
+                        reloadPage(page);
+                        return;
+                    }
+                }
+            }
+            new FindPageTask(getActivity().getContentResolver(), rowId)
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        /** Looks up the delivery time of a broadcast and reloads the page it falls into. */
+        private class FindPageTask extends AsyncTask<Void, Void, Long> {
+            private final ContentResolver mContentResolver;
+            private final long mRowId;
+
+            FindPageTask(ContentResolver contentResolver, long rowId) {
+                mContentResolver = contentResolver;
+                mRowId = rowId;
+            }
+
+            @Override
+            protected Long doInBackground(Void... params) {
+                Cursor c = mContentResolver.query(
+                        ContentUris.withAppendedId(CellBroadcastContentProvider.CONTENT_URI,
+                                mRowId),
+                        new String[] {Telephony.CellBroadcasts.DELIVERY_TIME}, null, null, null);
+                if (c == null) {
+                    return null;
+                }
+                try {
+                    return c.moveToFirst() ? c.getLong(0) : null;
+                } finally {
+                    c.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Long deliveryTime) {
+                if (deliveryTime == null || !isAdded()) {
+                    return;     // deleted again, or the list is gone
+                }
+                // Pages are in list order: the row belongs to the first page ending after it.
+                int page = 0;
+                while (page < mPageEndTimes.length && (deliveryTime < mPageEndTimes[page]
+                        || (deliveryTime == mPageEndTimes[page] && mRowId < mPageEndIds[page]))) {
+                    page++;
+                }
+                reloadPage(page);
+            }
+        }
+
+        /**
+         * Drop all pages but the first and reload it, after a change that may affect any
+         * number of pages.
+         */
+        private void resetPages() {
+            LoaderManager loaderManager = getLoaderManager();
+            // Destroy the last page first, so the merged pages shown never include a closed one.
+            for (int page = mPageEndTimes.length; page > 0; page--) {
+                loaderManager.destroyLoader(page);
+            }
+            while (mPages.size() > 1) {
+                mPages.remove(mPages.size() - 1);
+            }
+            mPageEndTimes = new long[0];
+            mPageEndIds = new long[0];
+            mLoadingNextPage = false;
+
+            PageLoader loader = (PageLoader) loaderManager.<Cursor>getLoader(0);
+            if (loader != null) {
+                setPageQuery(loader, 0);
+                loader.reload();
+            }
+        }
+
+        /**
+         * Set the query of a page loader from the page ends. The query is used from the next
+         * load on, so ending a page that is already loaded does not read it again.
+         */
+        private void setPageQuery(CursorLoader loader, int page) {
+            StringBuilder selection = new StringBuilder();
+            ArrayList<String> selectionArgs = new ArrayList<>();
+            if (page > 0) {
+                selection.append(SELECTION_AFTER_KEY);
+                addKeyArgs(selectionArgs, page - 1);
+            }
+            Uri uri = CellBroadcastContentProvider.CONTENT_URI;
+            if (page < mPageEndTimes.length) {
+                if (selection.length() != 0) {
+                    selection.append(" AND ");
+                }
+                selection.append(SELECTION_UP_TO_KEY);
+                addKeyArgs(selectionArgs, page);
+            } else {
+                uri = uri.buildUpon()
+                        .appendQueryParameter(CellBroadcastContentProvider.QUERY_PARAMETER_LIMIT,
+                                Integer.toString(PAGE_SIZE))
+                        .build();
+            }
+            loader.setUri(uri);
+            loader.setSelection(selection.length() != 0 ? selection.toString() : null);
+            loader.setSelectionArgs(selectionArgs.toArray(new String[selectionArgs.size()]));
+        }
+
+        private void addKeyArgs(ArrayList<String> selectionArgs, int page) {
+            String time = Long.toString(mPageEndTimes[page]);
+            selectionArgs.add(time);
+            selectionArgs.add(time);
+            selectionArgs.add(Long.toString(mPageEndIds[page]));
         }
 
         @Override
         public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            // Swap the new cursor in.  (The framework will take care of closing the
-            // old cursor once we return.)
-            mAdapter.swapCursor(data);
+            // Swap in the pages merged with the new one.  (The framework will take care of
+            // closing the old page cursor once we return.) Rows are keyed by _id with stable
+            // IDs, so visible rows whose content did not change are not rebound.
+            int page = loader.getId();
+            mPages.set(page, data);
+            if (page == mPageEndTimes.length) {
+                mLoadingNextPage = false;
+            }
+            swapMergedPages();
             getActivity().invalidateOptionsMenu();
         }
 
+        /** Show the loaded pages, up to the first one that is still loading. */
+        private void swapMergedPages() {
+            int count = 0;
+            while (count < mPages.size() && mPages.get(count) != null) {
+                count++;
+            }
+            if (count == 0) {
+                mAdapter.swapCursor(null);
+            } else if (count == 1) {
+                mAdapter.swapCursor(mPages.get(0));
+            } else {
+                // Only the merge is swapped out; the page cursors are owned by their loaders.
+                mAdapter.swapCursor(new MergeCursor(
+                        mPages.subList(0, count).toArray(new Cursor[count])));
+            }
+        }
+
+        /**
+         * End the last page at its last row, and start loading the rows after it as a new
+         * page.
+         */
+        private void loadNextPage() {
+            Cursor lastPage = mPages.get(mPageEndTimes.length);
+            if (lastPage == null || lastPage.getCount() < PAGE_SIZE || !lastPage.moveToLast()) {
+                // Still loading, or all rows are already loaded.
+                return;
+            }
+            int ended = mPageEndTimes.length;
+            mPageEndTimes = Arrays.copyOf(mPageEndTimes, ended + 1);
+            mPageEndIds = Arrays.copyOf(mPageEndIds, ended + 1);
+            mPageEndTimes[ended] = lastPage.getLong(
+                    lastPage.getColumnIndexOrThrow(Telephony.CellBroadcasts.DELIVERY_TIME));
+            mPageEndIds[ended] = lastPage.getLong(
+                    lastPage.getColumnIndexOrThrow(Telephony.CellBroadcasts._ID));
+
+            LoaderManager loaderManager = getLoaderManager();
+            setPageQuery((CursorLoader) loaderManager.<Cursor>getLoader(ended), ended);
+            mLoadingNextPage = true;
+            mPages.add(null);
+            loaderManager.initLoader(ended + 1, null, this);
+        }
+
+        /** Loads the next page of broadcasts when the user scrolls near the end of the list. */
+        private final OnScrollListener mOnScrollListener = new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (mLoadingNextPage) {
+                    return;
+                }
+                if (firstVisibleItem + visibleItemCount + PREFETCH_DISTANCE >= totalItemCount) {
+                    loadNextPage();
+                }
+            }
+        };
+
         @Override
         public void onLoaderReset(Loader<Cursor> loader) {
             // This is called when the last Cursor provided to onLoadFinished()
             // above is about to be closed.  We need to make sure we are no
             // longer using it.
-            mAdapter.swapCursor(null);
+            mPages.set(loader.getId(), null);
+            swapMergedPages();
+        }
+
+        /** Switch the list to multiple choice mode for selecting broadcasts to delete. */
+        private void startSelectionMode() {
+            getListView().setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+            mSelectionMode = getActivity().startActionMode(mSelectionModeCallback);
+            updateSelectionTitle();
+        }
+
+        private void updateSelectionTitle() {
+            mSelectionMode.setTitle(getString(R.string.selected_count,
+                    getListView().getCheckedItemCount()));
         }
 
-        private void showDialogAndMarkRead(CellBroadcastMessage cbm) {
-            // show emergency alerts with the warning icon, but don't play alert tone
-            Intent i = new Intent(getActivity(), CellBroadcastAlertDialog.class);
-            ArrayList<CellBroadcastMessage> messageList = new ArrayList<CellBroadcastMessage>(1);
-            messageList.add(cbm);
-            i.putParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, messageList);
+        private final ActionMode.Callback mSelectionModeCallback = new ActionMode.Callback() {
+            @Override
+            public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+                menu.add(0, MENU_DELETE, 0, R.string.menu_delete).setIcon(
+                        android.R.drawable.ic_menu_delete)
+                        .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+                return true;
+            }
+
+            @Override
+            public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+                return false;
+            }
+
+            @Override
+            public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+                if (item.getItemId() == MENU_DELETE) {
+                    // Row IDs are the adapter's stable item IDs.
+                    long[] rowIds = getListView().getCheckedItemIds();
+                    if (rowIds.length > 0) {
+                        confirmDeleteSelected(rowIds);
+                    }
+                    mode.finish();
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void onDestroyActionMode(ActionMode mode) {
+                ListView listView = getListView();
+                listView.clearChoices();
+                listView.setChoiceMode(ListView.CHOICE_MODE_NONE);
+                // Redraw rows without the checked state.
+                listView.requestLayout();
+                mSelectionMode = null;
+            }
+        };
+
+        private void showDialogAndMarkRead(long rowId, CellBroadcastMessage cbm) {
+            // show emergency alerts with the warning icon, but don't play alert tone.
+            // The dialog finds the message already parsed in the cache.
+            CellBroadcastMessageCache.put(rowId, cbm);
+            Intent i = CellBroadcastAlertService.createDisplayMessageIntent(getActivity(),
+                    CellBroadcastAlertDialog.class, new long[] {rowId});
             startActivity(i);
         }
 
@@ -221,6 +624,10 @@ public class CellBroadcastListActivity extends Activity {
                     confirmDeleteThread(-1);
                     break;
 
+                case MENU_SELECT:
+                    startSelectionMode();
+                    break;
+
                 case MENU_PREFERENCES:
                     Intent intent = new Intent(getActivity(), CellBroadcastSettings.class);
                     startActivity(intent);
@@ -261,6 +668,26 @@ public class CellBroadcastListActivity extends Activity {
                     .show();
         }
 
+        /**
+         * Put up a dialog to confirm deleting the selected broadcasts.
+         * @param rowIds the row IDs of the broadcasts to delete
+         */
+        private void confirmDeleteSelected(final long[] rowIds) {
+            new AlertDialog.Builder(getActivity())
+                    .setIconAttribute(android.R.attr.alertDialogIcon)
+                    .setCancelable(true)
+                    .setPositiveButton(R.string.button_delete, new OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int whichButton) {
+                            new DeleteBroadcastsTask(getActivity(), rowIds).execute();
+                            dialog.dismiss();
+                        }
+                    })
+                    .setNegativeButton(R.string.button_cancel, null)
+                    .setMessage(R.string.confirm_delete_selected_broadcasts)
+                    .show();
+        }
+
         public class DeleteThreadListener implements OnClickListener {
             private final long mRowId;
 
@@ -270,17 +697,20 @@ public class CellBroadcastListActivity extends Activity {
 
             @Override
             public void onClick(DialogInterface dialog, int whichButton) {
+                if (mRowId == -1) {
+                    // may be a large archive: delete in chunks and show progress
+                    new DeleteBroadcastsTask(getActivity(), null).execute();
+                    dialog.dismiss();
+                    return;
+                }
+
                 // delete from database on a background thread
                 new CellBroadcastContentProvider.AsyncCellBroadcastTask(
                         getActivity().getContentResolver()).execute(
                         new CellBroadcastContentProvider.CellBroadcastOperation() {
                             @Override
                             public boolean execute(CellBroadcastContentProvider provider) {
-                                if (mRowId != -1) {
-                                    return provider.deleteBroadcast(mRowId);
-                                } else {
-                                    return provider.deleteAllBroadcasts();
-                                }
+                                return provider.deleteBroadcast(mRowId);
                             }
                         });
 
@@ -288,4 +718,71 @@ public class CellBroadcastListActivity extends Activity {
             }
         }
     }
+
+    /**
+     * Deletes broadcasts on a background thread in chunks, showing a progress dialog. Observers
+     * are notified once, after the last chunk, so the list reloads only when the delete is done.
+     */
+    private static class DeleteBroadcastsTask extends AsyncTask<Void, Integer, Void>
+            implements CellBroadcastContentProvider.DeleteProgressListener {
+        private final ContentResolver mContentResolver;
+        private final long[] mRowIds;
+        private final ProgressDialog mProgressDialog;
+
+        /**
+         * @param context the activity to show the progress dialog in
+         * @param rowIds the row IDs of the broadcasts to delete, or null to delete all
+         */
+        DeleteBroadcastsTask(Context context, long[] rowIds) {
+            mContentResolver = context.getContentResolver();
+            mRowIds = rowIds;
+            mProgressDialog = new ProgressDialog(context);
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setMessage(context.getString(R.string.deleting_broadcasts));
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.setProgressNumberFormat(null);
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            CellBroadcastContentProvider.executeOperation(mContentResolver,
+                    new CellBroadcastContentProvider.CellBroadcastOperation() {
+                        @Override
+                        public boolean execute(CellBroadcastContentProvider provider) {
+                            if (mRowIds != null) {
+                                return provider.deleteBroadcasts(mRowIds,
+                                        DeleteBroadcastsTask.this);
+                            } else {
+                                return provider.deleteAllBroadcasts(DeleteBroadcastsTask.this);
+                            }
+                        }
+                    });
+            return null;
+        }
+
+        @Override
+        public void onProgress(int processed, int total) {
+            publishProgress(processed, total);
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setMax(values[1]);
+            mProgressDialog.setProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            // The activity may have gone away while deleting.
+            if (mProgressDialog.isShowing()
+                    && mProgressDialog.getWindow().getDecorView().isAttachedToWindow()) {
+                mProgressDialog.dismiss();
+            }
+        }
+    }
 }
@@ -17,9 +17,12 @@
 package com.android.cellbroadcastreceiver;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbMessage;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.style.StyleSpan;
@@ -29,7 +32,9 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 /**
- * This class manages the list item view for a single alert.
+ * This class manages the list item view for a single alert. The view doubles as its own
+ * view holder: it keeps the row values it displays as primitives and reuses its background
+ * drawables, typefaces and body text buffer across binds.
  */
 public class CellBroadcastListItem extends RelativeLayout {
 
@@ -40,6 +45,27 @@ public class CellBroadcastListItem extends RelativeLayout {
     private TextView mDateView;
     private Context mContext;
 
+    /** Row ID of the bound broadcast, or -1 if bound to a message instead of a cursor row. */
+    private long mRowId = -1;
+    private boolean mRead;
+
+    /** Cached presentation values of the bound row (null when bound to a message). */
+    private CellBroadcastRowCache.RowInfo mRowInfo;
+
+    /** Row cache generation the view was bound with. */
+    private int mRowCacheGeneration;
+
+    /** Lazily loaded backgrounds, one pair per view so the drawables are never shared. */
+    private Drawable mReadBackground;
+    private Drawable mUnreadBackground;
+
+    /** Typefaces for read (normal) and unread (bold) message bodies. */
+    private Typeface mNormalTypeface;
+    private Typeface mBoldTypeface;
+
+    /** Reused buffer for copying the message body out of the cursor window. */
+    private final CharArrayBuffer mBodyBuffer = new CharArrayBuffer(128);
+
     public CellBroadcastListItem(Context context, AttributeSet attrs) {
         super(context, attrs);
         mContext = context;
@@ -49,6 +75,11 @@ public class CellBroadcastListItem extends RelativeLayout {
         return mCbMessage;
     }
 
+    /** Returns the row ID of the bound broadcast, or -1 if not bound to a cursor row. */
+    long getRowId() {
+        return mRowId;
+    }
+
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
@@ -56,6 +87,9 @@ public class CellBroadcastListItem extends RelativeLayout {
         mChannelView = (TextView) findViewById(R.id.channel);
         mDateView = (TextView) findViewById(R.id.date);
         mMessageView = (TextView) findViewById(R.id.message);
+
+        mNormalTypeface = mMessageView.getTypeface();
+        mBoldTypeface = Typeface.create(mNormalTypeface, Typeface.BOLD);
     }
 
     /**
@@ -64,18 +98,89 @@ public class CellBroadcastListItem extends RelativeLayout {
      */
     public void bind(CellBroadcastMessage message) {
         mCbMessage = message;
+        mRowId = -1;
+        mRowInfo = null;
+        mRead = message.isRead();
 
-        Drawable background = message.isRead() ?
-                getResources().getDrawable(R.drawable.list_item_background_read) :
-                getResources().getDrawable(R.drawable.list_item_background_unread);
-
-        setBackground(background);
+        setBackground(getBackgroundDrawable(mRead));
 
         mChannelView.setText(CellBroadcastResources.getDialogTitleResource(mContext, message));
         mDateView.setText(message.getDateString(getContext()));
+        mMessageView.setTypeface(mNormalTypeface);
         mMessageView.setText(formatMessage(message));
     }
 
+    /**
+     * Bind the row the cursor is positioned at. Reads only the displayed columns and does
+     * not build a {@link CellBroadcastMessage}.
+     * @param cursor the cursor, already moved to the row to bind
+     * @param columns column indices for this cursor
+     * @param rowCache cache of formatted dates and resolved titles
+     */
+    void bind(Cursor cursor, CellBroadcastCursorAdapter.ColumnIndices columns,
+            CellBroadcastRowCache rowCache) {
+        long rowId = cursor.getLong(columns.mId);
+        boolean read = cursor.getInt(columns.mRead) != 0;
+        if (mCbMessage == null && rowId == mRowId && read == mRead
+                && mRowCacheGeneration == rowCache.getGeneration()) {
+            // Same row in the same state (e.g. the cursor was reloaded because another row
+            // changed); the rest of the row is immutable, so there is nothing to rebind.
+            return;
+        }
+
+        mCbMessage = null;
+        mRowId = rowId;
+        mRead = read;
+        mRowCacheGeneration = rowCache.getGeneration();
+
+        CellBroadcastRowCache.RowInfo info = rowCache.get(rowId, read);
+        if (info == null) {
+            info = rowCache.put(rowId, read, cursor.getLong(columns.mDeliveryTime),
+                    getTitleResource(cursor, columns));
+        }
+        mRowInfo = info;
+
+        setBackground(getBackgroundDrawable(mRead));
+
+        mChannelView.setText(info.mTitleResId);
+        mDateView.setText(info.mDate);
+
+        // Unread messages are shown in bold
+        cursor.copyStringToBuffer(columns.mBody, mBodyBuffer);
+        mMessageView.setTypeface(mRead ? mNormalTypeface : mBoldTypeface);
+        mMessageView.setText(mBodyBuffer.data, 0, mBodyBuffer.sizeCopied);
+    }
+
+    private int getTitleResource(Cursor cursor, CellBroadcastCursorAdapter.ColumnIndices columns) {
+        if (!cursor.isNull(columns.mEtwsWarningType)) {
+            return CellBroadcastResources.getEtwsTitleResource(
+                    cursor.getInt(columns.mEtwsWarningType));
+        }
+        if (!cursor.isNull(columns.mCmasMessageClass)) {
+            return CellBroadcastResources.getCmasTitleResource(
+                    cursor.getInt(columns.mCmasMessageClass));
+        }
+        // Broadcasts in the database are not associated with a subscription.
+        return CellBroadcastResources.getOtherTitleResource(mContext,
+                cursor.getInt(columns.mServiceCategory), 0,
+                cursor.getInt(columns.mPriority) == SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY);
+    }
+
+    private Drawable getBackgroundDrawable(boolean read) {
+        if (read) {
+            if (mReadBackground == null) {
+                mReadBackground = getResources().getDrawable(R.drawable.list_item_background_read);
+            }
+            return mReadBackground;
+        } else {
+            if (mUnreadBackground == null) {
+                mUnreadBackground = getResources().getDrawable(
+                        R.drawable.list_item_background_unread);
+            }
+            return mUnreadBackground;
+        }
+    }
+
     private static CharSequence formatMessage(CellBroadcastMessage message) {
         String body = message.getMessageBody();
 
@@ -92,7 +197,8 @@ public class CellBroadcastListItem extends RelativeLayout {
     @Override
     public boolean dispatchPopulateAccessibilityEvent(AccessibilityEvent event) {
         // Speak the date first, then channel name, then message body
-        event.getText().add(mCbMessage.getSpokenDateString(getContext()));
+        event.getText().add(mRowInfo != null ? mRowInfo.getSpokenDate(getContext())
+                : mCbMessage.getSpokenDateString(getContext()));
         mChannelView.dispatchPopulateAccessibilityEvent(event);
         mMessageView.dispatchPopulateAccessibilityEvent(event);
         return true;
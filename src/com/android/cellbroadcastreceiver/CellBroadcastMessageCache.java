@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.Telephony;
+import android.telephony.CellBroadcastMessage;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * In-process cache of recently received or opened broadcasts, keyed by row ID. Intents between
+ * the alert service, the notification and the alert dialog carry only row IDs; the full
+ * {@link CellBroadcastMessage} is looked up here and loaded from
+ * {@link CellBroadcastContentProvider} on a cache miss.
+ *
+ * <p>Broadcasts that could not be written to the database are given negative row IDs. There is
+ * nothing to reload them from, so intents and saved state that refer to them also carry the
+ * parceled broadcasts (see {@link #writeUnsaved}), which are put back with
+ * {@link #restoreUnsaved} after the process was restarted. In memory, they are kept until
+ * released, up to {@link #MAX_UNSAVED_ENTRIES}.
+ */
+class CellBroadcastMessageCache {
+    private static final String TAG = "CellBroadcastMessageCache";
+
+    /** Intent extra holding the row ID of a single broadcast. */
+    static final String EXTRA_ROW_ID = "row_id";
+
+    /** Intent extra holding the row IDs of a list of broadcasts. */
+    static final String EXTRA_ROW_IDS = "row_ids";
+
+    /** Extra holding the synthetic row IDs of the broadcasts in {@link #EXTRA_UNSAVED}. */
+    private static final String EXTRA_UNSAVED_ROW_IDS = "unsaved_row_ids";
+
+    /** Extra holding the parceled broadcasts that are not in the database. */
+    private static final String EXTRA_UNSAVED = "unsaved";
+
+    /** Maximum number of broadcasts kept in the cache. */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Maximum number of unsaved broadcasts kept in memory. Beyond that the oldest is dropped;
+     * intents and saved state referring to it still carry it parceled.
+     */
+    private static final int MAX_UNSAVED_ENTRIES = 32;
+
+    /** Recently used broadcasts that are stored in the database. */
+    private static final LruCache<Long, CellBroadcastMessage> sMessages =
+            new LruCache<Long, CellBroadcastMessage>(MAX_ENTRIES);
+
+    /** Broadcasts that could not be stored in the database, by synthetic (negative) row ID. */
+    private static final LongSparseArray<CellBroadcastMessage> sUnsavedMessages =
+            new LongSparseArray<CellBroadcastMessage>();
+
+    /**
+     * The last synthetic row ID handed out. Each process starts at an ID based on the time
+     * since boot, so IDs restored from intents of an earlier process are never reused.
+     */
+    private static long sLastUnsavedRowId = -SystemClock.elapsedRealtime() * 1000;
+
+    private CellBroadcastMessageCache() {}
+
+    /**
+     * Cache a broadcast stored in the database.
+     * @param rowId the row ID of the broadcast
+     * @param message the broadcast
+     */
+    static void put(long rowId, CellBroadcastMessage message) {
+        sMessages.put(rowId, message);
+    }
+
+    /**
+     * Keep a broadcast that could not be stored in the database.
+     * @param message the broadcast
+     * @return the synthetic row ID to refer to the broadcast with; always negative
+     */
+    static synchronized long putUnsaved(CellBroadcastMessage message) {
+        long rowId = --sLastUnsavedRowId;
+        sUnsavedMessages.put(rowId, message);
+        if (sUnsavedMessages.size() > MAX_UNSAVED_ENTRIES) {
+            // Keys are sorted and handed out in decreasing order, so the oldest is last.
+            Log.w(TAG, "dropping unsaved broadcast " + sUnsavedMessages.keyAt(
+                    sUnsavedMessages.size() - 1));
+            sUnsavedMessages.removeAt(sUnsavedMessages.size() - 1);
+        }
+        return rowId;
+    }
+
+    /**
+     * Parcel the unsaved broadcasts among a list of row IDs into a bundle, so that they can be
+     * displayed from an intent or saved state after the process was restarted.
+     * @param out the intent extras or saved state to write to
+     * @param rowIds the row IDs the intent or state refers to
+     */
+    static synchronized void writeUnsaved(Bundle out, long[] rowIds) {
+        long[] unsavedRowIds = new long[rowIds.length];
+        ArrayList<CellBroadcastMessage> messages = new ArrayList<CellBroadcastMessage>();
+        for (long rowId : rowIds) {
+            CellBroadcastMessage message = isUnsaved(rowId) ? sUnsavedMessages.get(rowId) : null;
+            if (message != null) {
+                unsavedRowIds[messages.size()] = rowId;
+                messages.add(message);
+            }
+        }
+        if (!messages.isEmpty()) {
+            out.putLongArray(EXTRA_UNSAVED_ROW_IDS,
+                    Arrays.copyOf(unsavedRowIds, messages.size()));
+            out.putParcelableArrayList(EXTRA_UNSAVED, messages);
+        }
+    }
+
+    /**
+     * Put back the unsaved broadcasts parceled by {@link #writeUnsaved} that are no longer in
+     * memory, keeping their row IDs.
+     * @param in the intent extras or saved state, or null
+     */
+    static synchronized void restoreUnsaved(Bundle in) {
+        if (in == null) {
+            return;
+        }
+        long[] rowIds = in.getLongArray(EXTRA_UNSAVED_ROW_IDS);
+        ArrayList<CellBroadcastMessage> messages = in.getParcelableArrayList(EXTRA_UNSAVED);
+        if (rowIds == null || messages == null || rowIds.length != messages.size()) {
+            return;
+        }
+        for (int i = 0; i < rowIds.length; i++) {
+            if (sUnsavedMessages.get(rowIds[i]) == null) {
+                sUnsavedMessages.put(rowIds[i], messages.get(i));
+                // Do not hand out a restored row ID again.
+                sLastUnsavedRowId = Math.min(sLastUnsavedRowId, rowIds[i]);
+            }
+        }
+    }
+
+    /** Returns true if the row ID refers to a broadcast that is not in the database. */
+    static boolean isUnsaved(long rowId) {
+        return rowId < 0;
+    }
+
+    /**
+     * Forget a broadcast that could not be stored in the database, once it has been read.
+     * @param rowId the synthetic row ID of the broadcast
+     */
+    static synchronized void releaseUnsaved(long rowId) {
+        sUnsavedMessages.remove(rowId);
+    }
+
+    /**
+     * Returns the broadcast with the given row ID if it is cached, without querying the
+     * provider. Safe to call on the main thread.
+     * @param rowId the row ID of the broadcast
+     * @return the broadcast, or null if it is not cached
+     */
+    static CellBroadcastMessage getCached(long rowId) {
+        if (isUnsaved(rowId)) {
+            synchronized (CellBroadcastMessageCache.class) {
+                return sUnsavedMessages.get(rowId);
+            }
+        }
+        return sMessages.get(rowId);
+    }
+
+    /**
+     * Returns the broadcast with the given row ID, loading it from the provider if it is not
+     * cached. The load is a single primary key lookup, but must not be done on the main thread
+     * in bulk; use {@link #loadAll} instead.
+     * @param context the context to query the provider with
+     * @param rowId the row ID of the broadcast
+     * @return the broadcast, or null if it no longer exists
+     */
+    static CellBroadcastMessage get(Context context, long rowId) {
+        CellBroadcastMessage message = getCached(rowId);
+        if (message != null || isUnsaved(rowId)) {
+            return message;
+        }
+
+        Cursor c = context.getContentResolver().query(
+                ContentUris.withAppendedId(CellBroadcastContentProvider.CONTENT_URI, rowId),
+                Telephony.CellBroadcasts.QUERY_COLUMNS, null, null, null);
+        if (c == null) {
+            Log.e(TAG, "query for broadcast " + rowId + " failed");
+            return null;
+        }
+        try {
+            if (c.moveToFirst()) {
+                message = CellBroadcastMessage.createFromCursor(c);
+                sMessages.put(rowId, message);
+            } else {
+                Log.w(TAG, "broadcast " + rowId + " no longer exists");
+            }
+        } finally {
+            c.close();
+        }
+        return message;
+    }
+
+    /**
+     * Load the broadcasts with the given row IDs from the provider with a single query and
+     * cache them. Must not be called on the main thread.
+     * @param context the context to query the provider with
+     * @param rowIds the row IDs of broadcasts stored in the database
+     * @return the loaded broadcasts by row ID; rows that no longer exist are missing
+     */
+    static LongSparseArray<CellBroadcastMessage> loadAll(Context context, long[] rowIds) {
+        LongSparseArray<CellBroadcastMessage> messages =
+                new LongSparseArray<CellBroadcastMessage>(rowIds.length);
+        if (rowIds.length == 0) {
+            return messages;
+        }
+
+        StringBuilder selection = new StringBuilder(Telephony.CellBroadcasts._ID).append(" IN (");
+        String[] selectionArgs = new String[rowIds.length];
+        for (int i = 0; i < rowIds.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = Long.toString(rowIds[i]);
+        }
+        selection.append(')');
+
+        Cursor c = context.getContentResolver().query(CellBroadcastContentProvider.CONTENT_URI,
+                Telephony.CellBroadcasts.QUERY_COLUMNS, selection.toString(), selectionArgs,
+                null);
+        if (c == null) {
+            Log.e(TAG, "query for " + rowIds.length + " broadcasts failed");
+            return messages;
+        }
+        try {
+            int idColumn = c.getColumnIndexOrThrow(Telephony.CellBroadcasts._ID);
+            while (c.moveToNext()) {
+                long rowId = c.getLong(idColumn);
+                CellBroadcastMessage message = CellBroadcastMessage.createFromCursor(c);
+                sMessages.put(rowId, message);
+                messages.put(rowId, message);
+            }
+        } finally {
+            c.close();
+        }
+        if (messages.size() < rowIds.length) {
+            Log.w(TAG, (rowIds.length - messages.size()) + " broadcasts no longer exist");
+        }
+        return messages;
+    }
+
+    /** Print the cache size and hit rate. */
+    static void dump(PrintWriter pw) {
+        int unsaved;
+        synchronized (CellBroadcastMessageCache.class) {
+            unsaved = sUnsavedMessages.size();
+        }
+        pw.println("Message cache: " + sMessages.toString() + " size=" + sMessages.size()
+                + " unsaved=" + unsaved);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.CellBroadcastMessage;
+import android.util.Log;
+
+/**
+ * Coalesces notification updates for non-emergency broadcasts. The first update after a quiet
+ * period is posted right away with sound and vibration. Further updates within
+ * {@link #COALESCE_WINDOW_MILLIS} are merged into a single silent post at the end of the
+ * window, which always reflects the latest unread list. Emergency alerts do not go through
+ * this class.
+ *
+ * <p>A {@link CellBroadcastAlertWakeLock.Reason#NOTIFICATION_FLUSH} wake lock is held while a
+ * flush is scheduled, since the uptime clock of the handler stops while the device sleeps.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class CellBroadcastNotificationScheduler {
+    private static final String TAG = "CBNotificationScheduler";
+
+    /** Minimum time between two posts of the non-emergency notification. */
+    static final long COALESCE_WINDOW_MILLIS = 2000;
+
+    private static CellBroadcastNotificationScheduler sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Application context, set by the first update request. */
+    private Context mContext;
+
+    /** The latest broadcast not yet reflected in the posted notification, or null. */
+    private CellBroadcastMessage mPendingMessage;
+
+    /** True while a flush is scheduled for the end of the window. */
+    private boolean mFlushScheduled;
+
+    /** Uptime of the last post, or 0 if nothing was posted yet. */
+    private long mLastPostTime;
+
+    /** Number of update requests. */
+    private int mRequestCount;
+
+    /** Number of notifications actually posted. */
+    private int mPostCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush(false);
+            CellBroadcastAlertWakeLock.release(
+                    CellBroadcastAlertWakeLock.Reason.NOTIFICATION_FLUSH);
+        }
+    };
+
+    private CellBroadcastNotificationScheduler() {}
+
+    /** Returns the singleton instance. */
+    static CellBroadcastNotificationScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new CellBroadcastNotificationScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Request a notification update after a new non-emergency broadcast was added to
+     * {@link CellBroadcastReceiverApp}'s unread list.
+     * @param context the context to post with
+     * @param message the new broadcast, used for the single-alert notification text
+     */
+    void requestUpdate(Context context, CellBroadcastMessage message) {
+        mContext = context.getApplicationContext();
+        mPendingMessage = message;
+        mRequestCount++;
+
+        if (mFlushScheduled) {
+            // A flush is already scheduled for the end of the window.
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        long nextPostTime = mLastPostTime + COALESCE_WINDOW_MILLIS;
+        if (mLastPostTime == 0 || now >= nextPostTime) {
+            // Start of a burst: post now, with sound and vibration.
+            flush(true);
+        } else {
+            CellBroadcastAlertWakeLock.acquire(mContext,
+                    CellBroadcastAlertWakeLock.Reason.NOTIFICATION_FLUSH);
+            mHandler.postAtTime(mFlushRunnable, nextPostTime);
+            mFlushScheduled = true;
+        }
+    }
+
+    /**
+     * Drop any pending update, e.g. because the user opened or cleared the notification.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            CellBroadcastAlertWakeLock.release(
+                    CellBroadcastAlertWakeLock.Reason.NOTIFICATION_FLUSH);
+        }
+        mPendingMessage = null;
+    }
+
+    /** Returns the number of update requests that did not need their own post. */
+    int getPostsSaved() {
+        return mRequestCount - mPostCount;
+    }
+
+    /** Returns the number of update requests. */
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /** Returns the number of notifications posted. */
+    int getPostCount() {
+        return mPostCount;
+    }
+
+    /**
+     * Post the notification for the current unread list.
+     * @param alert true to play the default sound and vibration
+     */
+    private void flush(boolean alert) {
+        CellBroadcastMessage message = mPendingMessage;
+        mPendingMessage = null;
+        if (message == null) {
+            return;
+        }
+
+        CellBroadcastAlertService.addToNotificationBar(message,
+                CellBroadcastReceiverApp.getNewMessageIds(),
+                CellBroadcastReceiverApp.getNewMessageCount(),
+                CellBroadcastReceiverApp.getNewMessageLines(), mContext, false, alert);
+        mLastPostTime = SystemClock.uptimeMillis();
+        mPostCount++;
+
+        if (CellBroadcastReceiver.DBG) {
+            Log.d(TAG, "posted notification, alert=" + alert + ", requests=" + mRequestCount
+                    + ", posts=" + mPostCount);
+        }
+    }
+}
@@ -22,7 +22,7 @@ import android.telephony.CarrierConfigManager;
 import android.util.Log;
 import android.util.SparseArray;
 
-import com.android.cellbroadcastreceiver.CellBroadcastAlertAudio.ToneType;
+import com.android.cellbroadcastreceiver.intake.ChannelRange;
 
 import java.util.ArrayList;
 
@@ -55,54 +55,10 @@ public class CellBroadcastOtherChannelsManager {
      * Cell broadcast channel range
      * A range is consisted by starting channel id, ending channel id, and the tone type
      */
-    public static class CellBroadcastChannelRange {
-
-        private static final String KEY_TYPE = "type";
-        private static final String KEY_EMERGENCY = "emergency";
-
-        public int mStartId;
-        public int mEndId;
-        public ToneType mToneType;
-        public boolean mIsEmergency;
+    public static class CellBroadcastChannelRange extends ChannelRange {
 
         public CellBroadcastChannelRange(String channelRange) throws Exception {
-
-            mToneType = ToneType.CMAS_DEFAULT;
-            mIsEmergency = false;
-
-            int colonIndex = channelRange.indexOf(':');
-            if (colonIndex != -1){
-                // Parse the tone type and emergency flag
-                String[] pairs = channelRange.substring(colonIndex + 1).trim().split(",");
-                for (String pair : pairs) {
-                    pair = pair.trim();
-                    String[] tokens = pair.split("=");
-                    if (tokens.length == 2) {
-                        String key = tokens[0].trim();
-                        String value = tokens[1].trim();
-                        switch (key) {
-                            case KEY_TYPE:
-                                mToneType = ToneType.valueOf(value.toUpperCase());
-                                break;
-                            case KEY_EMERGENCY:
-                                mIsEmergency = value.equalsIgnoreCase("true");
-                                break;
-                        }
-                    }
-                }
-                channelRange = channelRange.substring(0, colonIndex).trim();
-            }
-
-            // Parse the channel range
-            int dashIndex = channelRange.indexOf('-');
-            if (dashIndex != -1) {
-                // range that has start id and end id
-                mStartId = Integer.decode(channelRange.substring(0, dashIndex).trim());
-                mEndId = Integer.decode(channelRange.substring(dashIndex + 1).trim());
-            } else {
-                // Not a range, only a single id
-                mStartId = mEndId = Integer.decode(channelRange);
-            }
+            super(channelRange);
         }
     }
 
@@ -52,6 +52,7 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
         if (DBG) log("onReceive " + intent);
 
         String action = intent.getAction();
+        CellBroadcastReceiverApp.traceEntryPoint("receiver " + action);
 
         if (TelephonyIntents.ACTION_SERVICE_STATE_CHANGED.equals(action)) {
             if (DBG) log("Intent: " + action);
@@ -87,6 +88,7 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
             // means someone has tried to spoof the message by delivering it outside the normal
             // permission-checked route, so we just ignore it.
             if (privileged) {
+                CellBroadcastAlertTrace.begin(intent);
                 intent.setClass(context, CellBroadcastAlertService.class);
                 context.startService(intent);
             } else {
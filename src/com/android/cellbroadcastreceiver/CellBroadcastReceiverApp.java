@@ -17,46 +17,182 @@
 package com.android.cellbroadcastreceiver;
 
 import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.telephony.CellBroadcastMessage;
 import android.util.Log;
 import android.preference.PreferenceManager;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The application class loads the default preferences at first start,
  * and remembers the time of the most recently received broadcast.
+ *
+ * <p>Process start is kept cheap, since most starts only handle a single broadcast: default
+ * preference values are applied on a background thread, and only when R.xml.preferences has
+ * changed. Everything else is created on first use.
  */
 public class CellBroadcastReceiverApp extends Application {
     private static final String TAG = "CellBroadcastReceiverApp";
 
+    /**
+     * Version of the default values in R.xml.preferences. Increment when adding a preference
+     * or changing a default value, so the defaults are applied again.
+     */
+    private static final int DEFAULT_VALUES_VERSION = 1;
+
+    /** Preference holding the version of the default values last applied. */
+    private static final String KEY_DEFAULT_VALUES_VERSION = "default_values_version";
+
+    /** True once the default values are known to be applied in this process. */
+    private static boolean sDefaultValuesApplied;
+
+    /** Elapsed realtime at which Application.onCreate() ended. */
+    private static long sAppCreatedTime;
+
+    /** Time from process start to the first call of each entry point, in order of first call. */
+    private static final LinkedHashMap<String, Long> sEntryPointLatency =
+            new LinkedHashMap<String, Long>();
+
     @Override
     public void onCreate() {
+        Trace.beginSection("CellBroadcastReceiverApp.onCreate");
         super.onCreate();
-        // TODO: fix strict mode violation from the following method call during app creation
-        PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
+        final Context context = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureDefaultValues(context);
+            }
+        });
+        sAppCreatedTime = SystemClock.elapsedRealtime();
+        Trace.endSection();
+    }
+
+    /**
+     * Apply the default preference values if this version of them has not been applied yet.
+     * Does disk I/O; callers that depend on the XML defaults call this from a worker thread.
+     */
+    static synchronized void ensureDefaultValues(Context context) {
+        if (sDefaultValuesApplied) {
+            return;
+        }
+        Trace.beginSection("CellBroadcastReceiverApp.ensureDefaultValues");
+        try {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            if (prefs.getInt(KEY_DEFAULT_VALUES_VERSION, 0) != DEFAULT_VALUES_VERSION) {
+                Log.d(TAG, "applying default values version " + DEFAULT_VALUES_VERSION);
+                PreferenceManager.setDefaultValues(context, R.xml.preferences, true);
+                prefs.edit().putInt(KEY_DEFAULT_VALUES_VERSION, DEFAULT_VALUES_VERSION).apply();
+            }
+            sDefaultValuesApplied = true;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Record that an entry point (receiver, service, activity or provider) was called. The
+     * first call of each entry point in this process logs the time since process start.
+     * @param entryPoint name of the entry point
+     */
+    static void traceEntryPoint(String entryPoint) {
+        synchronized (sEntryPointLatency) {
+            if (sEntryPointLatency.containsKey(entryPoint)) {
+                return;
+            }
+            long latency = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+            sEntryPointLatency.put(entryPoint, latency);
+            Log.d(TAG, "entry point " + entryPoint + " reached " + latency
+                    + " ms after process start (app created after "
+                    + (sAppCreatedTime - Process.getStartElapsedRealtime()) + " ms)");
+        }
+    }
+
+    /** Returns the time from process start to the first call of each entry point. */
+    static Map<String, Long> getEntryPointLatency() {
+        synchronized (sEntryPointLatency) {
+            return new LinkedHashMap<String, Long>(sEntryPointLatency);
+        }
     }
 
-    /** List of unread non-emergency alerts to show when user selects the notification. */
-    private static final ArrayList<CellBroadcastMessage> sNewMessageList =
-            new ArrayList<CellBroadcastMessage>(4);
+    /**
+     * Maximum number of unread non-emergency alerts to show when user selects the
+     * notification. Older unread alerts are still counted, and stay unread in the list.
+     */
+    static final int MAX_NEW_MESSAGES = CellBroadcastAlertDialog.MAX_QUEUED_ALERTS;
+
+    /** Number of recent unread non-emergency alerts listed in the expanded notification. */
+    static final int MAX_NEW_MESSAGE_LINES = 5;
+
+    /** Ring of row IDs of the most recent unread non-emergency alerts. */
+    private static final long[] sNewMessageIds = new long[MAX_NEW_MESSAGES];
+
+    /** Ring of notification lines for the most recent unread non-emergency alerts. */
+    private static final CharSequence[] sNewMessageLines =
+            new CharSequence[MAX_NEW_MESSAGE_LINES];
+
+    /** Total number of unread non-emergency alerts since the list was last cleared. */
+    private static int sNewMessageCount;
 
     /** Latest area info cell broadcast received. */
     private static Map<Integer, CellBroadcastMessage> sLatestAreaInfo =
             new HashMap<Integer, CellBroadcastMessage>();
 
-    /** Adds a new unread non-emergency message and returns the current list. */
-    static ArrayList<CellBroadcastMessage> addNewMessageToList(CellBroadcastMessage message) {
-        sNewMessageList.add(message);
-        return sNewMessageList;
+    /**
+     * Adds a new unread non-emergency message, replacing the oldest one if the list is full.
+     * @param rowId the row ID of the message
+     * @param line the line to show for the message in the expanded notification
+     */
+    static synchronized void addNewMessageToList(long rowId, CharSequence line) {
+        sNewMessageIds[sNewMessageCount % MAX_NEW_MESSAGES] = rowId;
+        sNewMessageLines[sNewMessageCount % MAX_NEW_MESSAGE_LINES] = line;
+        sNewMessageCount++;
+    }
+
+    /** Returns the total number of unread non-emergency messages. */
+    static synchronized int getNewMessageCount() {
+        return sNewMessageCount;
+    }
+
+    /**
+     * Returns the row IDs of the most recent unread non-emergency messages, newest first.
+     * At most {@link #MAX_NEW_MESSAGES} are returned.
+     */
+    static synchronized long[] getNewMessageIds() {
+        long[] rowIds = new long[Math.min(sNewMessageCount, MAX_NEW_MESSAGES)];
+        for (int i = 0; i < rowIds.length; i++) {
+            rowIds[i] = sNewMessageIds[(sNewMessageCount - 1 - i) % MAX_NEW_MESSAGES];
+        }
+        return rowIds;
+    }
+
+    /**
+     * Returns the notification lines of the most recent unread non-emergency messages, newest
+     * first. At most {@link #MAX_NEW_MESSAGE_LINES} are returned.
+     */
+    static synchronized CharSequence[] getNewMessageLines() {
+        CharSequence[] lines = new CharSequence[Math.min(sNewMessageCount,
+                MAX_NEW_MESSAGE_LINES)];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = sNewMessageLines[(sNewMessageCount - 1 - i) % MAX_NEW_MESSAGE_LINES];
+        }
+        return lines;
     }
 
     /** Clears the list of unread non-emergency messages. */
-    static void clearNewMessageList() {
-        sNewMessageList.clear();
+    static synchronized void clearNewMessageList() {
+        sNewMessageCount = 0;
+        Arrays.fill(sNewMessageLines, null);
     }
 
     /** Saves the latest area info broadcast received. */
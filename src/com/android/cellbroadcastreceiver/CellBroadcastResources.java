@@ -243,62 +243,95 @@ public class CellBroadcastResources {
         // ETWS warning types
         SmsCbEtwsInfo etwsInfo = cbm.getEtwsWarningInfo();
         if (etwsInfo != null) {
-            switch (etwsInfo.getWarningType()) {
-                case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE:
-                    return R.string.etws_earthquake_warning;
+            return getEtwsTitleResource(etwsInfo.getWarningType());
+        }
+
+        // CMAS warning types
+        SmsCbCmasInfo cmasInfo = cbm.getCmasWarningInfo();
+        if (cmasInfo != null) {
+            return getCmasTitleResource(cmasInfo.getMessageClass());
+        }
 
-                case SmsCbEtwsInfo.ETWS_WARNING_TYPE_TSUNAMI:
-                    return R.string.etws_tsunami_warning;
+        return getOtherTitleResource(context, cbm.getServiceCategory(), cbm.getSubId(),
+                cbm.isEmergencyAlertMessage());
+    }
+
+    /**
+     * Returns the dialog title for an ETWS warning type.
+     * @param warningType the ETWS warning type
+     * @return a string resource ID
+     */
+    static int getEtwsTitleResource(int warningType) {
+        switch (warningType) {
+            case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE:
+                return R.string.etws_earthquake_warning;
 
-                case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI:
-                    return R.string.etws_earthquake_and_tsunami_warning;
+            case SmsCbEtwsInfo.ETWS_WARNING_TYPE_TSUNAMI:
+                return R.string.etws_tsunami_warning;
 
-                case SmsCbEtwsInfo.ETWS_WARNING_TYPE_TEST_MESSAGE:
-                    return R.string.etws_test_message;
+            case SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI:
+                return R.string.etws_earthquake_and_tsunami_warning;
 
-                case SmsCbEtwsInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY:
-                default:
-                    return R.string.etws_other_emergency_type;
-            }
+            case SmsCbEtwsInfo.ETWS_WARNING_TYPE_TEST_MESSAGE:
+                return R.string.etws_test_message;
+
+            case SmsCbEtwsInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY:
+            default:
+                return R.string.etws_other_emergency_type;
         }
+    }
 
-        // CMAS warning types
-        SmsCbCmasInfo cmasInfo = cbm.getCmasWarningInfo();
-        if (cmasInfo != null) {
-            switch (cmasInfo.getMessageClass()) {
-                case SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT:
-                    return R.string.cmas_presidential_level_alert;
+    /**
+     * Returns the dialog title for a CMAS message class.
+     * @param messageClass the CMAS message class
+     * @return a string resource ID
+     */
+    static int getCmasTitleResource(int messageClass) {
+        switch (messageClass) {
+            case SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT:
+                return R.string.cmas_presidential_level_alert;
 
-                case SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT:
-                    return R.string.cmas_extreme_alert;
+            case SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT:
+                return R.string.cmas_extreme_alert;
 
-                case SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT:
-                    return R.string.cmas_severe_alert;
+            case SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT:
+                return R.string.cmas_severe_alert;
 
-                case SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
-                    return R.string.cmas_amber_alert;
+            case SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
+                return R.string.cmas_amber_alert;
 
-                case SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
-                    return R.string.cmas_required_monthly_test;
+            case SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
+                return R.string.cmas_required_monthly_test;
 
-                case SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE:
-                    return R.string.cmas_exercise_alert;
+            case SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE:
+                return R.string.cmas_exercise_alert;
 
-                case SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
-                    return R.string.cmas_operator_defined_alert;
+            case SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
+                return R.string.cmas_operator_defined_alert;
 
-                default:
-                    return R.string.pws_other_message_identifiers;
-            }
+            default:
+                return R.string.pws_other_message_identifiers;
         }
+    }
 
-        if (CellBroadcastAlertService.isEmergencyMessage(context, cbm)) {
+    /**
+     * Returns the dialog title for a broadcast without ETWS or CMAS warning info.
+     * @param context a Context for carrier channel lookup
+     * @param serviceCategory the service category (message identifier)
+     * @param subId the subscription id
+     * @param isEmergencyPriority true if the broadcast has emergency priority
+     * @return a string resource ID
+     */
+    static int getOtherTitleResource(Context context, int serviceCategory, int subId,
+            boolean isEmergencyPriority) {
+        if (CellBroadcastAlertService.isEmergencyMessage(context, serviceCategory, subId,
+                isEmergencyPriority)) {
             ArrayList<CellBroadcastChannelRange> ranges = CellBroadcastOtherChannelsManager.
-                    getInstance().getCellBroadcastChannelRanges(context, cbm.getSubId());
+                    getInstance().getCellBroadcastChannelRanges(context, subId);
             if (ranges != null) {
                 for (CellBroadcastChannelRange range : ranges) {
-                    if (cbm.getServiceCategory() >= range.mStartId &&
-                            cbm.getServiceCategory() <= range.mEndId) {
+                    if (serviceCategory >= range.mStartId &&
+                            serviceCategory <= range.mEndId) {
                         // Apply the closest title to the specified tones.
                         switch (range.mToneType) {
                             case CMAS_DEFAULT:
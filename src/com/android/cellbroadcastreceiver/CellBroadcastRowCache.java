@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
+
+/**
+ * Cache of the presentation values shown for each row of the broadcast list: the formatted
+ * delivery date, the spoken date for accessibility and the resolved title resource. Entries
+ * are keyed by row ID and read state, so scrolling back over a row does no date formatting
+ * or carrier channel range scans. The whole cache is dropped when the locale, time zone or
+ * time format changes.
+ */
+class CellBroadcastRowCache {
+
+    /** Maximum number of rows to remember before starting over. */
+    private static final int MAX_ENTRIES = 512;
+
+    /** Flags matching {@link android.telephony.CellBroadcastMessage#getDateString}. */
+    private static final int DATE_FLAGS = DateUtils.FORMAT_NO_NOON_MIDNIGHT
+            | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_ALL
+            | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_CAP_AMPM;
+
+    /** Flags matching {@link android.telephony.CellBroadcastMessage#getSpokenDateString}. */
+    private static final int SPOKEN_DATE_FLAGS = DateUtils.FORMAT_SHOW_TIME
+            | DateUtils.FORMAT_SHOW_DATE;
+
+    /** Presentation values for a single row. */
+    static final class RowInfo {
+        final boolean mRead;
+        final long mDeliveryTime;
+        final int mTitleResId;
+        final String mDate;
+
+        /** Formatted on first use, since it is only needed for accessibility events. */
+        private String mSpokenDate;
+
+        RowInfo(boolean read, long deliveryTime, int titleResId, String date) {
+            mRead = read;
+            mDeliveryTime = deliveryTime;
+            mTitleResId = titleResId;
+            mDate = date;
+        }
+
+        String getSpokenDate(Context context) {
+            if (mSpokenDate == null) {
+                mSpokenDate = DateUtils.formatDateTime(context, mDeliveryTime,
+                        SPOKEN_DATE_FLAGS);
+            }
+            return mSpokenDate;
+        }
+    }
+
+    private final Context mContext;
+
+    private final LongSparseArray<RowInfo> mRows = new LongSparseArray<>();
+
+    /** Incremented on every invalidation, so views can tell their values are stale. */
+    private int mGeneration;
+
+    /** Called after the cache was invalidated by a locale, time zone or format change. */
+    private Runnable mOnInvalidated;
+
+    /** Clears the cache when the formatted values would change. */
+    private final BroadcastReceiver mInvalidateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+            if (mOnInvalidated != null) {
+                mOnInvalidated.run();
+            }
+        }
+    };
+
+    CellBroadcastRowCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Start listening for locale, time zone and time format changes.
+     * @param onInvalidated called on the main thread after the cache has been cleared
+     */
+    void register(Runnable onInvalidated) {
+        mOnInvalidated = onInvalidated;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        mContext.registerReceiver(mInvalidateReceiver, filter);
+    }
+
+    /** Stop listening for changes. */
+    void unregister() {
+        mContext.unregisterReceiver(mInvalidateReceiver);
+        mOnInvalidated = null;
+    }
+
+    /** Drop all cached values. */
+    void invalidate() {
+        mRows.clear();
+        mGeneration++;
+    }
+
+    /** Returns the current generation; it changes whenever the cache is invalidated. */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached values for a row, or null if there are none for this read state.
+     * @param rowId the row ID of the broadcast
+     * @param read the current read state of the broadcast
+     */
+    RowInfo get(long rowId, boolean read) {
+        RowInfo info = mRows.get(rowId);
+        if (info != null && info.mRead == read) {
+            return info;
+        }
+        return null;
+    }
+
+    /**
+     * Formats and caches the values for a row.
+     * @param rowId the row ID of the broadcast
+     * @param read the current read state of the broadcast
+     * @param deliveryTime the delivery time of the broadcast
+     * @param titleResId the resolved title resource for the broadcast
+     * @return the new cache entry
+     */
+    RowInfo put(long rowId, boolean read, long deliveryTime, int titleResId) {
+        if (mRows.size() >= MAX_ENTRIES) {
+            mRows.clear();
+        }
+        RowInfo info = new RowInfo(read, deliveryTime, titleResId,
+                DateUtils.formatDateTime(mContext, deliveryTime, DATE_FLAGS));
+        mRows.put(rowId, info);
+        return info;
+    }
+}
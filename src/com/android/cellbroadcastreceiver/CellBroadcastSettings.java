@@ -365,23 +365,19 @@ public class CellBroadcastSettings extends PreferenceActivity {
     }
 
     public static boolean isFeatureEnabled(Context context, String feature, boolean defaultValue) {
-        int subId = SubscriptionManager.getDefaultSmsSubscriptionId();
+        CellBroadcastTelephonyCache telephonyCache =
+                CellBroadcastTelephonyCache.getInstance(context);
+        int subId = telephonyCache.getDefaultSmsSubscriptionId();
         if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-            subId = SubscriptionManager.getDefaultSubscriptionId();
+            subId = telephonyCache.getDefaultSubscriptionId();
             if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
                 return defaultValue;
             }
         }
 
-        CarrierConfigManager configManager =
-                (CarrierConfigManager) context.getSystemService(Context.CARRIER_CONFIG_SERVICE);
-
-        if (configManager != null) {
-            PersistableBundle carrierConfig = configManager.getConfigForSubId(subId);
-
-            if (carrierConfig != null) {
-                return carrierConfig.getBoolean(feature, defaultValue);
-            }
+        PersistableBundle carrierConfig = telephonyCache.getCarrierConfig(subId);
+        if (carrierConfig != null) {
+            return carrierConfig.getBoolean(feature, defaultValue);
         }
 
         return defaultValue;
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.app.ActivityManagerNative;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.os.PersistableBundle;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.TelephonyIntents;
+
+import java.io.PrintWriter;
+
+/**
+ * Caches values from the telephony and activity manager services that are read for every
+ * broadcast: the current user, the default subscription, carrier config, SIM and network
+ * country and the resources of each subscription. Each value is fetched once and dropped by the
+ * broadcast that announces its change, so processing a broadcast normally makes no binder calls
+ * for them. Every fetch is counted with {@link CellBroadcastBinderCounter}.
+ *
+ * <p>Thread safe; used from the main thread and the config service worker thread.
+ */
+class CellBroadcastTelephonyCache {
+    private static final String TAG = "CellBroadcastTelephonyCache";
+
+    private static CellBroadcastTelephonyCache sInstance;
+
+    private final Context mContext;
+
+    /** The current foreground user, or {@link UserHandle#USER_NULL} if not known. */
+    private int mCurrentUserId = UserHandle.USER_NULL;
+
+    /** The default SMS subscription, or null if not known. */
+    private Integer mDefaultSmsSubId;
+
+    /** The default subscription, or null if not known. */
+    private Integer mDefaultSubId;
+
+    private final SparseArray<PersistableBundle> mCarrierConfigs =
+            new SparseArray<PersistableBundle>();
+    private final SparseArray<String> mSimCountryIsos = new SparseArray<String>();
+    private final SparseArray<String> mNetworkCountryIsos = new SparseArray<String>();
+    private final SparseArray<Resources> mResources = new SparseArray<Resources>();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private final BroadcastReceiver mInvalidateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onInvalidate(intent);
+        }
+    };
+
+    private CellBroadcastTelephonyCache(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_USER_SWITCHED);
+        filter.addAction(TelephonyIntents.ACTION_DEFAULT_SMS_SUBSCRIPTION_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_DEFAULT_SUBSCRIPTION_CHANGED);
+        filter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.registerReceiver(mInvalidateReceiver, filter);
+    }
+
+    /** Returns the singleton instance. */
+    static synchronized CellBroadcastTelephonyCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CellBroadcastTelephonyCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Returns the current foreground user, as {@link ActivityManagerNative#getCurrentUser}. */
+    synchronized int getCurrentUserId() {
+        if (mCurrentUserId == UserHandle.USER_NULL) {
+            mMissCount++;
+            CellBroadcastBinderCounter.count();
+            try {
+                mCurrentUserId = ActivityManagerNative.getDefault().getCurrentUser().id;
+            } catch (RemoteException e) {
+                Log.e(TAG, "failed to get current user", e);
+                return UserHandle.USER_NULL;
+            }
+        } else {
+            mHitCount++;
+        }
+        return mCurrentUserId;
+    }
+
+    /** Returns {@link SubscriptionManager#getDefaultSmsSubscriptionId}. */
+    synchronized int getDefaultSmsSubscriptionId() {
+        if (mDefaultSmsSubId == null) {
+            mMissCount++;
+            CellBroadcastBinderCounter.count();
+            mDefaultSmsSubId = SubscriptionManager.getDefaultSmsSubscriptionId();
+        } else {
+            mHitCount++;
+        }
+        return mDefaultSmsSubId;
+    }
+
+    /** Returns {@link SubscriptionManager#getDefaultSubscriptionId}. */
+    synchronized int getDefaultSubscriptionId() {
+        if (mDefaultSubId == null) {
+            mMissCount++;
+            CellBroadcastBinderCounter.count();
+            mDefaultSubId = SubscriptionManager.getDefaultSubscriptionId();
+        } else {
+            mHitCount++;
+        }
+        return mDefaultSubId;
+    }
+
+    /**
+     * Returns the carrier config of a subscription, or null if it is not available. The bundle
+     * is shared and must not be modified.
+     */
+    synchronized PersistableBundle getCarrierConfig(int subId) {
+        PersistableBundle config = mCarrierConfigs.get(subId);
+        if (config != null) {
+            mHitCount++;
+            return config;
+        }
+        mMissCount++;
+        CarrierConfigManager configManager = (CarrierConfigManager)
+                mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE);
+        if (configManager == null) {
+            return null;
+        }
+        CellBroadcastBinderCounter.count();
+        config = configManager.getConfigForSubId(subId);
+        if (config != null) {
+            mCarrierConfigs.put(subId, config);
+        }
+        return config;
+    }
+
+    /** Returns {@link TelephonyManager#getSimCountryIso(int)}. */
+    synchronized String getSimCountryIso(int subId) {
+        int index = mSimCountryIsos.indexOfKey(subId);
+        if (index >= 0) {
+            mHitCount++;
+            return mSimCountryIsos.valueAt(index);
+        }
+        mMissCount++;
+        CellBroadcastBinderCounter.count();
+        String iso = TelephonyManager.from(mContext).getSimCountryIso(subId);
+        mSimCountryIsos.put(subId, iso);
+        return iso;
+    }
+
+    /** Returns {@link TelephonyManager#getNetworkCountryIso(int)}. */
+    synchronized String getNetworkCountryIso(int subId) {
+        int index = mNetworkCountryIsos.indexOfKey(subId);
+        if (index >= 0) {
+            mHitCount++;
+            return mNetworkCountryIsos.valueAt(index);
+        }
+        mMissCount++;
+        CellBroadcastBinderCounter.count();
+        String iso = TelephonyManager.from(mContext).getNetworkCountryIso(subId);
+        mNetworkCountryIsos.put(subId, iso);
+        return iso;
+    }
+
+    /** Returns {@link SubscriptionManager#getResourcesForSubId}. */
+    synchronized Resources getResourcesForSubId(int subId) {
+        Resources res = mResources.get(subId);
+        if (res != null) {
+            mHitCount++;
+            return res;
+        }
+        mMissCount++;
+        CellBroadcastBinderCounter.count();
+        res = SubscriptionManager.getResourcesForSubId(mContext, subId);
+        mResources.put(subId, res);
+        return res;
+    }
+
+    private synchronized void onInvalidate(Intent intent) {
+        String action = intent.getAction();
+        if (CellBroadcastReceiver.DBG) Log.d(TAG, "invalidating for " + action);
+        if (Intent.ACTION_USER_SWITCHED.equals(action)) {
+            mCurrentUserId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL);
+        } else if (TelephonyIntents.ACTION_DEFAULT_SMS_SUBSCRIPTION_CHANGED.equals(action)
+                || TelephonyIntents.ACTION_DEFAULT_SUBSCRIPTION_CHANGED.equals(action)) {
+            mDefaultSmsSubId = null;
+            mDefaultSubId = null;
+        } else if (TelephonyIntents.ACTION_SERVICE_STATE_CHANGED.equals(action)) {
+            mNetworkCountryIsos.clear();
+        } else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+            mResources.clear();
+        } else {
+            // SIM or carrier config change.
+            mDefaultSmsSubId = null;
+            mDefaultSubId = null;
+            mCarrierConfigs.clear();
+            mSimCountryIsos.clear();
+            mResources.clear();
+        }
+    }
+
+    /** Print the cache hit rate. */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("Telephony cache: hits=" + mHitCount + " misses=" + mMissCount
+                + " user=" + mCurrentUserId + " defaultSms=" + mDefaultSmsSubId
+                + " default=" + mDefaultSubId + " carrierConfigs=" + mCarrierConfigs.size());
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.MissingResourceException;
+
+import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
+
+/**
+ * Keeps a text-to-speech engine bound while alerts are being handled, so that the alert text
+ * can be spoken as soon as the alert tone ends. The engine is bound when an emergency alert
+ * arrives, and shut down after {@link #IDLE_SHUTDOWN_MILLIS} without use. Language
+ * availability is cached per language for the lifetime of the engine.
+ *
+ * <p>While the tone plays, the text is synthesized to a file, which is then played directly.
+ * If synthesis has not finished in time, the text is spoken by the engine as before.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class CellBroadcastTtsManager implements TextToSpeech.OnInitListener {
+    private static final String TAG = "CellBroadcastTtsManager";
+
+    /** Time after the last use before the engine is shut down. */
+    static final long IDLE_SHUTDOWN_MILLIS = 2 * 60 * 1000;
+
+    /** Maximum time to wait for the engine to initialize when speech is requested. */
+    private static final long SPEAK_TIMEOUT_MILLIS = 5000;
+
+    private static final String TTS_UTTERANCE_ID = "com.android.cellbroadcastreceiver.UTTERANCE_ID";
+
+    private static final String SYNTH_UTTERANCE_ID =
+            "com.android.cellbroadcastreceiver.SYNTH_UTTERANCE_ID";
+
+    /** File the alert text is synthesized to, in the cache directory. */
+    private static final String SYNTH_FILE_NAME = "alert_speech.wav";
+
+    private static final int ENGINE_NONE = 0;
+    private static final int ENGINE_INITIALIZING = 1;
+    private static final int ENGINE_READY = 2;
+
+    /** Called on the main thread when speech started by {@link #speak} has ended. */
+    interface Listener {
+        void onSpeechDone();
+    }
+
+    private static CellBroadcastTtsManager sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final File mSynthFile;
+
+    private TextToSpeech mTts;
+    private int mEngineState = ENGINE_NONE;
+
+    /** Cached results of isLanguageAvailable, by language; cleared with the engine. */
+    private final HashMap<String, Boolean> mLanguageAvailable = new HashMap<String, Boolean>();
+
+    // The current utterance, set by prepare().
+    private String mText;
+    private String mPreferredLanguage;
+    private String mDefaultLanguage;
+    /** Language chosen for the current utterance, or null if none is available. */
+    private Locale mLocale;
+    private boolean mLanguageResolved;
+    /** True once mText has been synthesized to mSynthFile. */
+    private boolean mSynthReady;
+    /** Incremented per synthesis, so that a stale completion is ignored. */
+    private int mSynthGeneration;
+
+    /** True if speech was requested before the engine was ready. */
+    private boolean mSpeakPending;
+    private Listener mListener;
+    private MediaPlayer mPlayer;
+    /** True once mPlayer has been prepared and started. */
+    private boolean mPlayerStarted;
+
+    private final Runnable mShutdownRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (DBG) log("idle, shutting down TTS engine");
+            shutdown();
+        }
+    };
+
+    private final Runnable mSpeakTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loge("TTS engine did not initialize in time");
+            mSpeakPending = false;
+            notifySpeechDone();
+        }
+    };
+
+    private CellBroadcastTtsManager(Context context) {
+        mContext = context;
+        mSynthFile = new File(context.getCacheDir(), SYNTH_FILE_NAME);
+    }
+
+    /** Returns the singleton instance. */
+    static CellBroadcastTtsManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CellBroadcastTtsManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Bind the engine if it is not bound, and keep it bound until {@link #release}. */
+    void warmUp() {
+        mHandler.removeCallbacks(mShutdownRunnable);
+        if (mEngineState == ENGINE_NONE) {
+            if (DBG) log("binding TTS engine");
+            mEngineState = ENGINE_INITIALIZING;
+            mTts = new TextToSpeech(mContext, this);
+        }
+    }
+
+    /**
+     * Set the text of the next utterance and start synthesizing it as soon as the engine is
+     * ready.
+     * @param text the text to speak
+     * @param preferredLanguage the language of the message, or null
+     * @param defaultLanguage the language to use if the preferred one is not available
+     */
+    void prepare(String text, String preferredLanguage, String defaultLanguage) {
+        stop();
+        mText = text;
+        mPreferredLanguage = preferredLanguage;
+        mDefaultLanguage = defaultLanguage;
+        mLocale = null;
+        mLanguageResolved = false;
+        mSynthReady = false;
+        warmUp();
+        if (mEngineState == ENGINE_READY) {
+            resolveLanguage();
+            synthesize();
+        }
+    }
+
+    /**
+     * Returns false if the prepared text is known not to be speakable: the engine failed or
+     * neither language is available. Returns true while this is not known yet.
+     */
+    boolean canSpeak() {
+        if (mText == null || mEngineState == ENGINE_NONE) {
+            return false;
+        }
+        return !mLanguageResolved || mLocale != null;
+    }
+
+    /**
+     * Speak the prepared text. If the engine is still initializing, speech starts once it is
+     * ready, or the listener is called after a timeout.
+     * @param listener called when speech has ended, successfully or not
+     * @return false if speech could not be started
+     */
+    boolean speak(Listener listener) {
+        if (!canSpeak()) {
+            return false;
+        }
+        mListener = listener;
+        if (mEngineState == ENGINE_INITIALIZING) {
+            if (DBG) log("speak() waiting for TTS engine");
+            mSpeakPending = true;
+            mHandler.postDelayed(mSpeakTimeoutRunnable, SPEAK_TIMEOUT_MILLIS);
+            return true;
+        }
+        return startSpeaking();
+    }
+
+    /** Stop speaking, if speaking. */
+    void stop() {
+        mSpeakPending = false;
+        mListener = null;
+        mHandler.removeCallbacks(mSpeakTimeoutRunnable);
+        releasePlayer();
+        if (mTts != null && mEngineState == ENGINE_READY) {
+            try {
+                mTts.stop();
+            } catch (IllegalStateException e) {
+                // catch "Unable to retrieve AudioTrack pointer for stop()" exception
+                loge("exception trying to stop text-to-speech");
+            }
+        }
+    }
+
+    /** The caller is done with the engine; shut it down if it stays unused. */
+    void release() {
+        stop();
+        mHandler.removeCallbacks(mShutdownRunnable);
+        mHandler.postDelayed(mShutdownRunnable, IDLE_SHUTDOWN_MILLIS);
+    }
+
+    /**
+     * Callback from TTS engine after initialization.
+     * @param status {@link TextToSpeech#SUCCESS} or {@link TextToSpeech#ERROR}.
+     */
+    @Override
+    public void onInit(int status) {
+        if (DBG) log("onInit() TTS engine status: " + status);
+        if (mTts == null) {
+            return;     // shut down before initialization finished
+        }
+        if (status != TextToSpeech.SUCCESS) {
+            loge("onInit() TTS engine error: " + status);
+            shutdown();
+            mHandler.removeCallbacks(mSpeakTimeoutRunnable);
+            if (mSpeakPending) {
+                mSpeakPending = false;
+                notifySpeechDone();
+            }
+            return;
+        }
+
+        mEngineState = ENGINE_READY;
+        mTts.setOnUtteranceProgressListener(mUtteranceListener);
+        if (mText != null) {
+            resolveLanguage();
+            if (mSpeakPending) {
+                mSpeakPending = false;
+                mHandler.removeCallbacks(mSpeakTimeoutRunnable);
+                if (!startSpeaking()) {
+                    notifySpeechDone();
+                }
+            } else {
+                synthesize();
+            }
+        }
+    }
+
+    /** Returns true if the engine has the language, using the cached result if known. */
+    private boolean isLanguageAvailable(String language) {
+        if (language == null || language.isEmpty()) {
+            return false;
+        }
+        Boolean available = mLanguageAvailable.get(language);
+        if (available == null) {
+            available = (TextToSpeech.LANG_AVAILABLE
+                    == mTts.isLanguageAvailable(new Locale(language)));
+            mLanguageAvailable.put(language, available);
+        }
+        return available;
+    }
+
+    /**
+     * Set the TTS engine language to the preferred language. If not available, set it to the
+     * default language. mLocale is null afterwards if neither is available.
+     */
+    private void resolveLanguage() {
+        mLanguageResolved = true;
+        mLocale = null;
+
+        String language = mPreferredLanguage;
+        if (!isLanguageAvailable(language)) {
+            language = mDefaultLanguage;
+            if (!isLanguageAvailable(language)) {
+                return;
+            }
+            if (DBG) log("Language '" + mPreferredLanguage + "' is not available, using" +
+                    "the default language '" + mDefaultLanguage + "'");
+        }
+
+        if (DBG) log("Setting TTS language to '" + language + '\'');
+
+        try {
+            Locale locale = new Locale(language);
+            int result = mTts.setLanguage(locale);
+            if (DBG) log("TTS setLanguage() returned: " + result);
+            if (result == TextToSpeech.LANG_AVAILABLE) {
+                mLocale = locale;
+            }
+        } catch (MissingResourceException e) {
+            loge("Language '" + language + "' is not available.");
+        }
+    }
+
+    /** Start synthesizing the current text to the file, in the engine's queue. */
+    private void synthesize() {
+        if (mLocale == null) {
+            return;
+        }
+        mSynthFile.delete();
+        mSynthGeneration++;
+        int res = mTts.synthesizeToFile(mText, new Bundle(), mSynthFile,
+                SYNTH_UTTERANCE_ID + mSynthGeneration);
+        if (res != TextToSpeech.SUCCESS) {
+            loge("synthesizeToFile() failed: " + res);
+        }
+    }
+
+    /** Play the synthesized file if ready, otherwise speak through the engine. */
+    private boolean startSpeaking() {
+        if (mLocale == null) {
+            return false;
+        }
+
+        if (mSynthReady && playSynthFile()) {
+            if (DBG) log("Playing synthesized broadcast text");
+            return true;
+        }
+        return speakWithEngine();
+    }
+
+    /** Speak the current text through the engine. */
+    private boolean speakWithEngine() {
+        if (DBG) log("Speaking broadcast text: " + mText);
+        Bundle params = new Bundle();
+        // Play TTS in notification stream.
+        params.putInt(TextToSpeech.Engine.KEY_PARAM_STREAM, AudioManager.STREAM_NOTIFICATION);
+        // Use the non-public parameter 2 --> TextToSpeech.QUEUE_DESTROY for TTS.
+        // The entire playback queue is purged. This is different from QUEUE_FLUSH
+        // in that all entries are purged, not just entries from a given caller.
+        // This is for emergency so we want to kill all other TTS sessions.
+        return mTts.speak(mText, 2, params, TTS_UTTERANCE_ID) == TextToSpeech.SUCCESS;
+    }
+
+    /**
+     * Start playing the synthesized file. The player is prepared asynchronously; if that
+     * fails, the text is spoken through the engine instead.
+     * @return false if the player could not be set up
+     */
+    private boolean playSynthFile() {
+        final MediaPlayer player = new MediaPlayer();
+        try {
+            player.setAudioStreamType(AudioManager.STREAM_NOTIFICATION);
+            player.setDataSource(mSynthFile.getPath());
+            player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+                @Override
+                public void onPrepared(MediaPlayer mp) {
+                    if (mp != mPlayer) {
+                        return;
+                    }
+                    mp.start();
+                    mPlayerStarted = true;
+                }
+            });
+            player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+                @Override
+                public void onCompletion(MediaPlayer mp) {
+                    if (mp != mPlayer) {
+                        return;
+                    }
+                    releasePlayer();
+                    notifySpeechDone();
+                }
+            });
+            player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+                @Override
+                public boolean onError(MediaPlayer mp, int what, int extra) {
+                    if (mp != mPlayer) {
+                        return true;
+                    }
+                    loge("error playing synthesized speech: " + what);
+                    boolean started = mPlayerStarted;
+                    releasePlayer();
+                    if (started || mEngineState != ENGINE_READY || !speakWithEngine()) {
+                        notifySpeechDone();
+                    }
+                    return true;
+                }
+            });
+            player.prepareAsync();
+        } catch (Exception e) {
+            loge("failed to play synthesized speech: " + e);
+            player.release();
+            return false;
+        }
+        mPlayer = player;
+        mPlayerStarted = false;
+        return true;
+    }
+
+    private void releasePlayer() {
+        if (mPlayer != null) {
+            if (mPlayerStarted) {
+                try {
+                    mPlayer.stop();
+                } catch (IllegalStateException e) {
+                    loge("exception trying to stop speech playback");
+                }
+            }
+            mPlayer.release();
+            mPlayer = null;
+            mPlayerStarted = false;
+        }
+    }
+
+    private void notifySpeechDone() {
+        Listener listener = mListener;
+        mListener = null;
+        if (listener != null) {
+            listener.onSpeechDone();
+        }
+    }
+
+    private void shutdown() {
+        stop();
+        if (mTts != null) {
+            try {
+                mTts.shutdown();
+            } catch (IllegalStateException e) {
+                // catch "Unable to retrieve AudioTrack pointer for stop()" exception
+                loge("exception trying to shutdown text-to-speech");
+            }
+            mTts = null;
+        }
+        mEngineState = ENGINE_NONE;
+        mLanguageAvailable.clear();
+        mLanguageResolved = false;
+        mSynthReady = false;
+    }
+
+    /** Utterance callbacks arrive on a binder thread; handle them on the main thread. */
+    private final UtteranceProgressListener mUtteranceListener = new UtteranceProgressListener() {
+        @Override
+        public void onStart(String utteranceId) {
+        }
+
+        @Override
+        public void onDone(final String utteranceId) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if ((SYNTH_UTTERANCE_ID + mSynthGeneration).equals(utteranceId)) {
+                        if (DBG) log("broadcast text synthesized");
+                        mSynthReady = true;
+                    } else if (TTS_UTTERANCE_ID.equals(utteranceId)) {
+                        notifySpeechDone();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onError(final String utteranceId) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    loge("TTS error for utterance " + utteranceId);
+                    if (TTS_UTTERANCE_ID.equals(utteranceId)) {
+                        notifySpeechDone();
+                    }
+                }
+            });
+        }
+    };
+
+    /** Print the engine state and the language availability cache. */
+    void dump(PrintWriter pw) {
+        pw.println("  tts: engine=" + mEngineState + " locale=" + mLocale
+                + " synthReady=" + mSynthReady + " speakPending=" + mSpeakPending
+                + " languages=" + mLanguageAvailable);
+    }
+
+    private static void log(String msg) {
+        Log.d(TAG, msg);
+    }
+
+    private static void loge(String msg) {
+        Log.e(TAG, msg);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.db;
+
+/**
+ * Schema and SQL of the broadcasts table, shared by the database helper, the content provider
+ * and the host benchmarks. The column names are those of Telephony.CellBroadcasts, which is
+ * not available off device.
+ */
+public final class BroadcastTable {
+
+    public static final String DATABASE_NAME = "cell_broadcasts.db";
+    public static final String TABLE_NAME = "broadcasts";
+
+    /**
+     * Database version 1: initial version
+     * Database version 2-9: (reserved for OEM database customization)
+     * Database version 10: adds ETWS and CMAS columns and CDMA support
+     * Database version 11: adds delivery time index
+     */
+    public static final int DATABASE_VERSION = 11;
+
+    /** Columns, as in Telephony.CellBroadcasts. */
+    public static final String _ID = "_id";
+    public static final String GEOGRAPHICAL_SCOPE = "geo_scope";
+    public static final String PLMN = "plmn";
+    public static final String LAC = "lac";
+    public static final String CID = "cid";
+    public static final String SERIAL_NUMBER = "serial_number";
+    public static final String SERVICE_CATEGORY = "service_category";
+    public static final String LANGUAGE_CODE = "language";
+    public static final String MESSAGE_BODY = "body";
+    public static final String DELIVERY_TIME = "date";
+    public static final String MESSAGE_READ = "read";
+    public static final String MESSAGE_FORMAT = "format";
+    public static final String MESSAGE_PRIORITY = "priority";
+    public static final String ETWS_WARNING_TYPE = "etws_warning_type";
+    public static final String CMAS_MESSAGE_CLASS = "cmas_message_class";
+    public static final String CMAS_CATEGORY = "cmas_category";
+    public static final String CMAS_RESPONSE_TYPE = "cmas_response_type";
+    public static final String CMAS_SEVERITY = "cmas_severity";
+    public static final String CMAS_URGENCY = "cmas_urgency";
+    public static final String CMAS_CERTAINTY = "cmas_certainty";
+
+    /** Most recently received first, as Telephony.CellBroadcasts.DEFAULT_SORT_ORDER. */
+    public static final String DEFAULT_SORT_ORDER = DELIVERY_TIME + " DESC";
+
+    public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+            + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + GEOGRAPHICAL_SCOPE + " INTEGER,"
+            + PLMN + " TEXT,"
+            + LAC + " INTEGER,"
+            + CID + " INTEGER,"
+            + SERIAL_NUMBER + " INTEGER,"
+            + SERVICE_CATEGORY + " INTEGER,"
+            + LANGUAGE_CODE + " TEXT,"
+            + MESSAGE_BODY + " TEXT,"
+            + DELIVERY_TIME + " INTEGER,"
+            + MESSAGE_READ + " INTEGER,"
+            + MESSAGE_FORMAT + " INTEGER,"
+            + MESSAGE_PRIORITY + " INTEGER,"
+            + ETWS_WARNING_TYPE + " INTEGER,"
+            + CMAS_MESSAGE_CLASS + " INTEGER,"
+            + CMAS_CATEGORY + " INTEGER,"
+            + CMAS_RESPONSE_TYPE + " INTEGER,"
+            + CMAS_SEVERITY + " INTEGER,"
+            + CMAS_URGENCY + " INTEGER,"
+            + CMAS_CERTAINTY + " INTEGER);";
+
+    public static final String CREATE_DELIVERY_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS deliveryTimeIndex ON " + TABLE_NAME
+            + " (" + DELIVERY_TIME + ");";
+
+    /** Selection of a broadcast by row ID. */
+    public static final String WHERE_ID = _ID + "=?";
+
+    /** Selection of the broadcasts up to a row ID, for chunked deletes. */
+    public static final String WHERE_ID_AT_MOST = _ID + "<=?";
+
+    /** Highest row ID, or 0 if the table is empty. */
+    public static final String SELECT_MAX_ID =
+            "SELECT IFNULL(MAX(" + _ID + "),0) FROM " + TABLE_NAME;
+
+    /**
+     * Maximum number of rows deleted per transaction. Large deletes are split into chunks of
+     * this size so that the write lock is released regularly and incoming alerts can still
+     * be inserted while an archive is being deleted.
+     */
+    public static final int DELETE_CHUNK_SIZE = 500;
+
+    private BroadcastTable() {
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.db;
+
+/**
+ * Computes the columns of a version 10 broadcast row from the fields of a version 1 row. One
+ * instance is reused for every row of an upgrade, so the transform allocates nothing.
+ */
+public final class MessageV1Upgrade {
+
+    /** Message identifiers, as in SmsCbConstants (3GPP TS 23.041 section 9.4.1.2.2). */
+    static final int MESSAGE_ID_ETWS_EARTHQUAKE_WARNING = 0x1100;
+    static final int MESSAGE_ID_ETWS_TSUNAMI_WARNING = 0x1101;
+    static final int MESSAGE_ID_ETWS_EARTHQUAKE_AND_TSUNAMI_WARNING = 0x1102;
+    static final int MESSAGE_ID_ETWS_TEST_MESSAGE = 0x1103;
+    static final int MESSAGE_ID_ETWS_OTHER_EMERGENCY_TYPE = 0x1104;
+    static final int MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL = 0x1112;
+    static final int MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED = 0x1113;
+    static final int MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_LIKELY = 0x1114;
+    static final int MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_OBSERVED = 0x1115;
+    static final int MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_LIKELY = 0x1116;
+    static final int MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_OBSERVED = 0x1117;
+    static final int MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_LIKELY = 0x1118;
+    static final int MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_OBSERVED = 0x1119;
+    static final int MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_LIKELY = 0x111A;
+    static final int MESSAGE_ID_CMAS_ALERT_CHILD_ABDUCTION_EMERGENCY = 0x111B;
+    static final int MESSAGE_ID_CMAS_ALERT_REQUIRED_MONTHLY_TEST = 0x111C;
+    static final int MESSAGE_ID_CMAS_ALERT_EXERCISE = 0x111D;
+    static final int MESSAGE_ID_CMAS_ALERT_OPERATOR_DEFINED_USE = 0x111E;
+
+    /** Message format and priorities, as in SmsCbMessage. */
+    public static final int MESSAGE_FORMAT_3GPP = 1;
+    public static final int MESSAGE_PRIORITY_NORMAL = 0;
+    public static final int MESSAGE_PRIORITY_EMERGENCY = 3;
+
+    /** ETWS warning types, as in SmsCbEtwsInfo. */
+    static final int ETWS_WARNING_TYPE_EARTHQUAKE = 0x00;
+    static final int ETWS_WARNING_TYPE_TSUNAMI = 0x01;
+    static final int ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI = 0x02;
+    static final int ETWS_WARNING_TYPE_TEST_MESSAGE = 0x03;
+    static final int ETWS_WARNING_TYPE_OTHER_EMERGENCY = 0x04;
+
+    /** CMAS message classes, severities, urgencies and certainties, as in SmsCbCmasInfo. */
+    static final int CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT = 0x00;
+    static final int CMAS_CLASS_EXTREME_THREAT = 0x01;
+    static final int CMAS_CLASS_SEVERE_THREAT = 0x02;
+    static final int CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY = 0x03;
+    static final int CMAS_CLASS_REQUIRED_MONTHLY_TEST = 0x04;
+    static final int CMAS_CLASS_CMAS_EXERCISE = 0x05;
+    static final int CMAS_CLASS_OPERATOR_DEFINED_USE = 0x06;
+    static final int CMAS_SEVERITY_EXTREME = 0x0;
+    static final int CMAS_SEVERITY_SEVERE = 0x1;
+    static final int CMAS_URGENCY_IMMEDIATE = 0x0;
+    static final int CMAS_URGENCY_EXPECTED = 0x1;
+    static final int CMAS_CERTAINTY_OBSERVED = 0x0;
+    static final int CMAS_CERTAINTY_LIKELY = 0x1;
+
+    /** Value of the ETWS and CMAS fields that do not apply to a broadcast. */
+    public static final int UNKNOWN = -1;
+
+    public int mSerialNumber;
+    public int mMessagePriority;
+    public int mEtwsWarningType;
+    public int mCmasMessageClass;
+    public int mCmasSeverity;
+    public int mCmasUrgency;
+    public int mCmasCertainty;
+
+    /**
+     * Compute the version 10 columns of a row. Fields that do not apply are set to
+     * {@link #UNKNOWN} and are left out of the new row.
+     * @param geographicalScope the V1 geographical scope
+     * @param updateNumber the V1 serial number, which is only the update number
+     * @param messageCode the V1 message code
+     * @param messageId the V1 message identifier, which becomes the service category
+     */
+    public void upgrade(int geographicalScope, int updateNumber, int messageCode,
+            int messageId) {
+        mSerialNumber = ((geographicalScope & 0x03) << 14)
+                | ((messageCode & 0x3ff) << 4) | (updateNumber & 0x0f);
+
+        mEtwsWarningType = UNKNOWN;
+        mCmasMessageClass = UNKNOWN;
+        mCmasSeverity = UNKNOWN;
+        mCmasUrgency = UNKNOWN;
+        mCmasCertainty = UNKNOWN;
+        switch (messageId) {
+            case MESSAGE_ID_ETWS_EARTHQUAKE_WARNING:
+                mEtwsWarningType = ETWS_WARNING_TYPE_EARTHQUAKE;
+                break;
+
+            case MESSAGE_ID_ETWS_TSUNAMI_WARNING:
+                mEtwsWarningType = ETWS_WARNING_TYPE_TSUNAMI;
+                break;
+
+            case MESSAGE_ID_ETWS_EARTHQUAKE_AND_TSUNAMI_WARNING:
+                mEtwsWarningType = ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI;
+                break;
+
+            case MESSAGE_ID_ETWS_TEST_MESSAGE:
+                mEtwsWarningType = ETWS_WARNING_TYPE_TEST_MESSAGE;
+                break;
+
+            case MESSAGE_ID_ETWS_OTHER_EMERGENCY_TYPE:
+                mEtwsWarningType = ETWS_WARNING_TYPE_OTHER_EMERGENCY;
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL:
+                mCmasMessageClass = CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT;
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED:
+                setCmas(CMAS_CLASS_EXTREME_THREAT, CMAS_SEVERITY_EXTREME, CMAS_URGENCY_IMMEDIATE,
+                        CMAS_CERTAINTY_OBSERVED);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_LIKELY:
+                setCmas(CMAS_CLASS_EXTREME_THREAT, CMAS_SEVERITY_EXTREME, CMAS_URGENCY_IMMEDIATE,
+                        CMAS_CERTAINTY_LIKELY);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_OBSERVED:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_EXTREME, CMAS_URGENCY_EXPECTED,
+                        CMAS_CERTAINTY_OBSERVED);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_LIKELY:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_EXTREME, CMAS_URGENCY_EXPECTED,
+                        CMAS_CERTAINTY_LIKELY);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_OBSERVED:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_SEVERE, CMAS_URGENCY_IMMEDIATE,
+                        CMAS_CERTAINTY_OBSERVED);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_LIKELY:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_SEVERE, CMAS_URGENCY_IMMEDIATE,
+                        CMAS_CERTAINTY_LIKELY);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_OBSERVED:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_SEVERE, CMAS_URGENCY_EXPECTED,
+                        CMAS_CERTAINTY_OBSERVED);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_LIKELY:
+                setCmas(CMAS_CLASS_SEVERE_THREAT, CMAS_SEVERITY_SEVERE, CMAS_URGENCY_EXPECTED,
+                        CMAS_CERTAINTY_LIKELY);
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_CHILD_ABDUCTION_EMERGENCY:
+                mCmasMessageClass = CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY;
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_REQUIRED_MONTHLY_TEST:
+                mCmasMessageClass = CMAS_CLASS_REQUIRED_MONTHLY_TEST;
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_EXERCISE:
+                mCmasMessageClass = CMAS_CLASS_CMAS_EXERCISE;
+                break;
+
+            case MESSAGE_ID_CMAS_ALERT_OPERATOR_DEFINED_USE:
+                mCmasMessageClass = CMAS_CLASS_OPERATOR_DEFINED_USE;
+                break;
+        }
+
+        mMessagePriority = mEtwsWarningType != UNKNOWN || mCmasMessageClass != UNKNOWN
+                ? MESSAGE_PRIORITY_EMERGENCY : MESSAGE_PRIORITY_NORMAL;
+    }
+
+    private void setCmas(int messageClass, int severity, int urgency, int certainty) {
+        mCmasMessageClass = messageClass;
+        mCmasSeverity = severity;
+        mCmasUrgency = urgency;
+        mCmasCertainty = certainty;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import java.util.List;
+
+/**
+ * Decides whether a broadcast is an emergency alert and which tone it plays, from the
+ * broadcast and the additional channels enabled by carrier config.
+ */
+public class AlertClassifier {
+
+    private AlertClassifier() {}
+
+    /**
+     * Check if a cell broadcast is an emergency message.
+     * @param serviceCategory service category (message identifier)
+     * @param isEmergencyPriority true if the broadcast has emergency priority
+     * @param ranges the additional channels of the subscription, or null
+     * @return true if the broadcast is an emergency message
+     */
+    public static boolean isEmergency(int serviceCategory, boolean isEmergencyPriority,
+            List<? extends ChannelRange> ranges) {
+        if (isEmergencyPriority) {
+            return true;
+        }
+        ChannelRange range = ChannelRange.find(ranges, serviceCategory);
+        return range != null && range.mIsEmergency;
+    }
+
+    /**
+     * Returns the tone to play for an emergency broadcast.
+     * @param message the broadcast
+     * @param ranges the additional channels of the subscription, or null
+     */
+    public static ToneType selectTone(BroadcastInfo message,
+            List<? extends ChannelRange> ranges) {
+        if (message.isEtwsMessage()) {
+            switch (message.getEtwsWarningType()) {
+                case BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE:
+                case BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI:
+                    return ToneType.EARTHQUAKE;
+                case BroadcastInfo.ETWS_WARNING_TYPE_TSUNAMI:
+                    return ToneType.TSUNAMI;
+                case BroadcastInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY:
+                    return ToneType.OTHER;
+                default:
+                    return ToneType.ETWS_DEFAULT;
+            }
+        }
+        ChannelRange range = ChannelRange.find(ranges, message.getServiceCategory());
+        return range != null ? range.mToneType : ToneType.CMAS_DEFAULT;
+    }
+}
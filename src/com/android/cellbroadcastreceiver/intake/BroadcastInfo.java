@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+/**
+ * The parts of a received cell broadcast that the intake decisions depend on. The app wraps
+ * the platform message classes; tests supply plain values.
+ */
+public interface BroadcastInfo {
+
+    /** ETWS warning types, as in SmsCbEtwsInfo (3GPP TS 23.041 section 9.3.24). */
+    int ETWS_WARNING_TYPE_EARTHQUAKE = 0x00;
+    int ETWS_WARNING_TYPE_TSUNAMI = 0x01;
+    int ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI = 0x02;
+    int ETWS_WARNING_TYPE_TEST_MESSAGE = 0x03;
+    int ETWS_WARNING_TYPE_OTHER_EMERGENCY = 0x04;
+    int ETWS_WARNING_TYPE_UNKNOWN = -1;
+
+    /** CMAS message classes, as in SmsCbCmasInfo. */
+    int CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT = 0x00;
+    int CMAS_CLASS_EXTREME_THREAT = 0x01;
+    int CMAS_CLASS_SEVERE_THREAT = 0x02;
+    int CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY = 0x03;
+    int CMAS_CLASS_REQUIRED_MONTHLY_TEST = 0x04;
+    int CMAS_CLASS_CMAS_EXERCISE = 0x05;
+    int CMAS_CLASS_OPERATOR_DEFINED_USE = 0x06;
+    int CMAS_CLASS_UNKNOWN = -1;
+
+    /** Returns the subscription the broadcast was received on. */
+    int getSubId();
+
+    /** Returns the service category (message identifier). */
+    int getServiceCategory();
+
+    /** Returns the serial number. */
+    int getSerialNumber();
+
+    /**
+     * Returns the location the broadcast applies to, compared with {@link Object#equals} for
+     * duplicate detection.
+     */
+    Object getLocation();
+
+    /** Returns the message body, or null. */
+    String getMessageBody();
+
+    /** Returns true if the broadcast has emergency priority. */
+    boolean isEmergencyAlertMessage();
+
+    /** Returns true for an ETWS broadcast. */
+    boolean isEtwsMessage();
+
+    /**
+     * Returns the ETWS warning info, compared with {@link Object#equals} for duplicate
+     * detection, or null if there is none.
+     */
+    Object getEtwsWarningInfo();
+
+    /** Returns true for an ETWS primary notification; false if there is no ETWS warning info. */
+    boolean isEtwsPrimary();
+
+    /** Returns the ETWS warning type, or {@link #ETWS_WARNING_TYPE_UNKNOWN}. */
+    int getEtwsWarningType();
+
+    /** Returns true for a CMAS broadcast. */
+    boolean isCmasMessage();
+
+    /** Returns the CMAS message class, or {@link #CMAS_CLASS_UNKNOWN}. */
+    int getCmasMessageClass();
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import java.util.List;
+
+/**
+ * A range of additional channels enabled by carrier config, with the tone type and emergency
+ * flag of its broadcasts. Syntax: "<channel id range>:type=<tone type>,emergency=<true|false>",
+ * e.g. "0xAC00-0xAFED:type=other" or "1234".
+ */
+public class ChannelRange {
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_EMERGENCY = "emergency";
+
+    public int mStartId;
+    public int mEndId;
+    public ToneType mToneType;
+    public boolean mIsEmergency;
+
+    /**
+     * Parse a channel range.
+     * @throws IllegalArgumentException if the channel IDs or the tone type cannot be parsed
+     */
+    public ChannelRange(String channelRange) {
+
+        mToneType = ToneType.CMAS_DEFAULT;
+        mIsEmergency = false;
+
+        int colonIndex = channelRange.indexOf(':');
+        if (colonIndex != -1){
+            // Parse the tone type and emergency flag
+            String[] pairs = channelRange.substring(colonIndex + 1).trim().split(",");
+            for (String pair : pairs) {
+                pair = pair.trim();
+                String[] tokens = pair.split("=");
+                if (tokens.length == 2) {
+                    String key = tokens[0].trim();
+                    String value = tokens[1].trim();
+                    switch (key) {
+                        case KEY_TYPE:
+                            mToneType = ToneType.valueOf(value.toUpperCase());
+                            break;
+                        case KEY_EMERGENCY:
+                            mIsEmergency = value.equalsIgnoreCase("true");
+                            break;
+                    }
+                }
+            }
+            channelRange = channelRange.substring(0, colonIndex).trim();
+        }
+
+        // Parse the channel range
+        int dashIndex = channelRange.indexOf('-');
+        if (dashIndex != -1) {
+            // range that has start id and end id
+            mStartId = Integer.decode(channelRange.substring(0, dashIndex).trim());
+            mEndId = Integer.decode(channelRange.substring(dashIndex + 1).trim());
+        } else {
+            // Not a range, only a single id
+            mStartId = mEndId = Integer.decode(channelRange);
+        }
+    }
+
+    /** Returns true if the range contains a channel. */
+    public boolean contains(int channel) {
+        return channel >= mStartId && channel <= mEndId;
+    }
+
+    /**
+     * Returns the first range that contains a channel.
+     * @param ranges the ranges to search, or null
+     * @param channel the service category (message identifier)
+     * @return the range, or null if none contains the channel
+     */
+    public static <T extends ChannelRange> T find(List<T> ranges, int channel) {
+        if (ranges != null) {
+            for (T range : ranges) {
+                if (range.contains(channel)) {
+                    return range;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Duplicate broadcast detection according to CMAS carrier requirements. Message IDs are kept
+ * in volatile memory. Once the capacity is reached, the oldest message ID is forgotten for
+ * each new one.
+ */
+public class DuplicateDetector {
+
+    /**
+     *  Container for service category, serial number, location, body hash code, and ETWS primary/
+     *  secondary information for duplication detection.
+     */
+    private static final class MessageServiceCategoryAndScope {
+        private final int mServiceCategory;
+        private final int mSerialNumber;
+        private final Object mLocation;
+        private final int mBodyHash;
+        private final boolean mIsEtwsPrimary;
+        private final Object mEtwsWarningInfo;
+
+        MessageServiceCategoryAndScope(int serviceCategory, int serialNumber, Object location,
+                int bodyHash, boolean isEtwsPrimary, Object etwsWarningInfo) {
+            mServiceCategory = serviceCategory;
+            mSerialNumber = serialNumber;
+            mLocation = location;
+            mBodyHash = bodyHash;
+            mIsEtwsPrimary = isEtwsPrimary;
+            mEtwsWarningInfo = etwsWarningInfo;
+        }
+
+        @Override
+        public int hashCode() {
+            if (mEtwsWarningInfo != null) {
+                return mEtwsWarningInfo.hashCode() + mLocation.hashCode() + 5 * mServiceCategory
+                        + 7 * mSerialNumber + 13 * mBodyHash;
+            }
+            return mLocation.hashCode() + 5 * mServiceCategory + 7 * mSerialNumber + 13 * mBodyHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (o instanceof MessageServiceCategoryAndScope) {
+                MessageServiceCategoryAndScope other = (MessageServiceCategoryAndScope) o;
+                if (mEtwsWarningInfo == null && other.mEtwsWarningInfo != null) {
+                    return false;
+                } else if (mEtwsWarningInfo != null && other.mEtwsWarningInfo == null) {
+                    return false;
+                } else if (mEtwsWarningInfo != null && other.mEtwsWarningInfo != null
+                        && !mEtwsWarningInfo.equals(other.mEtwsWarningInfo)) {
+                    return false;
+                }
+                return (mServiceCategory == other.mServiceCategory &&
+                        mSerialNumber == other.mSerialNumber &&
+                        mLocation.equals(other.mLocation) &&
+                        mBodyHash == other.mBodyHash &&
+                        mIsEtwsPrimary == other.mIsEtwsPrimary);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "{mServiceCategory: " + mServiceCategory + " serial number: " + mSerialNumber
+                    + " location: " + mLocation + " mEtwsWarningInfo: "
+                    + (mEtwsWarningInfo == null ? "NULL" : mEtwsWarningInfo.toString())
+                    + " body hash: " + mBodyHash + " mIsEtwsPrimary: " + mIsEtwsPrimary +'}';
+        }
+    }
+
+    /** Maximum number of message IDs to save before removing the oldest message ID. */
+    private final int mCapacity;
+
+    /** Received message IDs. */
+    private final HashSet<MessageServiceCategoryAndScope> mIdSet =
+            new HashSet<MessageServiceCategoryAndScope>(8);
+
+    /** List of message IDs received, for removing oldest ID when max message IDs are received. */
+    private final ArrayList<MessageServiceCategoryAndScope> mIdList =
+            new ArrayList<MessageServiceCategoryAndScope>(8);
+
+    /** Index of message ID to replace with new message ID when max message IDs are received. */
+    private int mIdListIndex = 0;
+
+    /** @param capacity the number of message IDs to remember */
+    public DuplicateDetector(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Remember a broadcast and check whether it was seen before.
+     * @return true if the broadcast is a duplicate and should be ignored
+     */
+    public synchronized boolean isDuplicate(BroadcastInfo message) {
+        // If this is an ETWS message, then we want to include the body message to be a factor for
+        // duplication detection. We found that some Japanese carriers send ETWS messages
+        // with the same serial number, therefore the subsequent messages were all ignored.
+        // In the other hand, US carriers have the requirement that only serial number, location,
+        // and category should be used for duplicate detection.
+        int hashCode = message.isEtwsMessage() && message.getMessageBody() != null
+                ? message.getMessageBody().hashCode() : 0;
+
+        // If this is an ETWS message, we need to include primary/secondary message information to
+        // be a factor for duplication detection as well. Per 3GPP TS 23.041 section 8.2,
+        // duplicate message detection shall be performed independently for primary and secondary
+        // notifications.
+        boolean isEtwsPrimary = message.isEtwsMessage() && message.isEtwsPrimary();
+
+        MessageServiceCategoryAndScope newId = new MessageServiceCategoryAndScope(
+                message.getServiceCategory(), message.getSerialNumber(), message.getLocation(),
+                hashCode, isEtwsPrimary, message.getEtwsWarningInfo());
+
+        // Add the new message ID to the list. It's okay if this is a duplicate message ID,
+        // because the list is only used for removing old message IDs from the hash set.
+        if (mIdList.size() < mCapacity) {
+            mIdList.add(newId);
+        } else {
+            // Get oldest message ID from the list and replace with the new message ID.
+            MessageServiceCategoryAndScope oldestId = mIdList.get(mIdListIndex);
+            mIdList.set(mIdListIndex, newId);
+            // Remove oldest message ID from the set.
+            mIdSet.remove(oldestId);
+            if (++mIdListIndex >= mCapacity) {
+                mIdListIndex = 0;
+            }
+        }
+        // Set.add() returns false if message ID has already been added
+        return !mIdSet.add(newId);
+    }
+
+    /** Returns a one-line summary of the remembered message IDs, for dumpsys. */
+    @Override
+    public synchronized String toString() {
+        return "messageIds=" + mIdSet.size() + " listSize=" + mIdList.size()
+                + " nextReplaced=" + mIdListIndex;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+/**
+ * Filters received broadcasts by user preference and carrier config. The radio has an entire
+ * range of message identifiers enabled, so broadcasts of types the user is not interested in
+ * are dropped here rather than disabled in the radio.
+ */
+public class IntakeFilter {
+
+    /** Channel 50 Cell Broadcast (area info). */
+    public static final int CB_CHANNEL_50 = 50;
+
+    /** Channel 60 Cell Broadcast. */
+    public static final int CB_CHANNEL_60 = 60;
+
+    /** The settings the filter reads. Each is only read if the decision depends on it. */
+    public interface Settings {
+        /** Returns true unless the user disabled all emergency alerts. */
+        boolean isEmergencyAlertsEnabled();
+
+        /** Returns true if the carrier forces ETWS and CMAS test broadcasts off. */
+        boolean isEtwsCmasTestForceDisabled();
+
+        /** Returns true if the user enabled ETWS test broadcasts. */
+        boolean isEtwsTestAlertsEnabled();
+
+        /** Returns true if the user enabled CMAS extreme threat alerts. */
+        boolean isCmasExtremeAlertsEnabled();
+
+        /** Returns true if the user enabled CMAS severe threat alerts. */
+        boolean isCmasSevereAlertsEnabled();
+
+        /** Returns true if the user enabled CMAS AMBER alerts. */
+        boolean isCmasAmberAlertsEnabled();
+
+        /** Returns true if the user enabled CMAS test broadcasts. */
+        boolean isCmasTestAlertsEnabled();
+
+        /** Returns true if channel 50 broadcasts on a subscription are shown to the user. */
+        boolean isChannel50AlertEnabled(int subId);
+
+        /** Returns true if channel 60 broadcasts on a subscription are shown to the user. */
+        boolean isChannel60AlertEnabled(int subId);
+    }
+
+    private IntakeFilter() {}
+
+    /**
+     * Returns true if the user has enabled this message type; false otherwise.
+     * @param message the message to check
+     * @param settings the user and carrier settings
+     */
+    public static boolean isEnabledByUser(BroadcastInfo message, Settings settings) {
+        if (message.isEtwsMessage()) {
+            if (message.getEtwsWarningType() == BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE) {
+                return settings.isEmergencyAlertsEnabled()
+                        && !settings.isEtwsCmasTestForceDisabled()
+                        && settings.isEtwsTestAlertsEnabled();
+            }
+            // Turn on/off emergency notifications is the only way to turn on/off ETWS messages.
+            return settings.isEmergencyAlertsEnabled();
+        }
+
+        if (message.isCmasMessage()) {
+            switch (message.getCmasMessageClass()) {
+                case BroadcastInfo.CMAS_CLASS_EXTREME_THREAT:
+                    return settings.isEmergencyAlertsEnabled()
+                            && settings.isCmasExtremeAlertsEnabled();
+
+                case BroadcastInfo.CMAS_CLASS_SEVERE_THREAT:
+                    return settings.isEmergencyAlertsEnabled()
+                            && settings.isCmasSevereAlertsEnabled();
+
+                case BroadcastInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
+                    return settings.isEmergencyAlertsEnabled()
+                            && settings.isCmasAmberAlertsEnabled();
+
+                case BroadcastInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
+                case BroadcastInfo.CMAS_CLASS_CMAS_EXERCISE:
+                case BroadcastInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
+                    return settings.isEmergencyAlertsEnabled()
+                            && !settings.isEtwsCmasTestForceDisabled()
+                            && settings.isCmasTestAlertsEnabled();
+                default:
+                    return true;    // presidential-level CMAS alerts are always enabled
+            }
+        }
+
+        int serviceCategory = message.getServiceCategory();
+        if (serviceCategory == CB_CHANNEL_50) {
+            return settings.isChannel50AlertEnabled(message.getSubId());
+        } else if (serviceCategory == CB_CHANNEL_60) {
+            return settings.isChannel60AlertEnabled(message.getSubId());
+        }
+
+        return true;    // other broadcast messages are always enabled
+    }
+}
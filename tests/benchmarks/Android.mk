@@ -0,0 +1,24 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# JMH benchmarks for the intake decisions and database transforms, which run on a stock JVM.
+# Run with
+#   java -cp $ANDROID_HOST_OUT/framework/CellBroadcastReceiverBenchmarks.jar \
+#       org.openjdk.jmh.Main -prof gc [benchmark regex]
+# The gc profiler adds gc.alloc.rate.norm, the bytes allocated per operation. The broadcasts
+# table benchmark is a plain program on a local SQLite database:
+#   java -cp $ANDROID_HOST_OUT/framework/CellBroadcastReceiverBenchmarks.jar \
+#       com.android.cellbroadcastreceiver.db.BroadcastArchiveBenchmark [row counts]
+LOCAL_MODULE := CellBroadcastReceiverBenchmarks
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    ../jvm/src/com/android/cellbroadcastreceiver/intake/FakeBroadcast.java \
+    $(call all-java-files-under, ../../src/com/android/cellbroadcastreceiver/intake) \
+    $(call all-java-files-under, ../../src/com/android/cellbroadcastreceiver/db)
+
+# The annotation processor generates the benchmark harness, so it must be on the classpath.
+# sqlite-jdbc bundles the native SQLite library for the broadcasts table benchmark.
+LOCAL_STATIC_JAVA_LIBRARIES := jmh-core jmh-generator-annprocess sqlite-jdbc
+
+include $(BUILD_HOST_JAVA_LIBRARY)
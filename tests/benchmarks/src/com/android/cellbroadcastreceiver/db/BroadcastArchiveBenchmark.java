@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Measures the broadcasts table as it grows, on a local SQLite database through JDBC. For
+ * each mix of broadcasts and row count, the table is created with {@link BroadcastTable},
+ * seeded, and then timed with the statements that CellBroadcastContentProvider runs:
+ * insertNewBroadcast, markBroadcastRead, the list query and the chunked deleteAllBroadcasts.
+ * Run with
+ *   java -cp $ANDROID_HOST_OUT/framework/CellBroadcastReceiverBenchmarks.jar \
+ *       com.android.cellbroadcastreceiver.db.BroadcastArchiveBenchmark [row counts]
+ */
+public class BroadcastArchiveBenchmark {
+
+    /**
+     * Share of CMAS and ETWS broadcasts in the seeded table, in percent. The rest are area info
+     * broadcasts on channel 50.
+     */
+    enum Mix {
+        CMAS(100, 0),
+        ETWS(0, 100),
+        CHANNEL_50_FLOOD(3, 2);
+
+        final int mCmasPercent;
+        final int mEtwsPercent;
+
+        Mix(int cmasPercent, int etwsPercent) {
+            mCmasPercent = cmasPercent;
+            mEtwsPercent = etwsPercent;
+        }
+    }
+
+    private static final int[] DEFAULT_ROW_COUNTS = {1000, 10000, 100000, 1000000};
+
+    /** Number of broadcasts inserted and marked read on top of the seeded rows. */
+    private static final int INSERT_COUNT = 1000;
+    private static final int MARK_READ_COUNT = 1000;
+
+    /** Runs of the list query; the median time to the first row is reported. */
+    private static final int LIST_QUERY_RUNS = 5;
+
+    /** Page size of the broadcast list. */
+    private static final int LIST_PAGE_SIZE = 500;
+
+    private static final int SEED_BATCH_SIZE = 10000;
+    private static final long SEED = 49;
+
+    /** Columns written by CellBroadcastMessage.getContentValues(). */
+    private static final String[] INSERT_COLUMNS = {
+            BroadcastTable.GEOGRAPHICAL_SCOPE,
+            BroadcastTable.PLMN,
+            BroadcastTable.LAC,
+            BroadcastTable.CID,
+            BroadcastTable.SERIAL_NUMBER,
+            BroadcastTable.SERVICE_CATEGORY,
+            BroadcastTable.LANGUAGE_CODE,
+            BroadcastTable.MESSAGE_BODY,
+            BroadcastTable.DELIVERY_TIME,
+            BroadcastTable.MESSAGE_READ,
+            BroadcastTable.MESSAGE_FORMAT,
+            BroadcastTable.MESSAGE_PRIORITY,
+            BroadcastTable.ETWS_WARNING_TYPE,
+            BroadcastTable.CMAS_MESSAGE_CLASS,
+            BroadcastTable.CMAS_CATEGORY,
+            BroadcastTable.CMAS_RESPONSE_TYPE,
+            BroadcastTable.CMAS_SEVERITY,
+            BroadcastTable.CMAS_URGENCY,
+            BroadcastTable.CMAS_CERTAINTY,
+    };
+
+    // The statements below are those that SQLiteDatabase and SQLiteQueryBuilder build for the
+    // content provider.
+    private static final String INSERT_SQL = "INSERT INTO " + BroadcastTable.TABLE_NAME + "("
+            + String.join(",", INSERT_COLUMNS) + ") VALUES ("
+            + String.join(",", Collections.nCopies(INSERT_COLUMNS.length, "?")) + ")";
+
+    private static final String MARK_READ_SQL = "UPDATE " + BroadcastTable.TABLE_NAME + " SET "
+            + BroadcastTable.MESSAGE_READ + "=? WHERE " + BroadcastTable.WHERE_ID;
+
+    private static final String LIST_SQL = "SELECT * FROM " + BroadcastTable.TABLE_NAME
+            + " ORDER BY " + BroadcastTable.DEFAULT_SORT_ORDER;
+
+    private static final String DELETE_CHUNK_END_SQL = "SELECT " + BroadcastTable._ID
+            + " FROM " + BroadcastTable.TABLE_NAME + " ORDER BY " + BroadcastTable._ID
+            + " ASC LIMIT " + (BroadcastTable.DELETE_CHUNK_SIZE - 1) + ",1";
+
+    private static final String DELETE_CHUNK_SQL = "DELETE FROM " + BroadcastTable.TABLE_NAME
+            + " WHERE " + BroadcastTable.WHERE_ID_AT_MOST;
+
+    private static final String[] WORDS = {
+            "alert", "area", "avoid", "boil", "center", "county", "emergency", "evacuate",
+            "flood", "heat", "immediately", "local", "missing", "now", "officials", "rain",
+            "residents", "road", "shelter", "storm", "until", "warning", "water", "wind",
+    };
+
+    private final File mDatabaseFile;
+    private final Random mRandom = new Random(SEED);
+    private Connection mConnection;
+    private long mDeliveryTime = 1475280000000L;
+
+    private BroadcastArchiveBenchmark(File databaseFile) {
+        mDatabaseFile = databaseFile;
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        int[] rowCounts = DEFAULT_ROW_COUNTS;
+        if (args.length > 0) {
+            rowCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                rowCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        File dir = Files.createTempDirectory("cellbroadcast").toFile();
+        System.out.println(String.format("%-16s %8s %8s %11s %9s %15s %15s %9s %11s",
+                "mix", "rows", "seedMs", "dbBytes", "insert/s", "markReadUs50/99",
+                "firstRowMsAll/Pg", "deleteMs", "bytesAfter"));
+        for (Mix mix : Mix.values()) {
+            for (int rowCount : rowCounts) {
+                BroadcastArchiveBenchmark benchmark = new BroadcastArchiveBenchmark(
+                        new File(dir, BroadcastTable.DATABASE_NAME));
+                try {
+                    benchmark.run(mix, rowCount);
+                } finally {
+                    benchmark.close();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    private void run(Mix mix, int rowCount) throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile.getPath());
+        try (Statement statement = mConnection.createStatement()) {
+            // Journal and sync modes of SQLiteOpenHelper databases with the default config.
+            statement.execute("PRAGMA journal_mode=TRUNCATE");
+            statement.execute("PRAGMA synchronous=FULL");
+            statement.execute(BroadcastTable.CREATE_TABLE);
+            statement.execute(BroadcastTable.CREATE_DELIVERY_TIME_INDEX);
+        }
+
+        long start = System.nanoTime();
+        seed(mix, rowCount);
+        long seedMillis = (System.nanoTime() - start) / 1000000;
+        long dbBytes = mDatabaseFile.length();
+
+        double insertsPerSecond = insertNewBroadcasts(mix);
+        long[] markReadMicros = markBroadcastsRead(rowCount);
+        double firstRowAllMillis = timeToFirstRow(LIST_SQL);
+        double firstRowPageMillis = timeToFirstRow(LIST_SQL + " LIMIT " + LIST_PAGE_SIZE);
+
+        start = System.nanoTime();
+        deleteAllBroadcasts();
+        long deleteMillis = (System.nanoTime() - start) / 1000000;
+
+        System.out.println(String.format("%-16s %8d %8d %11d %9.0f %7d/%-7d %7.2f/%-7.2f %9d %11d",
+                mix, rowCount, seedMillis, dbBytes, insertsPerSecond, markReadMicros[0],
+                markReadMicros[1], firstRowAllMillis, firstRowPageMillis, deleteMillis,
+                mDatabaseFile.length()));
+    }
+
+    private void close() throws SQLException {
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
+        }
+        mDatabaseFile.delete();
+        new File(mDatabaseFile.getPath() + "-journal").delete();
+    }
+
+    /** Seed the table in batched transactions. Most of the seeded broadcasts have been read. */
+    private void seed(Mix mix, int rowCount) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(INSERT_SQL)) {
+            for (int i = 0; i < rowCount; i++) {
+                bindBroadcast(insert, mix, mRandom.nextInt(10) != 0);
+                insert.addBatch();
+                if ((i + 1) % SEED_BATCH_SIZE == 0 || i == rowCount - 1) {
+                    insert.executeBatch();
+                    mConnection.commit();
+                }
+            }
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /** Insert unread broadcasts one at a time, each in its own transaction like the provider. */
+    private double insertNewBroadcasts(Mix mix) throws SQLException {
+        try (PreparedStatement insert = mConnection.prepareStatement(INSERT_SQL)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < INSERT_COUNT; i++) {
+                bindBroadcast(insert, mix, false);
+                insert.executeUpdate();
+            }
+            return INSERT_COUNT * 1e9 / (System.nanoTime() - start);
+        }
+    }
+
+    /** Mark random broadcasts read, and return the median and 99th percentile in us. */
+    private long[] markBroadcastsRead(int rowCount) throws SQLException {
+        long[] micros = new long[MARK_READ_COUNT];
+        try (PreparedStatement update = mConnection.prepareStatement(MARK_READ_SQL)) {
+            for (int i = 0; i < MARK_READ_COUNT; i++) {
+                update.setInt(1, 1);
+                update.setString(2, Long.toString(1 + mRandom.nextInt(rowCount + INSERT_COUNT)));
+                long start = System.nanoTime();
+                update.executeUpdate();
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+        }
+        Arrays.sort(micros);
+        return new long[] {micros[MARK_READ_COUNT / 2], micros[MARK_READ_COUNT * 99 / 100]};
+    }
+
+    /** Returns the median time to the first row of a query, in ms. */
+    private double timeToFirstRow(String sql) throws SQLException {
+        long[] nanos = new long[LIST_QUERY_RUNS];
+        for (int i = 0; i < LIST_QUERY_RUNS; i++) {
+            long start = System.nanoTime();
+            try (Statement statement = mConnection.createStatement();
+                    ResultSet result = statement.executeQuery(sql)) {
+                result.next();
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos[LIST_QUERY_RUNS / 2] / 1e6;
+    }
+
+    /** Delete every broadcast in chunks, as CellBroadcastContentProvider.deleteAllBroadcasts. */
+    private void deleteAllBroadcasts() throws SQLException {
+        long maxRowId;
+        try (Statement statement = mConnection.createStatement();
+                ResultSet result = statement.executeQuery(BroadcastTable.SELECT_MAX_ID)) {
+            result.next();
+            maxRowId = result.getLong(1);
+        }
+
+        try (PreparedStatement chunkEnd = mConnection.prepareStatement(DELETE_CHUNK_END_SQL);
+                PreparedStatement delete = mConnection.prepareStatement(DELETE_CHUNK_SQL)) {
+            boolean done = false;
+            while (!done) {
+                mConnection.setAutoCommit(false);
+                long upperRowId = -1;
+                try (ResultSet result = chunkEnd.executeQuery()) {
+                    if (result.next()) {
+                        upperRowId = result.getLong(1);
+                    }
+                }
+                if (upperRowId == -1 || upperRowId >= maxRowId) {
+                    upperRowId = maxRowId;
+                    done = true;
+                }
+                delete.setString(1, Long.toString(upperRowId));
+                delete.executeUpdate();
+                mConnection.commit();
+                mConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /** Bind the columns of a random broadcast of a mix to the insert statement. */
+    private void bindBroadcast(PreparedStatement insert, Mix mix, boolean read)
+            throws SQLException {
+        mDeliveryTime += 1 + mRandom.nextInt(60000);
+        insert.setInt(1, mRandom.nextInt(4));
+        insert.setString(2, "310260");
+        insert.setInt(3, mRandom.nextInt(0x10000));
+        insert.setInt(4, mRandom.nextInt(0x10000));
+        insert.setInt(5, mRandom.nextInt(0x10000));
+        insert.setString(7, "en");
+        insert.setLong(9, mDeliveryTime);
+        insert.setInt(10, read ? 1 : 0);
+        insert.setInt(11, MessageV1Upgrade.MESSAGE_FORMAT_3GPP);
+        for (int i = 13; i <= INSERT_COLUMNS.length; i++) {
+            insert.setNull(i, Types.INTEGER);
+        }
+
+        int type = mRandom.nextInt(100);
+        if (type < mix.mCmasPercent) {
+            int messageClass = mRandom.nextInt(7);
+            insert.setInt(6, 0x1112 + messageClass);
+            insert.setString(8, randomText(15 + mRandom.nextInt(45)));
+            insert.setInt(12, MessageV1Upgrade.MESSAGE_PRIORITY_EMERGENCY);
+            insert.setInt(14, messageClass);
+            insert.setInt(17, mRandom.nextInt(2));
+            insert.setInt(18, mRandom.nextInt(2));
+            insert.setInt(19, mRandom.nextInt(2));
+        } else if (type < mix.mCmasPercent + mix.mEtwsPercent) {
+            int warningType = mRandom.nextInt(5);
+            insert.setInt(6, 0x1100 + warningType);
+            insert.setString(8, randomText(5 + mRandom.nextInt(15)));
+            insert.setInt(12, MessageV1Upgrade.MESSAGE_PRIORITY_EMERGENCY);
+            insert.setInt(13, warningType);
+        } else {
+            // Area info broadcasts repeat a few short texts.
+            insert.setInt(6, 50);
+            insert.setString(8, "Area " + mRandom.nextInt(20));
+            insert.setInt(12, MessageV1Upgrade.MESSAGE_PRIORITY_NORMAL);
+        }
+    }
+
+    private String randomText(int wordCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            if (i != 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per row transform of the version 1 database upgrade, over every message identifier it
+ * maps and a plain channel. The database reads and writes around it are not included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageV1UpgradeBenchmark {
+
+    private final MessageV1Upgrade mUpgrade = new MessageV1Upgrade();
+    private int[] mMessageIds;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mMessageIds = new int[] {
+                MessageV1Upgrade.MESSAGE_ID_ETWS_EARTHQUAKE_WARNING,
+                MessageV1Upgrade.MESSAGE_ID_ETWS_TSUNAMI_WARNING,
+                MessageV1Upgrade.MESSAGE_ID_ETWS_EARTHQUAKE_AND_TSUNAMI_WARNING,
+                MessageV1Upgrade.MESSAGE_ID_ETWS_TEST_MESSAGE,
+                MessageV1Upgrade.MESSAGE_ID_ETWS_OTHER_EMERGENCY_TYPE,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_LIKELY,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_OBSERVED,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_LIKELY,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_OBSERVED,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_SEVERE_IMMEDIATE_LIKELY,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_OBSERVED,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_SEVERE_EXPECTED_LIKELY,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_CHILD_ABDUCTION_EMERGENCY,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_REQUIRED_MONTHLY_TEST,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXERCISE,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_OPERATOR_DEFINED_USE,
+                50,
+        };
+        mNext = 0;
+    }
+
+    @Benchmark
+    public MessageV1Upgrade upgrade() {
+        int messageId = mMessageIds[mNext];
+        if (++mNext == mMessageIds.length) {
+            mNext = 0;
+        }
+        mUpgrade.upgrade(mNext & 0x03, mNext & 0x0f, mNext * 7, messageId);
+        return mUpgrade;
+    }
+}
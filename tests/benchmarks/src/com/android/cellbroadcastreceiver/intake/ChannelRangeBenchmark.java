@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the carrier's additional channel ranges, and matching broadcasts against them. Half
+ * of the looked up channels are in a range and half are not, which scans every range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChannelRangeBenchmark {
+
+    private static final int FIRST_CHANNEL = 0xA000;
+    private static final int CHANNEL_COUNT = 256;
+    private static final ToneType[] TONE_TYPES = ToneType.values();
+
+    @Param({"10", "100", "500"})
+    int mRangeCount;
+
+    private String[] mConfig;
+    private List<ChannelRange> mRanges;
+    private int[] mChannels;
+    private FakeBroadcast[] mBroadcasts;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        // Ranges of 4 channels every 8, in the format of the carrier config.
+        mConfig = new String[mRangeCount];
+        for (int i = 0; i < mRangeCount; i++) {
+            int start = FIRST_CHANNEL + 8 * i;
+            mConfig[i] = String.format("0x%X-0x%X:type=%s, emergency=%b", start, start + 3,
+                    TONE_TYPES[i % TONE_TYPES.length].name().toLowerCase(), i % 2 == 0);
+        }
+        mRanges = parse();
+
+        Random random = new Random(48);
+        mChannels = new int[CHANNEL_COUNT];
+        mBroadcasts = new FakeBroadcast[CHANNEL_COUNT];
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            int offset = 8 * random.nextInt(mRangeCount);
+            mChannels[i] = FIRST_CHANNEL + offset + (i % 2 == 0 ? 1 : 5);
+            mBroadcasts[i] = FakeBroadcast.channel(mChannels[i]);
+        }
+        mNext = 0;
+    }
+
+    @Benchmark
+    public List<ChannelRange> parse() {
+        List<ChannelRange> ranges = new ArrayList<>(mConfig.length);
+        for (String range : mConfig) {
+            ranges.add(new ChannelRange(range));
+        }
+        return ranges;
+    }
+
+    @Benchmark
+    public ChannelRange find() {
+        int channel = mChannels[mNext];
+        mNext = (mNext + 1) % CHANNEL_COUNT;
+        return ChannelRange.find(mRanges, channel);
+    }
+
+    @Benchmark
+    public ToneType selectTone() {
+        FakeBroadcast broadcast = mBroadcasts[mNext];
+        mNext = (mNext + 1) % CHANNEL_COUNT;
+        return AlertClassifier.selectTone(broadcast, mRanges);
+    }
+
+    @Benchmark
+    public boolean isEmergency() {
+        int channel = mChannels[mNext];
+        mNext = (mNext + 1) % CHANNEL_COUNT;
+        return AlertClassifier.isEmergency(channel, false, mRanges);
+    }
+}
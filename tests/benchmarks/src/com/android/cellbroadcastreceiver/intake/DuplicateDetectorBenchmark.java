@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate detection with the detector full, as it is after a storm. Every call both inserts
+ * and evicts, so {@link #insertNew} measures a miss and the lookup cost of a hit is roughly
+ * {@link #insertThenRepeat} minus {@link #insertNew}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DuplicateDetectorBenchmark {
+
+    /** Larger than any capacity, so a broadcast has been evicted before it is used again. */
+    private static final int POOL_SIZE = 1 << 17;
+
+    @Param({"1000", "10000", "65535"})
+    int mCapacity;
+
+    private DuplicateDetector mDetector;
+    private FakeBroadcast[] mBroadcasts;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mBroadcasts = new FakeBroadcast[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            mBroadcasts[i] = FakeBroadcast.cmas(i % 7).serial(i);
+        }
+        mDetector = new DuplicateDetector(mCapacity);
+        for (int i = 0; i < mCapacity; i++) {
+            mDetector.isDuplicate(FakeBroadcast.channel(1000).serial(i));
+        }
+        mNext = 0;
+    }
+
+    private FakeBroadcast next() {
+        FakeBroadcast broadcast = mBroadcasts[mNext];
+        mNext = (mNext + 1) & (POOL_SIZE - 1);
+        return broadcast;
+    }
+
+    @Benchmark
+    public boolean insertNew() {
+        return mDetector.isDuplicate(next());
+    }
+
+    @Benchmark
+    public boolean insertThenRepeat() {
+        FakeBroadcast broadcast = next();
+        mDetector.isDuplicate(broadcast);
+        return mDetector.isDuplicate(broadcast);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The user preference check of every received broadcast, over a mix of CMAS, ETWS and plain
+ * broadcasts. The settings return constants, so only the policy itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IntakeFilterBenchmark {
+
+    /** Settings with the defaults of res/xml/preferences.xml. */
+    private static class DefaultSettings implements IntakeFilter.Settings {
+        @Override
+        public boolean isEmergencyAlertsEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isEtwsCmasTestForceDisabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isEtwsTestAlertsEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isCmasExtremeAlertsEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isCmasSevereAlertsEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isCmasAmberAlertsEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isCmasTestAlertsEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isChannel50AlertEnabled(int subId) {
+            return true;
+        }
+
+        @Override
+        public boolean isChannel60AlertEnabled(int subId) {
+            return false;
+        }
+    }
+
+    private final IntakeFilter.Settings mSettings = new DefaultSettings();
+    private FakeBroadcast[] mBroadcasts;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mBroadcasts = new FakeBroadcast[] {
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_EXTREME_THREAT),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_SEVERE_THREAT),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_CMAS_EXERCISE),
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_OPERATOR_DEFINED_USE),
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE, true),
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TSUNAMI, false),
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true),
+                FakeBroadcast.channel(IntakeFilter.CB_CHANNEL_50),
+                FakeBroadcast.channel(IntakeFilter.CB_CHANNEL_60),
+                FakeBroadcast.channel(0xAC00),
+        };
+        mNext = 0;
+    }
+
+    @Benchmark
+    public boolean isEnabledByUser() {
+        FakeBroadcast broadcast = mBroadcasts[mNext];
+        if (++mNext == mBroadcasts.length) {
+            mNext = 0;
+        }
+        return IntakeFilter.isEnabledByUser(broadcast, mSettings);
+    }
+}
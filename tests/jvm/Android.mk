@@ -0,0 +1,31 @@
+# Copyright 2016, The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Host tests for the intake decisions and database transforms, which have no Android
+# dependencies. Run with
+#   java -cp $ANDROID_HOST_OUT/framework/CellBroadcastReceiverJvmTests.jar \
+#       org.junit.runner.JUnitCore <test class>
+LOCAL_MODULE := CellBroadcastReceiverJvmTests
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../../src/com/android/cellbroadcastreceiver/intake) \
+    $(call all-java-files-under, ../../src/com/android/cellbroadcastreceiver/db)
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
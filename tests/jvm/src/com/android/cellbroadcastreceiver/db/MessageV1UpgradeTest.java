@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Version 1 database row upgrade tests
+ */
+public class MessageV1UpgradeTest {
+
+    @Test
+    public void testSerialNumber() {
+        MessageV1Upgrade upgrade = new MessageV1Upgrade();
+        upgrade.upgrade(3, 0x1f, 0x7ff, 1234);
+        // Geographical scope in bits 14-15, message code in bits 4-13, update number in 0-3.
+        assertEquals((3 << 14) | (0x3ff << 4) | 0xf, upgrade.mSerialNumber);
+    }
+
+    @Test
+    public void testNormalBroadcast() {
+        MessageV1Upgrade upgrade = new MessageV1Upgrade();
+        upgrade.upgrade(0, 0, 0, 50);
+        assertEquals(MessageV1Upgrade.MESSAGE_PRIORITY_NORMAL, upgrade.mMessagePriority);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mEtwsWarningType);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mCmasMessageClass);
+    }
+
+    @Test
+    public void testEtwsBroadcast() {
+        MessageV1Upgrade upgrade = new MessageV1Upgrade();
+        upgrade.upgrade(0, 0, 0, MessageV1Upgrade.MESSAGE_ID_ETWS_TSUNAMI_WARNING);
+        assertEquals(MessageV1Upgrade.MESSAGE_PRIORITY_EMERGENCY, upgrade.mMessagePriority);
+        assertEquals(MessageV1Upgrade.ETWS_WARNING_TYPE_TSUNAMI, upgrade.mEtwsWarningType);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mCmasMessageClass);
+    }
+
+    @Test
+    public void testCmasBroadcastAfterAnother() {
+        MessageV1Upgrade upgrade = new MessageV1Upgrade();
+        upgrade.upgrade(0, 0, 0,
+                MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXTREME_EXPECTED_LIKELY);
+        assertEquals(MessageV1Upgrade.CMAS_CLASS_SEVERE_THREAT, upgrade.mCmasMessageClass);
+        assertEquals(MessageV1Upgrade.CMAS_SEVERITY_EXTREME, upgrade.mCmasSeverity);
+        assertEquals(MessageV1Upgrade.CMAS_URGENCY_EXPECTED, upgrade.mCmasUrgency);
+        assertEquals(MessageV1Upgrade.CMAS_CERTAINTY_LIKELY, upgrade.mCmasCertainty);
+
+        // Fields of the previous row must not leak into the next one.
+        upgrade.upgrade(0, 0, 0, MessageV1Upgrade.MESSAGE_ID_CMAS_ALERT_EXERCISE);
+        assertEquals(MessageV1Upgrade.MESSAGE_PRIORITY_EMERGENCY, upgrade.mMessagePriority);
+        assertEquals(MessageV1Upgrade.CMAS_CLASS_CMAS_EXERCISE, upgrade.mCmasMessageClass);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mCmasSeverity);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mCmasUrgency);
+        assertEquals(MessageV1Upgrade.UNKNOWN, upgrade.mCmasCertainty);
+    }
+}
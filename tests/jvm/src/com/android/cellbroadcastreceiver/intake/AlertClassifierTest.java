@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Channel range, emergency classification and tone selection tests
+ */
+public class AlertClassifierTest {
+
+    private static List<ChannelRange> ranges(String... ranges) {
+        List<ChannelRange> result = new ArrayList<>();
+        for (String range : ranges) {
+            result.add(new ChannelRange(range));
+        }
+        return result;
+    }
+
+    @Test
+    public void testParseChannelRange() {
+        ChannelRange range = new ChannelRange("0xAC00-0xAFED:type=other, emergency=true");
+        assertEquals(0xAC00, range.mStartId);
+        assertEquals(0xAFED, range.mEndId);
+        assertEquals(ToneType.OTHER, range.mToneType);
+        assertTrue(range.mIsEmergency);
+
+        range = new ChannelRange("43008");
+        assertEquals(43008, range.mStartId);
+        assertEquals(43008, range.mEndId);
+        assertEquals(ToneType.CMAS_DEFAULT, range.mToneType);
+        assertFalse(range.mIsEmergency);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidToneType() {
+        new ChannelRange("12:type=siren");
+    }
+
+    @Test
+    public void testFindRange() {
+        List<ChannelRange> ranges = ranges("12", "100-200:type=tsunami", "150-300");
+        assertEquals(12, ChannelRange.find(ranges, 12).mStartId);
+        assertEquals(100, ChannelRange.find(ranges, 150).mStartId);
+        assertEquals(150, ChannelRange.find(ranges, 250).mStartId);
+        assertNull(ChannelRange.find(ranges, 13));
+        assertNull(ChannelRange.find(null, 12));
+    }
+
+    @Test
+    public void testIsEmergency() {
+        List<ChannelRange> ranges = ranges("12:emergency=true", "13:emergency=false");
+        assertTrue(AlertClassifier.isEmergency(99, true, null));
+        assertTrue(AlertClassifier.isEmergency(12, false, ranges));
+        assertFalse(AlertClassifier.isEmergency(13, false, ranges));
+        assertFalse(AlertClassifier.isEmergency(14, false, ranges));
+        assertFalse(AlertClassifier.isEmergency(12, false, null));
+    }
+
+    @Test
+    public void testSelectEtwsTone() {
+        assertEquals(ToneType.EARTHQUAKE, AlertClassifier.selectTone(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE, true), null));
+        assertEquals(ToneType.EARTHQUAKE, AlertClassifier.selectTone(FakeBroadcast.etws(
+                BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE_AND_TSUNAMI, true), null));
+        assertEquals(ToneType.TSUNAMI, AlertClassifier.selectTone(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TSUNAMI, true), null));
+        assertEquals(ToneType.OTHER, AlertClassifier.selectTone(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_OTHER_EMERGENCY, true), null));
+        assertEquals(ToneType.ETWS_DEFAULT, AlertClassifier.selectTone(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true), null));
+    }
+
+    @Test
+    public void testSelectChannelTone() {
+        List<ChannelRange> ranges = ranges("43008:type=earthquake", "0xAFEE:type=tsunami");
+        assertEquals(ToneType.EARTHQUAKE,
+                AlertClassifier.selectTone(FakeBroadcast.channel(43008), ranges));
+        assertEquals(ToneType.TSUNAMI,
+                AlertClassifier.selectTone(FakeBroadcast.channel(0xAFEE), ranges));
+        assertEquals(ToneType.CMAS_DEFAULT,
+                AlertClassifier.selectTone(FakeBroadcast.channel(1234), ranges));
+        assertEquals(ToneType.CMAS_DEFAULT, AlertClassifier.selectTone(
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_EXTREME_THREAT), null));
+    }
+}
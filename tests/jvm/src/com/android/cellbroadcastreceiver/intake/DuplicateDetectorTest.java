@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Duplicate detection tests
+ */
+public class DuplicateDetectorTest {
+
+    @Test
+    public void testSameBroadcastIsDuplicate() {
+        DuplicateDetector detector = new DuplicateDetector(16);
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100)));
+        assertTrue(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100)));
+    }
+
+    @Test
+    public void testSerialCategoryAndLocationDistinguish() {
+        DuplicateDetector detector = new DuplicateDetector(16);
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(101)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(2).serial(100)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100).location("other")));
+    }
+
+    @Test
+    public void testCmasBodyIsIgnored() {
+        DuplicateDetector detector = new DuplicateDetector(16);
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100).body("a")));
+        assertTrue(detector.isDuplicate(FakeBroadcast.cmas(1).serial(100).body("b")));
+    }
+
+    @Test
+    public void testEtwsBodyAndPrimaryDistinguish() {
+        DuplicateDetector detector = new DuplicateDetector(16);
+        int earthquake = BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE;
+        assertFalse(detector.isDuplicate(FakeBroadcast.etws(earthquake, true).serial(7)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.etws(earthquake, false).serial(7)
+                .body("first")));
+        assertFalse(detector.isDuplicate(FakeBroadcast.etws(earthquake, false).serial(7)
+                .body("second")));
+        assertTrue(detector.isDuplicate(FakeBroadcast.etws(earthquake, false).serial(7)
+                .body("second")));
+    }
+
+    @Test
+    public void testOldestIdIsForgottenAtCapacity() {
+        DuplicateDetector detector = new DuplicateDetector(3);
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(1)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(2)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(3)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(4)));
+        // Serial 4 replaced serial 1; serial 3 is still remembered.
+        assertTrue(detector.isDuplicate(FakeBroadcast.cmas(1).serial(3)));
+        assertFalse(detector.isDuplicate(FakeBroadcast.cmas(1).serial(1)));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+/**
+ * A broadcast made of plain values, standing in for SmsCbMessage. The location and the ETWS
+ * warning info are strings, which compare by value like the platform classes.
+ */
+class FakeBroadcast implements BroadcastInfo {
+    private int mSubId = 1;
+    private int mServiceCategory;
+    private int mSerialNumber;
+    private Object mLocation = "310410:1:1";
+    private String mMessageBody = "";
+    private boolean mEmergency;
+    private boolean mEtws;
+    private boolean mEtwsPrimary;
+    private int mEtwsWarningType = ETWS_WARNING_TYPE_UNKNOWN;
+    private boolean mCmas;
+    private int mCmasMessageClass = CMAS_CLASS_UNKNOWN;
+
+    /** Returns a plain broadcast on a channel. */
+    static FakeBroadcast channel(int serviceCategory) {
+        FakeBroadcast broadcast = new FakeBroadcast();
+        broadcast.mServiceCategory = serviceCategory;
+        return broadcast;
+    }
+
+    /** Returns a CMAS broadcast of a message class. */
+    static FakeBroadcast cmas(int messageClass) {
+        FakeBroadcast broadcast = channel(4370 + messageClass);
+        broadcast.mEmergency = true;
+        broadcast.mCmas = true;
+        broadcast.mCmasMessageClass = messageClass;
+        return broadcast;
+    }
+
+    /** Returns an ETWS broadcast of a warning type. */
+    static FakeBroadcast etws(int warningType, boolean primary) {
+        FakeBroadcast broadcast = channel(4352 + warningType);
+        broadcast.mEmergency = true;
+        broadcast.mEtws = true;
+        broadcast.mEtwsWarningType = warningType;
+        broadcast.mEtwsPrimary = primary;
+        return broadcast;
+    }
+
+    FakeBroadcast subId(int subId) {
+        mSubId = subId;
+        return this;
+    }
+
+    FakeBroadcast serial(int serialNumber) {
+        mSerialNumber = serialNumber;
+        return this;
+    }
+
+    FakeBroadcast location(Object location) {
+        mLocation = location;
+        return this;
+    }
+
+    FakeBroadcast body(String messageBody) {
+        mMessageBody = messageBody;
+        return this;
+    }
+
+    @Override
+    public int getSubId() {
+        return mSubId;
+    }
+
+    @Override
+    public int getServiceCategory() {
+        return mServiceCategory;
+    }
+
+    @Override
+    public int getSerialNumber() {
+        return mSerialNumber;
+    }
+
+    @Override
+    public Object getLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public String getMessageBody() {
+        return mMessageBody;
+    }
+
+    @Override
+    public boolean isEmergencyAlertMessage() {
+        return mEmergency;
+    }
+
+    @Override
+    public boolean isEtwsMessage() {
+        return mEtws;
+    }
+
+    @Override
+    public Object getEtwsWarningInfo() {
+        return mEtws ? mEtwsWarningType + ":" + mEtwsPrimary : null;
+    }
+
+    @Override
+    public boolean isEtwsPrimary() {
+        return mEtws && mEtwsPrimary;
+    }
+
+    @Override
+    public int getEtwsWarningType() {
+        return mEtwsWarningType;
+    }
+
+    @Override
+    public boolean isCmasMessage() {
+        return mCmas;
+    }
+
+    @Override
+    public int getCmasMessageClass() {
+        return mCmasMessageClass;
+    }
+}
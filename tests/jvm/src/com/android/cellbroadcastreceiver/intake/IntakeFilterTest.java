@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver.intake;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Intake filter tests
+ */
+public class IntakeFilterTest {
+
+    /** Settings with the defaults of res/xml/preferences.xml. */
+    private static class FakeSettings implements IntakeFilter.Settings {
+        boolean mEmergencyAlerts = true;
+        boolean mTestForceDisabled = false;
+        boolean mEtwsTest = false;
+        boolean mCmasExtreme = true;
+        boolean mCmasSevere = true;
+        boolean mCmasAmber = true;
+        boolean mCmasTest = false;
+        boolean mChannel50 = true;
+        boolean mChannel60 = false;
+
+        @Override
+        public boolean isEmergencyAlertsEnabled() {
+            return mEmergencyAlerts;
+        }
+
+        @Override
+        public boolean isEtwsCmasTestForceDisabled() {
+            return mTestForceDisabled;
+        }
+
+        @Override
+        public boolean isEtwsTestAlertsEnabled() {
+            return mEtwsTest;
+        }
+
+        @Override
+        public boolean isCmasExtremeAlertsEnabled() {
+            return mCmasExtreme;
+        }
+
+        @Override
+        public boolean isCmasSevereAlertsEnabled() {
+            return mCmasSevere;
+        }
+
+        @Override
+        public boolean isCmasAmberAlertsEnabled() {
+            return mCmasAmber;
+        }
+
+        @Override
+        public boolean isCmasTestAlertsEnabled() {
+            return mCmasTest;
+        }
+
+        @Override
+        public boolean isChannel50AlertEnabled(int subId) {
+            return mChannel50;
+        }
+
+        @Override
+        public boolean isChannel60AlertEnabled(int subId) {
+            return mChannel60;
+        }
+    }
+
+    private FakeSettings mSettings;
+
+    @Before
+    public void setUp() {
+        mSettings = new FakeSettings();
+    }
+
+    private boolean isEnabled(FakeBroadcast broadcast) {
+        return IntakeFilter.isEnabledByUser(broadcast, mSettings);
+    }
+
+    @Test
+    public void testDefaults() {
+        assertTrue(isEnabled(
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT)));
+        assertTrue(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_EXTREME_THREAT)));
+        assertTrue(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_SEVERE_THREAT)));
+        assertTrue(isEnabled(
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY)));
+        assertFalse(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST)));
+        assertTrue(isEnabled(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_EARTHQUAKE, true)));
+        assertFalse(isEnabled(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true)));
+        assertTrue(isEnabled(FakeBroadcast.channel(IntakeFilter.CB_CHANNEL_50)));
+        assertFalse(isEnabled(FakeBroadcast.channel(IntakeFilter.CB_CHANNEL_60)));
+        assertTrue(isEnabled(FakeBroadcast.channel(1234)));
+    }
+
+    @Test
+    public void testEmergencyAlertsDisabled() {
+        mSettings.mEmergencyAlerts = false;
+        mSettings.mCmasTest = true;
+        mSettings.mEtwsTest = true;
+        assertTrue(isEnabled(
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT)));
+        assertFalse(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_EXTREME_THREAT)));
+        assertFalse(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_CMAS_EXERCISE)));
+        assertFalse(isEnabled(FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TSUNAMI, true)));
+        assertFalse(isEnabled(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true)));
+    }
+
+    @Test
+    public void testTestAlertsForceDisabledByCarrier() {
+        mSettings.mCmasTest = true;
+        mSettings.mEtwsTest = true;
+        assertTrue(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_OPERATOR_DEFINED_USE)));
+        assertTrue(isEnabled(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true)));
+
+        mSettings.mTestForceDisabled = true;
+        assertFalse(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_OPERATOR_DEFINED_USE)));
+        assertFalse(isEnabled(
+                FakeBroadcast.etws(BroadcastInfo.ETWS_WARNING_TYPE_TEST_MESSAGE, true)));
+    }
+
+    @Test
+    public void testCmasClassPreferences() {
+        mSettings.mCmasSevere = false;
+        mSettings.mCmasAmber = false;
+        assertTrue(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_EXTREME_THREAT)));
+        assertFalse(isEnabled(FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_SEVERE_THREAT)));
+        assertFalse(isEnabled(
+                FakeBroadcast.cmas(BroadcastInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY)));
+    }
+}
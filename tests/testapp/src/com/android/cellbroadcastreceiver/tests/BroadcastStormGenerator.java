@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver.tests;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.Telephony.Sms.Intents;
+import android.telephony.SmsCbCmasInfo;
+import android.telephony.SmsCbMessage;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.cdma.sms.SmsEnvelope;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sends a storm of cell broadcasts to the receiver, through the same intents as the radio,
+ * and reports the send rate, the broadcasts that were not delivered and the delivery latency
+ * at the end of the run. The mix of broadcasts, the share of repeats and the distribution over
+ * subscriptions are configurable, and a run is reproducible from its seed.
+ *
+ * Start a storm from adb with the extras of {@link Config#fromIntent}, e.g.
+ *   adb shell am start -n com.android.cellbroadcastreceiver.tests/.SendTestBroadcastActivity \
+ *       --ez storm true --ei rate 600 --ei duration 60 --ei duplicates 50 --es subs 1:70,2:30
+ */
+public class BroadcastStormGenerator {
+    private static final String TAG = "BroadcastStormGenerator";
+
+    /** Extra holding the sequence number of a broadcast, for matching its result. */
+    private static final String EXTRA_SEQUENCE = "storm_sequence";
+
+    /** Time to wait for the results of the last broadcasts before counting them as dropped. */
+    private static final long RESULT_TIMEOUT_MILLIS = 10000;
+
+    /** Number of recent broadcasts that repeats are picked from. */
+    private static final int RECENT_BROADCASTS = 32;
+
+    /** Maximum number of broadcasts between an ETWS primary and its secondary notification. */
+    private static final int MAX_ETWS_SECONDARY_DELAY = 5;
+
+    private static final int[] ETWS_WARNING_TYPES = {0, 1, 2, 4};
+
+    private static final int[] CMAS_CATEGORIES = {
+            SmsEnvelope.SERVICE_CATEGORY_CMAS_EXTREME_THREAT,
+            SmsEnvelope.SERVICE_CATEGORY_CMAS_SEVERE_THREAT,
+            SmsEnvelope.SERVICE_CATEGORY_CMAS_CHILD_ABDUCTION_EMERGENCY,
+    };
+
+    private static final int CB_CHANNEL_50 = 50;
+
+    /** Configuration of a storm. Percentages of the broadcast mix not used are channel 50. */
+    public static class Config {
+        int mRatePerMinute = 300;
+        int mDurationSeconds = 60;
+        int mCmasPercent = 10;
+        int mEtwsPercent = 10;
+        int mMultipagePercent = 10;
+        int mDuplicatePercent = 30;
+        int[] mSubIds = {SubscriptionManager.getDefaultSmsSubscriptionId()};
+        int[] mSubPercents = {100};
+        long mSeed = 50;
+
+        /**
+         * Read a configuration from intent extras. Missing extras keep their defaults.
+         * rate (int): broadcasts per minute; duration (int): seconds; cmas, etws, multipage
+         * (int): percent of CMAS, ETWS and multi-page UMTS broadcasts; duplicates (int):
+         * percent of repeated broadcasts; subs (string): subscription IDs and percents, as
+         * "1:70,2:30"; seed (long): random seed.
+         */
+        static Config fromIntent(Intent intent) {
+            Config config = new Config();
+            config.mRatePerMinute = intent.getIntExtra("rate", config.mRatePerMinute);
+            config.mDurationSeconds = intent.getIntExtra("duration", config.mDurationSeconds);
+            config.mCmasPercent = intent.getIntExtra("cmas", config.mCmasPercent);
+            config.mEtwsPercent = intent.getIntExtra("etws", config.mEtwsPercent);
+            config.mMultipagePercent = intent.getIntExtra("multipage", config.mMultipagePercent);
+            config.mDuplicatePercent = intent.getIntExtra("duplicates", config.mDuplicatePercent);
+            config.mSeed = intent.getLongExtra("seed", config.mSeed);
+            String subs = intent.getStringExtra("subs");
+            if (subs != null) {
+                String[] pairs = subs.split(",");
+                config.mSubIds = new int[pairs.length];
+                config.mSubPercents = new int[pairs.length];
+                for (int i = 0; i < pairs.length; i++) {
+                    String[] tokens = pairs[i].split(":");
+                    config.mSubIds[i] = Integer.parseInt(tokens[0].trim());
+                    config.mSubPercents[i] = tokens.length > 1
+                            ? Integer.parseInt(tokens[1].trim()) : 100 / pairs.length;
+                }
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "rate=" + mRatePerMinute + "/min duration=" + mDurationSeconds + "s cmas="
+                    + mCmasPercent + "% etws=" + mEtwsPercent + "% multipage="
+                    + mMultipagePercent + "% duplicates=" + mDuplicatePercent + "% subs="
+                    + Arrays.toString(mSubIds) + Arrays.toString(mSubPercents) + " seed="
+                    + mSeed;
+        }
+    }
+
+    /** Called on the main thread when a storm is over. */
+    public interface Listener {
+        void onFinished(String summary);
+    }
+
+    /** Kinds of broadcast sent by the storm. */
+    private static final int KIND_CHANNEL_50 = 0;
+    private static final int KIND_MULTIPAGE = 1;
+    private static final int KIND_CMAS = 2;
+    private static final int KIND_ETWS_PRIMARY = 3;
+    private static final int KIND_ETWS_SECONDARY = 4;
+    private static final String[] KIND_NAMES = {
+            "channel50", "multipage", "cmas", "etwsPrimary", "etwsSecondary"};
+
+    /** A broadcast that was sent or is due, kept to send it again. */
+    private static class Broadcast {
+        final int mKind;
+        final int mSerialNumber;
+        final int mType;
+        final int mSubId;
+        int mDueTick;
+
+        Broadcast(int kind, int serialNumber, int type, int subId) {
+            mKind = kind;
+            mSerialNumber = serialNumber;
+            mType = type;
+            mSubId = subId;
+        }
+    }
+
+    private final Activity mActivity;
+    private final Config mConfig;
+    private final Listener mListener;
+    private final Random mRandom;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private final int mTickCount;
+    private final long mTickMillis;
+    private long mStartUptime;
+    private int mTick;
+    private int mSerialNumber;
+
+    private final Broadcast[] mRecent = new Broadcast[RECENT_BROADCASTS];
+    private int mRecentCount;
+    private final ArrayDeque<Broadcast> mPendingSecondaries = new ArrayDeque<Broadcast>();
+
+    /** Send time of each broadcast by sequence number, or 0 once its result arrived. */
+    private final long[] mSentAt;
+    private final long[] mLatencyMillis;
+    private int mResultCount;
+    private final int[] mSentByKind = new int[KIND_NAMES.length];
+    private int mDuplicateCount;
+    private int mLateTickCount;
+    private long mEndUptime;
+    private boolean mFinished;
+
+    public BroadcastStormGenerator(Activity activity, Config config, Listener listener) {
+        mActivity = activity;
+        mConfig = config;
+        mListener = listener;
+        mRandom = new Random(config.mSeed);
+        mTickCount = Math.max(1, config.mRatePerMinute * config.mDurationSeconds / 60);
+        mTickMillis = Math.max(1, 60000L / Math.max(1, config.mRatePerMinute));
+        mSentAt = new long[mTickCount];
+        mLatencyMillis = new long[mTickCount];
+        mSerialNumber = mRandom.nextInt(0x10000);
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /** Start sending. The listener is called once the storm is over. */
+    public void start() {
+        Log.i(TAG, "starting storm: " + mConfig);
+        mStartUptime = SystemClock.uptimeMillis();
+        mHandler.postAtTime(mTickRunnable, mStartUptime);
+    }
+
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long scheduled = mStartUptime + mTick * mTickMillis;
+            if (SystemClock.uptimeMillis() - scheduled > mTickMillis) {
+                mLateTickCount++;
+            }
+            send(nextBroadcast(), mTick);
+            if (++mTick < mTickCount) {
+                mHandler.postAtTime(this, mStartUptime + mTick * mTickMillis);
+            } else {
+                mEndUptime = SystemClock.uptimeMillis();
+                mHandler.postDelayed(mFinishRunnable, RESULT_TIMEOUT_MILLIS);
+            }
+        }
+    };
+
+    private final Runnable mFinishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            finish();
+        }
+    };
+
+    /** Returns the broadcast of the current tick: a due ETWS secondary, a repeat or a new one. */
+    private Broadcast nextBroadcast() {
+        // Secondary notifications still pending are sent in the last ticks of the storm.
+        int ticksLeft = mTickCount - mTick;
+        Broadcast pending = mPendingSecondaries.peek();
+        if (pending != null && (pending.mDueTick <= mTick
+                || ticksLeft <= mPendingSecondaries.size())) {
+            return mPendingSecondaries.poll();
+        }
+
+        if (mRecentCount > 0 && mRandom.nextInt(100) < mConfig.mDuplicatePercent) {
+            mDuplicateCount++;
+            return mRecent[mRandom.nextInt(Math.min(mRecentCount, RECENT_BROADCASTS))];
+        }
+
+        mSerialNumber = (mSerialNumber + 1) & 0xffff;
+        int subId = pickSubId();
+        int mix = mRandom.nextInt(100);
+        Broadcast broadcast;
+        if (mix < mConfig.mCmasPercent) {
+            broadcast = new Broadcast(KIND_CMAS, mSerialNumber,
+                    CMAS_CATEGORIES[mRandom.nextInt(CMAS_CATEGORIES.length)], subId);
+        } else if (mix < mConfig.mCmasPercent + mConfig.mEtwsPercent
+                && ticksLeft > mPendingSecondaries.size() + 1) {
+            int warningType = ETWS_WARNING_TYPES[mRandom.nextInt(ETWS_WARNING_TYPES.length)];
+            broadcast = new Broadcast(KIND_ETWS_PRIMARY, mSerialNumber, warningType, subId);
+            // The secondary notification follows, interleaved with other broadcasts.
+            Broadcast secondary = new Broadcast(KIND_ETWS_SECONDARY, mSerialNumber, warningType,
+                    subId);
+            secondary.mDueTick = mTick + 1 + mRandom.nextInt(MAX_ETWS_SECONDARY_DELAY);
+            mPendingSecondaries.add(secondary);
+        } else if (mix < mConfig.mCmasPercent + mConfig.mEtwsPercent
+                + mConfig.mMultipagePercent) {
+            broadcast = new Broadcast(KIND_MULTIPAGE, mSerialNumber, CB_CHANNEL_50, subId);
+        } else {
+            broadcast = new Broadcast(KIND_CHANNEL_50, mSerialNumber, CB_CHANNEL_50, subId);
+        }
+        mRecent[mRecentCount++ % RECENT_BROADCASTS] = broadcast;
+        return broadcast;
+    }
+
+    private int pickSubId() {
+        int value = mRandom.nextInt(100);
+        int total = 0;
+        for (int i = 0; i < mConfig.mSubIds.length; i++) {
+            total += mConfig.mSubPercents[i];
+            if (value < total) {
+                return mConfig.mSubIds[i];
+            }
+        }
+        return mConfig.mSubIds[mConfig.mSubIds.length - 1];
+    }
+
+    private void send(Broadcast broadcast, int sequence) {
+        SmsCbMessage message;
+        boolean emergency = true;
+        switch (broadcast.mKind) {
+            case KIND_CMAS:
+                message = SendCdmaCmasMessages.createCmasSmsMessage(broadcast.mType,
+                        broadcast.mSerialNumber, "en", "Storm test alert " + broadcast.mType,
+                        SmsCbCmasInfo.CMAS_CATEGORY_UNKNOWN,
+                        SmsCbCmasInfo.CMAS_RESPONSE_TYPE_UNKNOWN,
+                        SmsCbCmasInfo.CMAS_SEVERITY_UNKNOWN, SmsCbCmasInfo.CMAS_URGENCY_UNKNOWN,
+                        SmsCbCmasInfo.CMAS_CERTAINTY_UNKNOWN);
+                break;
+
+            case KIND_ETWS_PRIMARY:
+                message = SendTestMessages.createEtwsPrimary(broadcast.mSerialNumber,
+                        broadcast.mType);
+                break;
+
+            case KIND_ETWS_SECONDARY:
+                message = SendTestMessages.createEtwsSecondary(broadcast.mSerialNumber,
+                        broadcast.mType);
+                break;
+
+            case KIND_MULTIPAGE:
+                emergency = false;
+                message = SendTestMessages.createMessage7bitMultipageUmts(
+                        broadcast.mSerialNumber, broadcast.mType);
+                break;
+
+            default:
+                emergency = false;
+                message = SendTestMessages.createMessage7bit(broadcast.mSerialNumber,
+                        broadcast.mType);
+                break;
+        }
+        if (message == null) {
+            Log.e(TAG, "failed to create " + KIND_NAMES[broadcast.mKind] + " broadcast");
+            return;
+        }
+
+        Intent intent = new Intent(emergency ? Intents.SMS_EMERGENCY_CB_RECEIVED_ACTION
+                : Intents.SMS_CB_RECEIVED_ACTION);
+        intent.putExtra("message", message);
+        intent.putExtra(PhoneConstants.SUBSCRIPTION_KEY, broadcast.mSubId);
+        intent.putExtra(EXTRA_SEQUENCE, sequence);
+        mSentAt[sequence] = SystemClock.elapsedRealtime();
+        mSentByKind[broadcast.mKind]++;
+        if (emergency) {
+            mActivity.sendOrderedBroadcastAsUser(intent, UserHandle.ALL,
+                    Manifest.permission.RECEIVE_EMERGENCY_BROADCAST,
+                    AppOpsManager.OP_RECEIVE_EMERGECY_SMS, mResultReceiver, mHandler,
+                    Activity.RESULT_OK, null, null);
+        } else {
+            mActivity.sendOrderedBroadcastAsUser(intent, UserHandle.ALL,
+                    Manifest.permission.RECEIVE_SMS, AppOpsManager.OP_RECEIVE_SMS,
+                    mResultReceiver, mHandler, Activity.RESULT_OK, null, null);
+        }
+    }
+
+    /** Receives each broadcast once every receiver has handled it. Runs on the storm thread. */
+    private final BroadcastReceiver mResultReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int sequence = intent.getIntExtra(EXTRA_SEQUENCE, -1);
+            if (mFinished || sequence < 0 || sequence >= mSentAt.length
+                    || mSentAt[sequence] == 0) {
+                return;
+            }
+            mLatencyMillis[mResultCount++] = SystemClock.elapsedRealtime() - mSentAt[sequence];
+            mSentAt[sequence] = 0;
+            if (mTick == mTickCount && mResultCount == sentCount()) {
+                mHandler.removeCallbacks(mFinishRunnable);
+                finish();
+            }
+        }
+    };
+
+    private int sentCount() {
+        int sent = 0;
+        for (int count : mSentByKind) {
+            sent += count;
+        }
+        return sent;
+    }
+
+    private void finish() {
+        mFinished = true;
+        int sent = sentCount();
+        long elapsedMillis = Math.max(1, mEndUptime - mStartUptime);
+        long[] latencies = Arrays.copyOf(mLatencyMillis, mResultCount);
+        Arrays.sort(latencies);
+
+        StringBuilder summary = new StringBuilder();
+        summary.append("sent=").append(sent)
+                .append(" rate=").append(sent * 60000L / elapsedMillis).append("/min")
+                .append(" target=").append(mConfig.mRatePerMinute).append("/min")
+                .append(" lateTicks=").append(mLateTickCount)
+                .append(" duplicates=").append(mDuplicateCount)
+                .append('\n');
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            summary.append(KIND_NAMES[kind]).append('=').append(mSentByKind[kind]).append(' ');
+        }
+        summary.append('\n')
+                .append("delivered=").append(mResultCount)
+                .append(" dropped=").append(sent - mResultCount);
+        if (latencies.length > 0) {
+            summary.append(" latencyMs p50=").append(latencies[latencies.length / 2])
+                    .append(" p95=").append(latencies[latencies.length * 95 / 100])
+                    .append(" max=").append(latencies[latencies.length - 1]);
+        }
+        final String result = summary.toString();
+        for (String line : result.split("\n")) {
+            Log.i(TAG, line);
+        }
+        mThread.quitSafely();
+        mActivity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFinished(result);
+            }
+        });
+    }
+}
@@ -136,7 +136,7 @@ public class SendCdmaCmasMessages {
      * @param certainty CMAS certainty
      * @return the newly created SmsMessage object
      */
-    private static SmsCbMessage createCmasSmsMessage(int serviceCategory, int messageId,
+    static SmsCbMessage createCmasSmsMessage(int serviceCategory, int messageId,
             String language, String body, int cmasCategory, int responseType, int severity,
             int urgency, int certainty) {
         int cmasMessageClass = serviceCategoryToCmasMessageClass(serviceCategory);
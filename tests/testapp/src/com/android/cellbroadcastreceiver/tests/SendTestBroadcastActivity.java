@@ -17,6 +17,7 @@
 package com.android.cellbroadcastreceiver.tests;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -26,6 +27,7 @@ import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.TextView;
 
 import java.util.Random;
 
@@ -41,6 +43,12 @@ public class SendTestBroadcastActivity extends Activity {
     /** Delay time before sending test message (when box is checked). */
     private static final int DELAY_BEFORE_SENDING_MSEC = 5000;
 
+    /** Intent extra to start a broadcast storm; see {@link BroadcastStormGenerator}. */
+    private static final String EXTRA_STORM = "storm";
+
+    /** The running broadcast storm, or null. */
+    private BroadcastStormGenerator mStorm;
+
     private final Handler mDelayHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
@@ -80,6 +88,36 @@ public class SendTestBroadcastActivity extends Activity {
         return Integer.parseInt(categoryField.getText().toString());
     }
 
+    /**
+     * Start a broadcast storm, unless one is already running.
+     * @param config the storm configuration
+     */
+    private void startStorm(BroadcastStormGenerator.Config config) {
+        if (mStorm != null) {
+            Log.e(TAG, "Broadcast storm already running");
+            return;
+        }
+        final TextView stormStatus = (TextView) findViewById(R.id.storm_status);
+        stormStatus.setText(getString(R.string.storm_running, config.toString()));
+        mStorm = new BroadcastStormGenerator(this, config,
+                new BroadcastStormGenerator.Listener() {
+                    @Override
+                    public void onFinished(String summary) {
+                        mStorm = null;
+                        stormStatus.setText(summary);
+                    }
+                });
+        mStorm.start();
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        if (intent.getBooleanExtra(EXTRA_STORM, false)) {
+            startStorm(BroadcastStormGenerator.Config.fromIntent(intent));
+        }
+    }
+
     /**
      * Initialization of the Activity after it is first created.  Must at least
      * call {@link android.app.Activity#setContentView(int)} to
@@ -459,6 +497,14 @@ public class SendTestBroadcastActivity extends Activity {
             }
         });
 
+        /* Start a broadcast storm with the default configuration. */
+        Button stormButton = (Button) findViewById(R.id.button_broadcast_storm);
+        stormButton.setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                startStorm(new BroadcastStormGenerator.Config());
+            }
+        });
+
         /* Update boolean to delay before sending when box is checked. */
         final CheckBox delayCheckbox = (CheckBox) findViewById(R.id.button_delay_broadcast);
         delayCheckbox.setOnClickListener(new OnClickListener() {
@@ -466,5 +512,9 @@ public class SendTestBroadcastActivity extends Activity {
                 mDelayBeforeSending = delayCheckbox.isChecked();
             }
         });
+
+        if (getIntent().getBooleanExtra(EXTRA_STORM, false)) {
+            startStorm(BroadcastStormGenerator.Config.fromIntent(getIntent()));
+        }
     }
 }
@@ -61,6 +61,9 @@ public class SendTestMessages {
             "573065B9306757309707300263FA308C306B5099304830664E0B30553044FF086C178C615E81FF09" +
             "00000000000000000000000000000000000000000000");
 
+    /* ETWS primary notification, which has no body: earthquake warning type, with popup */
+    private static final byte[] etwsMessagePrimary = IccUtils.hexStringToBytes("000011000180");
+
     private static final byte[] gsm7BitTest = {
             (byte)0xC0, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x40, (byte)0x11, (byte)0x41,
             (byte)0xD0, (byte)0x71, (byte)0xDA, (byte)0x04, (byte)0x91, (byte)0xCB, (byte)0xE6,
@@ -427,6 +430,47 @@ public class SendTestMessages {
         }
     }
 
+    /**
+     * Create a GSM 7-bit broadcast, without changing the shared test PDU.
+     * @param serialNumber the serial number
+     * @param category the message identifier, or 0 to keep the one of the test PDU
+     */
+    static SmsCbMessage createMessage7bit(int serialNumber, int category) {
+        return createFromPdu(gsm7BitTest.clone(), serialNumber, category);
+    }
+
+    /**
+     * Create a two page UMTS 7-bit broadcast, without changing the shared test PDU.
+     * @param serialNumber the serial number
+     * @param category the message identifier, or 0 to keep the one of the test PDU
+     */
+    static SmsCbMessage createMessage7bitMultipageUmts(int serialNumber, int category) {
+        return createFromPdu(gsm7BitTestMultipageUmts.clone(), serialNumber, category);
+    }
+
+    /**
+     * Create an ETWS primary notification, which has no body.
+     * @param serialNumber the serial number
+     * @param warningType the ETWS warning type, from 0 (earthquake) to 4 (other emergency)
+     */
+    static SmsCbMessage createEtwsPrimary(int serialNumber, int warningType) {
+        byte[] pdu = etwsMessagePrimary.clone();
+        // Warning type in bits 1-7, emergency user alert in bit 0.
+        pdu[4] = (byte) ((warningType << 1) | 0x01);
+        return createFromPdu(pdu, serialNumber,
+                SmsCbConstants.MESSAGE_ID_ETWS_EARTHQUAKE_WARNING + warningType);
+    }
+
+    /**
+     * Create an ETWS secondary notification, which carries the body.
+     * @param serialNumber the serial number
+     * @param warningType the ETWS warning type, from 0 (earthquake) to 4 (other emergency)
+     */
+    static SmsCbMessage createEtwsSecondary(int serialNumber, int warningType) {
+        return createFromPdu(etwsMessageNormal.clone(), serialNumber,
+                SmsCbConstants.MESSAGE_ID_ETWS_EARTHQUAKE_WARNING + warningType);
+    }
+
     public static void testSendMessage7bit(Activity activity, int serialNumber,
             int category) {
         Intent intent = new Intent(Intents.SMS_CB_RECEIVED_ACTION);
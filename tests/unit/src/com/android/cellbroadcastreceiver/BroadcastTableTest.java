@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.cellbroadcastreceiver;
+
+import android.provider.Telephony;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.cellbroadcastreceiver.db.BroadcastTable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the host copy of the schema matches the framework column names
+ */
+public class BroadcastTableTest {
+
+    @Test
+    @SmallTest
+    public void testColumnNames() {
+        assertEquals(Telephony.CellBroadcasts._ID, BroadcastTable._ID);
+        assertEquals(Telephony.CellBroadcasts.GEOGRAPHICAL_SCOPE,
+                BroadcastTable.GEOGRAPHICAL_SCOPE);
+        assertEquals(Telephony.CellBroadcasts.PLMN, BroadcastTable.PLMN);
+        assertEquals(Telephony.CellBroadcasts.LAC, BroadcastTable.LAC);
+        assertEquals(Telephony.CellBroadcasts.CID, BroadcastTable.CID);
+        assertEquals(Telephony.CellBroadcasts.SERIAL_NUMBER, BroadcastTable.SERIAL_NUMBER);
+        assertEquals(Telephony.CellBroadcasts.SERVICE_CATEGORY, BroadcastTable.SERVICE_CATEGORY);
+        assertEquals(Telephony.CellBroadcasts.LANGUAGE_CODE, BroadcastTable.LANGUAGE_CODE);
+        assertEquals(Telephony.CellBroadcasts.MESSAGE_BODY, BroadcastTable.MESSAGE_BODY);
+        assertEquals(Telephony.CellBroadcasts.DELIVERY_TIME, BroadcastTable.DELIVERY_TIME);
+        assertEquals(Telephony.CellBroadcasts.MESSAGE_READ, BroadcastTable.MESSAGE_READ);
+        assertEquals(Telephony.CellBroadcasts.MESSAGE_FORMAT, BroadcastTable.MESSAGE_FORMAT);
+        assertEquals(Telephony.CellBroadcasts.MESSAGE_PRIORITY, BroadcastTable.MESSAGE_PRIORITY);
+        assertEquals(Telephony.CellBroadcasts.ETWS_WARNING_TYPE,
+                BroadcastTable.ETWS_WARNING_TYPE);
+        assertEquals(Telephony.CellBroadcasts.CMAS_MESSAGE_CLASS,
+                BroadcastTable.CMAS_MESSAGE_CLASS);
+        assertEquals(Telephony.CellBroadcasts.CMAS_CATEGORY, BroadcastTable.CMAS_CATEGORY);
+        assertEquals(Telephony.CellBroadcasts.CMAS_RESPONSE_TYPE,
+                BroadcastTable.CMAS_RESPONSE_TYPE);
+        assertEquals(Telephony.CellBroadcasts.CMAS_SEVERITY, BroadcastTable.CMAS_SEVERITY);
+        assertEquals(Telephony.CellBroadcasts.CMAS_URGENCY, BroadcastTable.CMAS_URGENCY);
+        assertEquals(Telephony.CellBroadcasts.CMAS_CERTAINTY, BroadcastTable.CMAS_CERTAINTY);
+        assertEquals(Telephony.CellBroadcasts.DEFAULT_SORT_ORDER,
+                BroadcastTable.DEFAULT_SORT_ORDER);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbCmasInfo;
+import android.telephony.SmsCbEtwsInfo;
+import android.telephony.SmsCbLocation;
+import android.telephony.SmsCbMessage;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.android.internal.telephony.gsm.SmsCbConstants;
+
+/**
+ * Measures the time from the alert intent to the first draw of the alert dialog, for ETWS and
+ * CMAS alerts. Unlike {@link CellBroadcastAlertDialogTest}, the activity is launched for real,
+ * so that its window is drawn.
+ */
+public class CellBroadcastAlertDialogLatencyTest extends
+        ActivityInstrumentationTestCase2<CellBroadcastAlertDialog> {
+    private static final String TAG = "CellBroadcastAlertDialogLatencyTest";
+
+    /** Maximum time to wait for the first draw. */
+    private static final long FIRST_DRAW_TIMEOUT_MS = 5000;
+
+    public CellBroadcastAlertDialogLatencyTest() {
+        super(CellBroadcastAlertDialog.class);
+    }
+
+    private void setAlertIntent(CellBroadcastMessage message) throws Throwable {
+        // Let the view cache inflate the layout, as after process start.
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                CellBroadcastAlertViewCache.prewarm(getInstrumentation().getTargetContext());
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        long rowId = CellBroadcastMessageCache.putUnsaved(message);
+        Intent intent = new Intent(getInstrumentation().getTargetContext(),
+                CellBroadcastAlertDialog.class);
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS, new long[] {rowId});
+        intent.putExtra(CellBroadcastAlertDialog.EXTRA_INTENT_TIME,
+                SystemClock.elapsedRealtime());
+        setActivityIntent(intent);
+    }
+
+    private long waitForFirstDraw() {
+        CellBroadcastAlertDialog activity = getActivity();
+        long deadline = SystemClock.elapsedRealtime() + FIRST_DRAW_TIMEOUT_MS;
+        while (activity.getFirstDrawLatencyMillis() < 0
+                && SystemClock.elapsedRealtime() < deadline) {
+            CellBroadcastActivityTestCase.waitForMs(10);
+        }
+        return activity.getFirstDrawLatencyMillis();
+    }
+
+    private void finishAlert() throws Throwable {
+        final CellBroadcastAlertDialog activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                activity.dismiss();
+            }
+        });
+    }
+
+    public void testEtwsAlertFirstDraw() throws Throwable {
+        setAlertIntent(new CellBroadcastMessage(new SmsCbMessage(1, 2, 3, new SmsCbLocation(),
+                SmsCbConstants.MESSAGE_ID_ETWS_EARTHQUAKE_WARNING, "ja", "body",
+                SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY,
+                new SmsCbEtwsInfo(SmsCbEtwsInfo.ETWS_WARNING_TYPE_EARTHQUAKE, false, false,
+                        false, null), null)));
+        int hits = CellBroadcastAlertViewCache.getHitCount();
+
+        long latency = waitForFirstDraw();
+        Log.i(TAG, "ETWS alert intent to first draw: " + latency + " ms");
+        assertTrue("ETWS alert was not drawn", latency >= 0);
+        assertEquals(hits + 1, CellBroadcastAlertViewCache.getHitCount());
+
+        finishAlert();
+    }
+
+    public void testCmasAlertFirstDraw() throws Throwable {
+        setAlertIntent(new CellBroadcastMessage(new SmsCbMessage(1, 2, 3, new SmsCbLocation(),
+                SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED, "en", "body",
+                SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY, null,
+                new SmsCbCmasInfo(SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT, 2, 3, 4, 5, 6))));
+        int hits = CellBroadcastAlertViewCache.getHitCount();
+
+        long latency = waitForFirstDraw();
+        Log.i(TAG, "CMAS alert intent to first draw: " + latency + " ms");
+        assertTrue("CMAS alert was not drawn", latency >= 0);
+        assertEquals(hits + 1, CellBroadcastAlertViewCache.getHitCount());
+
+        finishAlert();
+    }
+}
@@ -23,8 +23,13 @@ import android.os.Bundle;
 import android.os.IPowerManager;
 import android.os.PowerManager;
 import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbCmasInfo;
+import android.telephony.SmsCbLocation;
+import android.telephony.SmsCbMessage;
 import android.widget.TextView;
 
+import com.android.internal.telephony.gsm.SmsCbConstants;
+
 import org.junit.After;
 import org.junit.Before;
 import org.mockito.ArgumentCaptor;
@@ -32,8 +37,6 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.ArrayList;
-
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -61,14 +64,12 @@ public class CellBroadcastAlertDialogTest extends
 
     @Override
     protected Intent createActivityIntent() {
-        ArrayList<CellBroadcastMessage> messageList = new ArrayList<>(1);
-        messageList.add(new CellBroadcastMessage(
+        long rowId = CellBroadcastMessageCache.putUnsaved(new CellBroadcastMessage(
                 CellBroadcastAlertServiceTest.createMessage()));
 
         Intent intent = new Intent(getInstrumentation().getTargetContext(),
                         CellBroadcastAlertDialog.class);
-        intent.putParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA,
-                        messageList);
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS, new long[] {rowId});
         return intent;
     }
 
@@ -120,4 +121,60 @@ public class CellBroadcastAlertDialogTest extends
         assertEquals(CellBroadcastAlertServiceTest.createMessage().getMessageBody(),
                 b.getCharSequence(Notification.EXTRA_TEXT));
     }
-}
\ No newline at end of file
+
+    private static CellBroadcastMessage createCmasMessage(int messageClass) {
+        return new CellBroadcastMessage(new SmsCbMessage(1, 2, 3, new SmsCbLocation(),
+                SmsCbConstants.MESSAGE_ID_CMAS_ALERT_EXTREME_IMMEDIATE_OBSERVED, "language",
+                "body", SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY, null,
+                new SmsCbCmasInfo(messageClass, 2, 3, 4, 5, 6)));
+    }
+
+    public void testAlertRank() {
+        assertEquals(CellBroadcastAlertDialog.RANK_PRESIDENTIAL,
+                CellBroadcastAlertDialog.getAlertRank(createCmasMessage(
+                        SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT)));
+        assertEquals(CellBroadcastAlertDialog.RANK_EXTREME,
+                CellBroadcastAlertDialog.getAlertRank(createCmasMessage(
+                        SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT)));
+        assertEquals(CellBroadcastAlertDialog.RANK_SEVERE,
+                CellBroadcastAlertDialog.getAlertRank(createCmasMessage(
+                        SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT)));
+        assertEquals(CellBroadcastAlertDialog.RANK_AMBER,
+                CellBroadcastAlertDialog.getAlertRank(createCmasMessage(
+                        SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY)));
+        assertEquals(CellBroadcastAlertDialog.RANK_TEST,
+                CellBroadcastAlertDialog.getAlertRank(createCmasMessage(
+                        SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST)));
+    }
+
+    public void testHigherPriorityAlertShownFirst() throws Throwable {
+        startActivity();
+        waitForMs(100);
+
+        // The activity starts with an extreme alert. A newer, lower priority alert must not
+        // replace it.
+        sendNewAlert(createCmasMessage(SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT));
+        assertEquals(SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT,
+                getActivity().getLatestMessage().getCmasMessageClass());
+
+        // A higher priority alert is shown right away.
+        sendNewAlert(createCmasMessage(SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT));
+        assertEquals(SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT,
+                getActivity().getLatestMessage().getCmasMessageClass());
+
+        stopActivity();
+    }
+
+    private void sendNewAlert(CellBroadcastMessage message) throws Throwable {
+        long rowId = CellBroadcastMessageCache.putUnsaved(message);
+        final Intent intent = new Intent(getInstrumentation().getTargetContext(),
+                CellBroadcastAlertDialog.class);
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS, new long[] {rowId});
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                getInstrumentation().callActivityOnNewIntent(getActivity(), intent);
+            }
+        });
+    }
+}
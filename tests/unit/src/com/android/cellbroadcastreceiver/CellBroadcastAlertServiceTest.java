@@ -23,13 +23,12 @@ import android.telephony.SmsCbCmasInfo;
 import android.telephony.SmsCbLocation;
 import android.telephony.SmsCbMessage;
 
+import com.android.cellbroadcastreceiver.intake.ToneType;
 import com.android.internal.telephony.gsm.SmsCbConstants;
 
 import org.junit.After;
 import org.junit.Before;
 
-import java.util.ArrayList;
-
 import static com.android.cellbroadcastreceiver.CellBroadcastAlertAudio.ALERT_AUDIO_TONE_TYPE;
 import static com.android.cellbroadcastreceiver.CellBroadcastAlertService.SHOW_NEW_ALERT_ACTION;
 
@@ -84,8 +83,10 @@ public class CellBroadcastAlertServiceTest extends
         assertEquals(CellBroadcastAlertService.class.getName(),
                 intent.getComponent().getClassName());
 
-        CellBroadcastMessage cbmTest =
-                (CellBroadcastMessage) mServiceIntentToVerify.getExtras().get("message");
+        long rowId = mServiceIntentToVerify.getLongExtra(
+                CellBroadcastMessageCache.EXTRA_ROW_ID, 0);
+        assertTrue(rowId != 0);
+        CellBroadcastMessage cbmTest = CellBroadcastMessageCache.get(mContext, rowId);
         CellBroadcastMessage cbm = new CellBroadcastMessage(m);
 
         compareCellBroadCastMessage(cbm, cbmTest);
@@ -98,7 +99,8 @@ public class CellBroadcastAlertServiceTest extends
         intent.setAction(SHOW_NEW_ALERT_ACTION);
 
         SmsCbMessage message = createMessage();
-        intent.putExtra("message", new CellBroadcastMessage(message));
+        long rowId = CellBroadcastMessageCache.putUnsaved(new CellBroadcastMessage(message));
+        intent.putExtra(CellBroadcastMessageCache.EXTRA_ROW_ID, rowId);
 
         startService(intent);
         waitForMs(200);
@@ -106,18 +108,20 @@ public class CellBroadcastAlertServiceTest extends
         // verify audio service intent
         assertEquals(CellBroadcastAlertAudio.ACTION_START_ALERT_AUDIO,
                 mServiceIntentToVerify.getAction());
-        assertEquals(CellBroadcastAlertAudio.ToneType.CMAS_DEFAULT,
+        assertEquals(ToneType.CMAS_DEFAULT,
                 mServiceIntentToVerify.getSerializableExtra(ALERT_AUDIO_TONE_TYPE));
         assertEquals(message.getMessageBody(),
                 mServiceIntentToVerify.getStringExtra(
                         CellBroadcastAlertAudio.ALERT_AUDIO_MESSAGE_BODY));
 
         // verify alert dialog activity intent
-        ArrayList<CellBroadcastMessage> newMessageList = mActivityIntentToVerify
-                .getParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
-        assertEquals(1, newMessageList.size());
+        long[] newRowIds = mActivityIntentToVerify
+                .getLongArrayExtra(CellBroadcastMessageCache.EXTRA_ROW_IDS);
+        assertEquals(1, newRowIds.length);
+        assertEquals(rowId, newRowIds[0]);
         assertEquals(Intent.FLAG_ACTIVITY_NEW_TASK,
                 (mActivityIntentToVerify.getFlags() & Intent.FLAG_ACTIVITY_NEW_TASK));
-        compareCellBroadCastMessage(new CellBroadcastMessage(message), newMessageList.get(0));
+        compareCellBroadCastMessage(new CellBroadcastMessage(message),
+                CellBroadcastMessageCache.get(mContext, newRowIds[0]));
     }
 }
\ No newline at end of file